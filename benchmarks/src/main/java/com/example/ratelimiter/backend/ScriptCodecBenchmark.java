@@ -0,0 +1,136 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.benchmark.BenchmarkSupport;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.config.RedisConfig;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.output.CommandOutput;
+import io.lettuce.core.output.NestedMultiOutput;
+import io.lettuce.core.protocol.RedisStateMachine;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request encoding work around the Lua script call: building the key and ARGV, and parsing the reply
+ * in the template (String), raw connection (byte[]) and fixed-point (integer) shapes.
+ * <p>
+ * {@code decodeMultiReply} and {@code decodeScriptReply} run the same RESP reply through Lettuce's decoder
+ * into a {@link RateLimitResult}: the first with the {@code List} output of {@code ScriptOutputType.MULTI},
+ * the second with {@link ScriptReplyOutput}. Run with {@code -prof gc} for the bytes allocated per reply.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptCodecBenchmark {
+
+    private RedisRateLimiterBackend backend;
+    private List<Object> reply;
+    private List<Object> rawReply;
+    private List<Object> fixedReply;
+    private ByteBuf respReply;
+    private RedisStateMachine stateMachine;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        RateLimiterProperties properties = BenchmarkSupport.unlimitedProperties();
+        backend = new RedisRateLimiterBackend(
+                null,
+                new RedisConfig().rateLimiterScript(properties),
+                new RedisConfig().multiLimitScript(),
+                new RedisConfig().peekScript(),
+                new RedisConfig().leaseAcquireScript(),
+                new RedisConfig().shardTransferScript(),
+                properties,
+                BenchmarkSupport.providerOf(RedisScriptBatcher.class, null),
+                BenchmarkSupport.providerOf(TokenLeaseManager.class, null),
+                BenchmarkSupport.providerOf(HotKeyTracker.class, null),
+                BenchmarkSupport.providerOf(RequestCoalescer.class, null)
+        );
+        // Shape of a StringRedisTemplate reply: integer flag, tokens as a string, integer timings.
+        reply = List.of(1L, "41.966666666667", 0L, 1203L);
+        // Shape of a raw EVALSHA reply on the connection: tokens as bulk bytes, the rest as integers.
+        rawReply = List.of(1L, "41.966666666667".getBytes(StandardCharsets.US_ASCII), 0L, 1203L);
+        // rate_limiter_fixed.lua: micro-tokens as an integer reply.
+        fixedReply = List.of(1L, 41966666L, 0L, 1203L);
+        // The bytes Redis sends for the first shape.
+        respReply = Unpooled.copiedBuffer("*4\r\n:1\r\n$15\r\n41.966666666667\r\n:0\r\n:1203\r\n",
+                StandardCharsets.US_ASCII);
+        stateMachine = new RedisStateMachine();
+        now = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public String bucketKey() {
+        return BucketKeys.key("api-key:demo-key");
+    }
+
+    @Benchmark
+    public byte[][] keysAndArgs() {
+        return backend.keysAndArgs("api-key:demo-key", now);
+    }
+
+    @Benchmark
+    public void parseReply(Blackhole blackhole) {
+        blackhole.consume(ScriptResults.toLong(reply.get(0)));
+        blackhole.consume(ScriptResults.toDouble(reply.get(1)));
+        blackhole.consume(ScriptResults.toLong(reply.get(2)));
+        blackhole.consume(ScriptResults.toLong(reply.get(3)));
+    }
+
+    @Benchmark
+    public void parseRawReply(Blackhole blackhole) {
+        blackhole.consume(ScriptResults.toLong(rawReply.get(0)));
+        blackhole.consume(ScriptResults.toDouble(rawReply.get(1)));
+        blackhole.consume(ScriptResults.toLong(rawReply.get(2)));
+        blackhole.consume(ScriptResults.toLong(rawReply.get(3)));
+    }
+
+    @Benchmark
+    public void parseFixedReply(Blackhole blackhole) {
+        blackhole.consume(ScriptResults.toLong(fixedReply.get(0)));
+        blackhole.consume(ScriptResults.toDouble(fixedReply.get(1)) / ScriptArguments.MICRO_TOKENS);
+        blackhole.consume(ScriptResults.toLong(fixedReply.get(2)));
+        blackhole.consume(ScriptResults.toLong(fixedReply.get(3)));
+    }
+
+    @Benchmark
+    public RateLimitResult decodeMultiReply() {
+        NestedMultiOutput<byte[], byte[]> output = new NestedMultiOutput<>(ByteArrayCodec.INSTANCE);
+        decode(output);
+        return backend.toResult(output.get());
+    }
+
+    @Benchmark
+    public RateLimitResult decodeScriptReply() {
+        ScriptReplyOutput output = new ScriptReplyOutput();
+        decode(output);
+        return backend.toResult(output.get());
+    }
+
+    private void decode(CommandOutput<byte[], byte[], ?> output) {
+        respReply.readerIndex(0);
+        if (!stateMachine.decode(respReply, output)) {
+            throw new IllegalStateException("Incomplete reply");
+        }
+    }
+}
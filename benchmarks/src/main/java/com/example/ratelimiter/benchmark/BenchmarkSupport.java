@@ -0,0 +1,41 @@
+package com.example.ratelimiter.benchmark;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+/**
+ * Wiring helpers for running application components outside a Spring context.
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Properties for a bucket that effectively never runs out, so benchmarks measure the allow path.
+     */
+    public static RateLimiterProperties unlimitedProperties() {
+        return properties(1_000_000_000.0, 1_000_000_000.0, 1.0);
+    }
+
+    public static RateLimiterProperties properties(double capacity, double refillRatePerSecond, double cost) {
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.setCapacity(capacity);
+        properties.setRefillRatePerSecond(refillRatePerSecond);
+        properties.setCostPerRequest(cost);
+        properties.setFailOpenOnRedisError(false);
+        return properties;
+    }
+
+    /**
+     * @return a provider exposing {@code instance}, or an empty provider when it is {@code null}.
+     */
+    public static <T> ObjectProvider<T> providerOf(Class<T> type, T instance) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        if (instance != null) {
+            beanFactory.registerSingleton(type.getName(), instance);
+        }
+        return beanFactory.getBeanProvider(type);
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.ratelimiter.benchmark;
+
+import com.example.ratelimiter.backend.HotKeyTracker;
+import com.example.ratelimiter.backend.RedisRateLimiterBackend;
+import com.example.ratelimiter.backend.RedisScriptBatcher;
+import com.example.ratelimiter.backend.RequestCoalescer;
+import com.example.ratelimiter.backend.TokenLeaseManager;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.config.RedisConfig;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.lettuce.core.cluster.SlotHash;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RedisRateLimiterBackend} against a Redis Cluster, with and without batching, while the cluster is
+ * optionally being resharded.
+ * <p>
+ * Each thread cycles through {@code clients} client ids, so checks spread over every master. With
+ * {@code resharding} a background thread keeps migrating slots of the in-process cluster between masters:
+ * checks hit {@code ASK} while a slot is migrating and {@code MOVED} once it has moved. The {@code failures}
+ * counter must stay at zero; the throughput difference is the cost of the redirects and topology refreshes.
+ * Resharding is only simulated by the stand-in; with {@code -Dredis.cluster.nodes} reshard the real cluster
+ * by hand ({@code redis-cli --cluster reshard}) during the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    @Param({"false", "true"})
+    public boolean resharding;
+
+    /**
+     * Masters of the stand-in cluster.
+     */
+    @Param({"3"})
+    public int nodes;
+
+    @Param({"1024"})
+    public int clients;
+
+    /**
+     * Per-command delay injected by the stand-in nodes.
+     */
+    @Param({"0"})
+    public long redisLatencyMicros;
+
+    private RedisTarget redis;
+    private RedisScriptBatcher batcher;
+    private RedisRateLimiterBackend backend;
+    private Thread resharder;
+    private volatile boolean reshardingActive;
+
+    @Setup
+    public void setUp() throws IOException {
+        redis = RedisTarget.startCluster(nodes, redisLatencyMicros);
+        RateLimiterProperties properties = BenchmarkSupport.unlimitedProperties();
+        properties.getBatching().setEnabled(batching);
+        properties.getAsync().setEnabled(true);
+        DefaultRedisScript<List> script = new RedisConfig().rateLimiterScript(properties);
+
+        if (batching) {
+            batcher = new RedisScriptBatcher(redis.connectionFactory(), properties,
+                    new SimpleMeterRegistry());
+            batcher.start();
+        }
+        backend = new RedisRateLimiterBackend(
+                redis.template(),
+                script,
+                new RedisConfig().multiLimitScript(),
+                new RedisConfig().peekScript(),
+                new RedisConfig().leaseAcquireScript(),
+                new RedisConfig().shardTransferScript(),
+                properties,
+                BenchmarkSupport.providerOf(RedisScriptBatcher.class, batcher),
+                BenchmarkSupport.providerOf(TokenLeaseManager.class, null),
+                BenchmarkSupport.providerOf(HotKeyTracker.class, null),
+                BenchmarkSupport.providerOf(RequestCoalescer.class, null)
+        );
+
+        FakeRedisCluster cluster = redis.fakeCluster();
+        if (resharding && cluster != null) {
+            reshardingActive = true;
+            resharder = new Thread(() -> reshard(cluster), "cluster-resharder");
+            resharder.setDaemon(true);
+            resharder.start();
+        }
+    }
+
+    /**
+     * Moves one random slot at a time to the next master, keeping it in the migrating state for a while so
+     * both {@code ASK} and {@code MOVED} redirects occur.
+     */
+    private void reshard(FakeRedisCluster cluster) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            while (reshardingActive) {
+                int slot = random.nextInt(SlotHash.SLOT_COUNT);
+                cluster.startMigration(slot, (cluster.owner(slot) + 1) % cluster.nodeCount());
+                Thread.sleep(2);
+                cluster.finishMigration(slot);
+                Thread.sleep(1);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        reshardingActive = false;
+        if (resharder != null) {
+            resharder.join();
+        }
+        if (batcher != null) {
+            batcher.stop();
+        }
+        redis.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Client {
+        private String[] clientIds;
+        private int next;
+
+        /**
+         * Checks that threw instead of returning a decision.
+         */
+        public long failures;
+
+        @Setup
+        public void setUp(ClusterBenchmark benchmark, ThreadParams threadParams) {
+            clientIds = new String[benchmark.clients];
+            for (int i = 0; i < clientIds.length; i++) {
+                clientIds[i] = "api-key:bench-" + threadParams.getThreadIndex() + "-" + i;
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            failures = 0;
+        }
+
+        private String nextClientId() {
+            String clientId = clientIds[next];
+            next = next + 1 == clientIds.length ? 0 : next + 1;
+            return clientId;
+        }
+    }
+
+    @Benchmark
+    public RateLimitResult tryAcquire(Client client) {
+        try {
+            return backend.tryAcquire(client.nextClientId(), System.currentTimeMillis());
+        } catch (RuntimeException ex) {
+            client.failures++;
+            return null;
+        }
+    }
+
+    @Benchmark
+    public RateLimitResult tryAcquireAsync(Client client) {
+        try {
+            return backend.tryAcquireAsync(client.nextClientId(), System.currentTimeMillis()).join();
+        } catch (RuntimeException ex) {
+            client.failures++;
+            return null;
+        }
+    }
+}
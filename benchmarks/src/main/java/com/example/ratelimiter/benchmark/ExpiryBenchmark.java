@@ -0,0 +1,127 @@
+package com.example.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write amplification of bucket expiry: {@code rate_limiter.lua}, which only pushes a key's expiry out when
+ * it would fall short, against the former script issuing {@code EXPIRE} on every call
+ * ({@code rate_limiter_expire_always.lua}).
+ * <p>
+ * Needs a real Redis ({@code -Dredis.host}, with {@code appendonly yes} for the AOF figure): after each
+ * iteration it prints the replication stream ({@code master_repl_offset}) and AOF ({@code aof_current_size})
+ * growth per script call, which is what a replica and the AOF pay for every request. Throughput is the
+ * usual JMH score. Against the stand-in, which runs no scripts, both byte counts read zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpiryBenchmark {
+
+    @Param({"expire-always", "expire-on-demand"})
+    public String script;
+
+    /**
+     * Keys each thread cycles through.
+     */
+    @Param({"1024"})
+    public int clients;
+
+    private RedisTarget redis;
+    private DefaultRedisScript<List> bucketScript;
+    private final LongAdder calls = new LongAdder();
+    private long replicationOffset;
+    private long aofSize;
+
+    @Setup
+    public void setUp() throws IOException {
+        redis = RedisTarget.start(0);
+        bucketScript = new DefaultRedisScript<>();
+        bucketScript.setLocation(new ClassPathResource(script.equals("expire-always")
+                ? "lua/rate_limiter_expire_always.lua"
+                : "lua/rate_limiter.lua"));
+        bucketScript.setResultType(List.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        calls.reset();
+        replicationOffset = info("replication", "master_repl_offset");
+        aofSize = info("persistence", "aof_current_size");
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long n = Math.max(1L, calls.sum());
+        System.out.printf("%n[%s] %d calls, replication %.1f B/call, AOF %.1f B/call%n", script, calls.sum(),
+                (info("replication", "master_repl_offset") - replicationOffset) / (double) n,
+                (info("persistence", "aof_current_size") - aofSize) / (double) n);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    private long info(String section, String field) {
+        Properties info = redis.template().execute((RedisCallback<Properties>) connection ->
+                connection.serverCommands().info(section));
+        String value = info == null ? null : info.getProperty(field);
+        return value == null ? 0L : Long.parseLong(value.trim());
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private List<String>[] keys;
+        private int next;
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setUp(ExpiryBenchmark benchmark, ThreadParams threadParams) {
+            keys = new List[benchmark.clients];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = List.of("rate_limiter:{api-key:expiry-" + threadParams.getThreadIndex() + "-" + i + "}");
+            }
+        }
+
+        private List<String> nextKey() {
+            List<String> key = keys[next];
+            next = next + 1 == keys.length ? 0 : next + 1;
+            return key;
+        }
+    }
+
+    /**
+     * A bucket that sustains one request per key per cycle: capacity 100, refill 10 tokens per second.
+     */
+    @Benchmark
+    public Object tryAcquire(Client client) {
+        calls.increment();
+        return redis.template().execute(bucketScript, client.nextKey(), "100.0", "10.0", "1.0",
+                Long.toString(System.currentTimeMillis()));
+    }
+}
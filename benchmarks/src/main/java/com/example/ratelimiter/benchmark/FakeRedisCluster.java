@@ -0,0 +1,134 @@
+package com.example.ratelimiter.benchmark;
+
+import io.lettuce.core.cluster.SlotHash;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Several {@link FakeRedisServer}s acting as the masters of a Redis Cluster, for exercising slot routing and
+ * redirects without launching real nodes.
+ * <p>
+ * Slots start evenly split. {@link #startMigration} makes the owner answer {@code ASK} for a slot and the
+ * target accept it after {@code ASKING}; {@link #finishMigration} hands the slot over, after which the old
+ * owner answers {@code MOVED}. {@code CLUSTER NODES} always reflects the current owners, like a real cluster
+ * that has bumped its epoch.
+ */
+public final class FakeRedisCluster implements AutoCloseable {
+
+    private static final int NOT_MIGRATING = -1;
+
+    private final FakeRedisServer[] nodes;
+    private final String[] nodeIds;
+    private final AtomicIntegerArray owners = new AtomicIntegerArray(SlotHash.SLOT_COUNT);
+    private final AtomicIntegerArray migratingTo = new AtomicIntegerArray(SlotHash.SLOT_COUNT);
+
+    public FakeRedisCluster(int nodeCount, long latencyMicros) throws IOException {
+        this.nodes = new FakeRedisServer[nodeCount];
+        this.nodeIds = new String[nodeCount];
+        for (int slot = 0; slot < SlotHash.SLOT_COUNT; slot++) {
+            owners.set(slot, (int) ((long) slot * nodeCount / SlotHash.SLOT_COUNT));
+            migratingTo.set(slot, NOT_MIGRATING);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds[i] = String.format(Locale.ROOT, "%040x", i + 1);
+            nodes[i] = new FakeRedisServer(latencyMicros, this, i);
+        }
+    }
+
+    public List<Integer> ports() {
+        List<Integer> ports = new ArrayList<>(nodes.length);
+        for (FakeRedisServer node : nodes) {
+            ports.add(node.getPort());
+        }
+        return ports;
+    }
+
+    public int nodeCount() {
+        return nodes.length;
+    }
+
+    public int owner(int slot) {
+        return owners.get(slot);
+    }
+
+    /**
+     * Start moving {@code slot} to node {@code target}: its owner redirects with {@code ASK} from now on.
+     */
+    public void startMigration(int slot, int target) {
+        migratingTo.set(slot, target);
+    }
+
+    /**
+     * Complete a migration started with {@link #startMigration}.
+     */
+    public void finishMigration(int slot) {
+        int target = migratingTo.get(slot);
+        if (target != NOT_MIGRATING) {
+            owners.set(slot, target);
+            migratingTo.set(slot, NOT_MIGRATING);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FakeRedisServer node : nodes) {
+            node.close();
+        }
+    }
+
+    String nodeId(int node) {
+        return nodeIds[node];
+    }
+
+    /**
+     * @return the error reply redirecting a command for {@code slot} received by {@code node}, or {@code null}
+     * if the node serves it
+     */
+    String redirect(int node, int slot, boolean asking) {
+        int owner = owners.get(slot);
+        int target = migratingTo.get(slot);
+        if (owner == node) {
+            return target == NOT_MIGRATING ? null : "-ASK " + slot + " " + address(target) + "\r\n";
+        }
+        if (target == node && asking) {
+            return null;
+        }
+        return "-MOVED " + slot + " " + address(owner) + "\r\n";
+    }
+
+    /**
+     * {@code CLUSTER NODES} as seen from {@code self}.
+     */
+    String nodes(int self) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < nodes.length; i++) {
+            sb.append(nodeIds[i]).append(' ')
+                    .append(address(i)).append('@').append(nodes[i].getPort() + 10000).append(' ')
+                    .append(i == self ? "myself,master" : "master")
+                    .append(" - 0 0 ").append(i + 1).append(" connected");
+            int start = -1;
+            for (int slot = 0; slot <= SlotHash.SLOT_COUNT; slot++) {
+                boolean owned = slot < SlotHash.SLOT_COUNT && owners.get(slot) == i;
+                if (owned && start < 0) {
+                    start = slot;
+                } else if (!owned && start >= 0) {
+                    sb.append(' ').append(start);
+                    if (slot - 1 > start) {
+                        sb.append('-').append(slot - 1);
+                    }
+                    start = -1;
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String address(int node) {
+        return "127.0.0.1:" + nodes[node].getPort();
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.ratelimiter.benchmark;
+
+import io.lettuce.core.cluster.SlotHash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Minimal RESP2 server standing in for Redis in benchmarks.
+ *
+ * It speaks just enough of the protocol for Lettuce and the rate limiter scripts: every script call is
+ * answered with an "allowed" reply, so the benchmark measures the client side (serialization, connection
+ * handling, threading) rather than Redis itself. An optional per-command delay emulates network and Redis
+ * latency: each reply is held back until that long after its command arrived, so pipelined commands on one
+ * connection overlap like they do against a remote Redis instead of queueing behind each other's delay.
+ * Use {@code -Dredis.host}/{@code -Dredis.port} in the benchmarks to target a real Redis instead.
+ * <p>
+ * As a node of a {@link FakeRedisCluster} it also answers {@code CLUSTER NODES} and redirects script calls
+ * for slots it does not own with {@code MOVED}, or {@code ASK} while the slot is being migrated.
+ */
+public final class FakeRedisServer implements AutoCloseable {
+
+    private static final byte[] ALLOWED_REPLY = "*4\r\n:1\r\n$1\r\n1\r\n:0\r\n:1000\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocket serverSocket;
+    private final long latencyNanos;
+    private final FakeRedisCluster cluster;
+    private final int nodeIndex;
+    private volatile boolean running = true;
+
+    public FakeRedisServer(long latencyMicros) throws IOException {
+        this(latencyMicros, null, -1);
+    }
+
+    FakeRedisServer(long latencyMicros, FakeRedisCluster cluster, int nodeIndex) throws IOException {
+        this.serverSocket = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+        this.latencyNanos = latencyMicros * 1_000L;
+        this.cluster = cluster;
+        this.nodeIndex = nodeIndex;
+        Thread acceptor = new Thread(this::acceptLoop, "fake-redis-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread handler = new Thread(() -> serve(socket), "fake-redis-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException ex) {
+                if (running) {
+                    throw new IllegalStateException("Fake Redis accept failed", ex);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        if (latencyNanos > 0) {
+            serveDelayed(socket);
+            return;
+        }
+        Session session = new Session();
+        try (socket;
+             InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            while (running) {
+                byte[][] command = readCommand(in);
+                reply(command, out, session);
+                // Flush only once the client has no more pipelined commands in flight.
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException ex) {
+            // Client disconnected.
+        } catch (IOException ex) {
+            if (running) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Reads on this thread and replies from a second one, each reply due {@code latencyNanos} after its
+     * command was read.
+     */
+    private void serveDelayed(Socket socket) {
+        BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+        Thread writer = new Thread(() -> writeDelayed(socket, pending), "fake-redis-writer");
+        writer.setDaemon(true);
+        writer.start();
+        try (socket; InputStream in = new BufferedInputStream(socket.getInputStream())) {
+            while (running) {
+                byte[][] command = readCommand(in);
+                pending.add(new Pending(command, System.nanoTime() + latencyNanos));
+            }
+        } catch (EOFException ex) {
+            // Client disconnected.
+        } catch (IOException ex) {
+            if (running && !socket.isClosed()) {
+                ex.printStackTrace();
+            }
+        } finally {
+            writer.interrupt();
+        }
+    }
+
+    private void writeDelayed(Socket socket, BlockingQueue<Pending> pending) {
+        Session session = new Session();
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (running) {
+                Pending next = pending.take();
+                long wait;
+                while ((wait = next.dueNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                reply(next.command, out, session);
+                if (pending.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Reader finished.
+        } catch (IOException ex) {
+            if (running && !socket.isClosed()) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void reply(byte[][] command, OutputStream out, Session session) throws IOException {
+        String name = new String(command[0], StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+        boolean asking = session.asking;
+        session.asking = false;
+        switch (name) {
+            case "PING" -> write(out, "+PONG\r\n");
+            case "EVAL", "EVALSHA", "EVAL_RO", "EVALSHA_RO", "FCALL", "FCALL_RO" -> {
+                String redirect = cluster != null && command.length > 3 && !"0".equals(ascii(command[2]))
+                        ? cluster.redirect(nodeIndex, SlotHash.getSlot(command[3]), asking)
+                        : null;
+                if (redirect != null) {
+                    write(out, redirect);
+                } else {
+                    out.write(ALLOWED_REPLY);
+                }
+            }
+            case "ASKING" -> {
+                session.asking = true;
+                write(out, "+OK\r\n");
+            }
+            case "CLUSTER" -> {
+                if (cluster == null) {
+                    write(out, "-ERR This instance has cluster support disabled\r\n");
+                } else if (ascii(command[1]).equalsIgnoreCase("NODES")) {
+                    bulk(out, cluster.nodes(nodeIndex));
+                } else if (ascii(command[1]).equalsIgnoreCase("MYID")) {
+                    bulk(out, cluster.nodeId(nodeIndex));
+                } else {
+                    write(out, "+OK\r\n");
+                }
+            }
+            case "INFO" -> bulk(out, "# Clients\r\nconnected_clients:1\r\n# Replication\r\nrole:master\r\n"
+                    + "master_repl_offset:0\r\n");
+            case "SCRIPT" -> {
+                String sub = new String(command[1], StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+                if (sub.equals("LOAD")) {
+                    bulk(out, sha1(command[2]));
+                } else if (sub.equals("EXISTS")) {
+                    StringBuilder sb = new StringBuilder("*").append(command.length - 2).append("\r\n");
+                    for (int i = 2; i < command.length; i++) {
+                        sb.append(":1\r\n");
+                    }
+                    write(out, sb.toString());
+                } else {
+                    write(out, "+OK\r\n");
+                }
+            }
+            case "TIME" -> {
+                long micros = System.currentTimeMillis() * 1_000L;
+                String seconds = Long.toString(micros / 1_000_000L);
+                String fraction = Long.toString(micros % 1_000_000L);
+                write(out, "*2\r\n$" + seconds.length() + "\r\n" + seconds + "\r\n$"
+                        + fraction.length() + "\r\n" + fraction + "\r\n");
+            }
+            // Makes Lettuce fall back to RESP2 like it does against Redis 5.
+            case "HELLO" -> write(out, "-ERR unknown command 'HELLO'\r\n");
+            default -> write(out, "+OK\r\n");
+        }
+    }
+
+    private static String ascii(byte[] value) {
+        return new String(value, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Per-connection state: {@code ASKING} applies to the next command only.
+     */
+    private static final class Session {
+        private boolean asking;
+    }
+
+    private static final class Pending {
+        private final byte[][] command;
+        private final long dueNanos;
+
+        private Pending(byte[][] command, long dueNanos) {
+            this.command = command;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private static byte[][] readCommand(InputStream in) throws IOException {
+        expect(in, '*');
+        int count = (int) readNumber(in);
+        byte[][] args = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            expect(in, '$');
+            int length = (int) readNumber(in);
+            byte[] arg = in.readNBytes(length);
+            if (arg.length < length) {
+                throw new EOFException();
+            }
+            args[i] = arg;
+            in.skipNBytes(2);
+        }
+        return args;
+    }
+
+    private static void expect(InputStream in, char marker) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        if (b != marker) {
+            throw new IOException("Unsupported RESP input, expected '" + marker + "' but got '" + (char) b + "'");
+        }
+    }
+
+    private static long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (b - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    private static void bulk(OutputStream out, String value) throws IOException {
+        write(out, "$" + value.length() + "\r\n" + value + "\r\n");
+    }
+
+    private static void write(OutputStream out, String value) throws IOException {
+        out.write(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String sha1(byte[] script) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
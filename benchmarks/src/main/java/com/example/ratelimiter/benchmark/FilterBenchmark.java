@@ -0,0 +1,86 @@
+package com.example.ratelimiter.benchmark;
+
+import com.example.ratelimiter.backend.InMemoryRateLimiterBackend;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.filter.LimitResolver;
+import com.example.ratelimiter.filter.RateLimitingFilter;
+import com.example.ratelimiter.service.HeavyHitters;
+import com.example.ratelimiter.service.RateLimiterService;
+import com.example.ratelimiter.service.RedisCircuitBreaker;
+import com.example.ratelimiter.service.RejectionCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RateLimitingFilter} end to end with a mock filter chain, backed by the in-memory engine so the
+ * numbers reflect the filter and service overhead rather than the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    /**
+     * {@code allow}: the bucket never runs out. {@code reject}: every request gets a 429.
+     */
+    @Param({"allow", "reject"})
+    public String scenario;
+
+    /**
+     * Feed every decision to the top-K tracker; all threads share one client, its most contended case.
+     */
+    @Param({"false", "true"})
+    public boolean heavyHitters;
+
+    private RateLimitingFilter filter;
+
+    @Setup
+    public void setUp() {
+        RateLimiterProperties properties = scenario.equals("allow")
+                ? BenchmarkSupport.unlimitedProperties()
+                : BenchmarkSupport.properties(0.0, 0.0, 1.0);
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(properties);
+        RateLimiterService service = new RateLimiterService(
+                backend,
+                properties,
+                Clock.systemUTC(),
+                BenchmarkSupport.providerOf(RejectionCache.class, null),
+                BenchmarkSupport.providerOf(RedisCircuitBreaker.class, null),
+                new SimpleMeterRegistry()
+        );
+        filter = new RateLimitingFilter(service, properties, BenchmarkSupport.providerOf(HeavyHitters.class,
+                heavyHitters ? new HeavyHitters(properties) : null), 
+                new LimitResolver(properties, backend, new DefaultResourceLoader()));
+    }
+
+    @Benchmark
+    public MockHttpServletResponse doFilter() throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/ping");
+        request.addHeader("X-API-Key", "demo-key");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.ratelimiter.benchmark;
+
+import com.example.ratelimiter.backend.HotKeyTracker;
+import com.example.ratelimiter.backend.RedisRateLimiterBackend;
+import com.example.ratelimiter.backend.RedisScriptBatcher;
+import com.example.ratelimiter.backend.RedisTimeClock;
+import com.example.ratelimiter.backend.RequestCoalescer;
+import com.example.ratelimiter.backend.TokenLeaseManager;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.config.RedisConfig;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RedisRateLimiterBackend} against Redis (or the in-process stand-in), with and without batching,
+ * through the blocking and the async execution path.
+ * <p>
+ * {@code timeSource} compares where {@code now} comes from: the node clock, {@link RedisTimeClock} (one
+ * {@code nanoTime} read per request, {@code TIME} sampled in the background) or {@code TIME} inside the
+ * script. The stand-in does not run scripts, so the in-script cost only shows against a real Redis.
+ * <p>
+ * {@code -p functions=false,true} compares EVALSHA with {@code FCALL} of the function library (Redis 7).
+ * <p>
+ * {@code -p hotClient=true -p coalescing=false,true -p algorithm=token-bucket} has every thread check the
+ * same client, with and without {@link RequestCoalescer}; the script calls it took are printed at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisPathBenchmark {
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    /**
+     * Only makes a difference against a real Redis; the stand-in answers every script alike.
+     */
+    @Param({"token-bucket", "token-bucket-fixed"})
+    public String algorithm;
+
+    @Param({"node", "redis-offset", "redis-script"})
+    public String timeSource;
+
+    @Param({"false"})
+    public boolean functions;
+
+    @Param({"false"})
+    public boolean coalescing;
+
+    /**
+     * All threads check one client instead of one client each.
+     */
+    @Param({"false"})
+    public boolean hotClient;
+
+    /**
+     * Per-command delay injected by the Redis stand-in.
+     */
+    @Param({"0"})
+    public long redisLatencyMicros;
+
+    private RedisTarget redis;
+    private RedisScriptBatcher batcher;
+    private RedisRateLimiterBackend backend;
+    private RedisTimeClock redisTimeClock;
+    private RequestCoalescer coalescer;
+    private SimpleMeterRegistry coalescerMeters;
+    private Clock clock;
+
+    @Setup
+    public void setUp() throws IOException {
+        redis = RedisTarget.start(redisLatencyMicros);
+        RateLimiterProperties properties = BenchmarkSupport.unlimitedProperties();
+        properties.setAlgorithm(algorithm);
+        properties.getBatching().setEnabled(batching);
+        properties.getAsync().setEnabled(true);
+        properties.getTime().setSource(timeSource);
+        properties.getScripts().setFunctions(functions);
+        clock = Clock.systemUTC();
+        if (timeSource.equals("redis-offset")) {
+            redisTimeClock = new RedisTimeClock(redis.template(), properties, new SimpleMeterRegistry());
+            redisTimeClock.start();
+            clock = redisTimeClock;
+        }
+        DefaultRedisScript<List> script = new RedisConfig().rateLimiterScript(properties);
+
+        if (batching) {
+            batcher = new RedisScriptBatcher(redis.connectionFactory(), properties,
+                    new SimpleMeterRegistry());
+            batcher.start();
+        }
+        if (coalescing) {
+            coalescerMeters = new SimpleMeterRegistry();
+            coalescer = new RequestCoalescer(properties, coalescerMeters);
+        }
+        backend = new RedisRateLimiterBackend(
+                redis.template(),
+                script,
+                new RedisConfig().multiLimitScript(),
+                new RedisConfig().peekScript(),
+                new RedisConfig().leaseAcquireScript(),
+                new RedisConfig().shardTransferScript(),
+                properties,
+                BenchmarkSupport.providerOf(RedisScriptBatcher.class, batcher),
+                BenchmarkSupport.providerOf(TokenLeaseManager.class, null),
+                BenchmarkSupport.providerOf(HotKeyTracker.class, null),
+                BenchmarkSupport.providerOf(RequestCoalescer.class, coalescer)
+        );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (coalescerMeters != null) {
+            DistributionSummary permits = coalescerMeters.get("ratelimiter.coalescing.permits").summary();
+            System.out.printf("%n[coalescing] %.0f checks in %d script calls (%.1f per call)%n",
+                    permits.totalAmount(), permits.count(), permits.mean());
+        }
+        if (batcher != null) {
+            batcher.stop();
+        }
+        if (redisTimeClock != null) {
+            redisTimeClock.stop();
+        }
+        backend.destroy();
+        redis.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        String clientId;
+
+        @Setup
+        public void setUp(RedisPathBenchmark benchmark, ThreadParams threadParams) {
+            clientId = benchmark.hotClient ? "api-key:bench-hot" : "api-key:bench-" + threadParams.getThreadIndex();
+        }
+    }
+
+    @Benchmark
+    public RateLimitResult tryAcquire(Client client) {
+        return backend.tryAcquire(client.clientId, clock.millis());
+    }
+
+    /**
+     * Async path as used by the non-blocking filter; joining keeps the number of in-flight calls equal to
+     * the thread count so results are comparable with {@link #tryAcquire}.
+     */
+    @Benchmark
+    public RateLimitResult tryAcquireAsync(Client client) {
+        return backend.tryAcquireAsync(client.clientId, clock.millis()).join();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.ratelimiter.benchmark;
+
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Redis endpoint used by a benchmark: a real server when {@code -Dredis.host} is set, otherwise an
+ * in-process {@link FakeRedisServer}. {@link #startCluster} does the same for Redis Cluster, with
+ * {@code -Dredis.cluster.nodes=host:port,...} or an in-process {@link FakeRedisCluster}.
+ */
+public final class RedisTarget implements AutoCloseable {
+
+    private final FakeRedisServer fakeServer;
+    private final FakeRedisCluster fakeCluster;
+    private final LettuceConnectionFactory connectionFactory;
+    private final StringRedisTemplate template;
+
+    private RedisTarget(FakeRedisServer fakeServer, String host, int port) {
+        this(fakeServer, null, new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port)));
+    }
+
+    private RedisTarget(FakeRedisServer fakeServer, FakeRedisCluster fakeCluster,
+                        LettuceConnectionFactory connectionFactory) {
+        this.fakeServer = fakeServer;
+        this.fakeCluster = fakeCluster;
+        this.connectionFactory = connectionFactory;
+        this.connectionFactory.afterPropertiesSet();
+        this.connectionFactory.start();
+        this.template = new StringRedisTemplate(connectionFactory);
+    }
+
+    /**
+     * @param fakeLatencyMicros per-command delay injected by the stand-in; ignored for a real Redis.
+     */
+    public static RedisTarget start(long fakeLatencyMicros) throws IOException {
+        String host = System.getProperty("redis.host");
+        if (host != null) {
+            return new RedisTarget(null, host, Integer.getInteger("redis.port", 6379));
+        }
+        FakeRedisServer server = new FakeRedisServer(fakeLatencyMicros);
+        return new RedisTarget(server, "127.0.0.1", server.getPort());
+    }
+
+    /**
+     * @param fakeNodes masters of the stand-in cluster; ignored for a real cluster.
+     */
+    public static RedisTarget startCluster(int fakeNodes, long fakeLatencyMicros) throws IOException {
+        String nodes = System.getProperty("redis.cluster.nodes");
+        if (nodes != null) {
+            return new RedisTarget(null, null, clusterConnectionFactory(Arrays.asList(nodes.split(","))));
+        }
+        FakeRedisCluster cluster = new FakeRedisCluster(fakeNodes, fakeLatencyMicros);
+        List<String> seeds = cluster.ports().stream().map(port -> "127.0.0.1:" + port).toList();
+        return new RedisTarget(null, cluster, clusterConnectionFactory(seeds));
+    }
+
+    private static LettuceConnectionFactory clusterConnectionFactory(List<String> nodes) {
+        // Same topology handling as the application: follow redirects, refresh on them and periodically.
+        ClusterTopologyRefreshOptions refresh = ClusterTopologyRefreshOptions.builder()
+                .enableAllAdaptiveRefreshTriggers()
+                .enablePeriodicRefresh(Duration.ofSeconds(30))
+                .build();
+        LettuceClientConfiguration client = LettuceClientConfiguration.builder()
+                .clientOptions(ClusterClientOptions.builder().topologyRefreshOptions(refresh).build())
+                .build();
+        return new LettuceConnectionFactory(new RedisClusterConfiguration(nodes), client);
+    }
+
+    public boolean isFake() {
+        return fakeServer != null || fakeCluster != null;
+    }
+
+    /**
+     * @return the stand-in cluster, for resharding it during a run; {@code null} for real Redis or standalone.
+     */
+    public FakeRedisCluster fakeCluster() {
+        return fakeCluster;
+    }
+
+    public LettuceConnectionFactory connectionFactory() {
+        return connectionFactory;
+    }
+
+    public StringRedisTemplate template() {
+        return template;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.destroy();
+        if (fakeServer != null) {
+            fakeServer.close();
+        }
+        if (fakeCluster != null) {
+            fakeCluster.close();
+        }
+    }
+}
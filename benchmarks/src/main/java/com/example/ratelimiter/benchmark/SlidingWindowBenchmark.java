@@ -0,0 +1,227 @@
+package com.example.ratelimiter.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accuracy and cost of {@code sliding_window.lua} against {@code rate_limiter.lua} for a plain "100 requests
+ * per minute" limit (capacity 100, refill 100/60 per second).
+ * <p>
+ * Needs a real Redis ({@code -Dredis.host}). Once per trial, a fixed 20 minute trace of bursty traffic
+ * (20 s phases between 0.2x and 3x the limit, seeded) is replayed through the script with explicit
+ * timestamps and every decision is compared with an exact sliding log: requests allowed (and how many the
+ * log would allow), the most requests allowed in any 60 s, and requests rejected although fewer than 100
+ * were allowed in the last 60 s. After each iteration it prints the Redis CPU time per script call
+ * ({@code INFO commandstats}) and the replication stream per call ({@code master_repl_offset}). Against the
+ * stand-in, which runs no scripts, the accuracy replay is skipped and both figures read zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SlidingWindowBenchmark {
+
+    private static final int LIMIT = 100;
+    private static final long WINDOW_MILLIS = 60_000L;
+    private static final String CAPACITY = "100.0";
+    private static final String REFILL_RATE = Double.toString(LIMIT * 1000.0 / WINDOW_MILLIS);
+    private static final String COST = "1.0";
+
+    @Param({"token-bucket", "sliding-window"})
+    public String algorithm;
+
+    /**
+     * Keys each thread cycles through.
+     */
+    @Param({"1024"})
+    public int clients;
+
+    private RedisTarget redis;
+    private DefaultRedisScript<List> bucketScript;
+    private final LongAdder calls = new LongAdder();
+    private long scriptCalls;
+    private long scriptMicros;
+    private long replicationOffset;
+
+    @Setup
+    public void setUp() throws IOException {
+        redis = RedisTarget.start(0);
+        bucketScript = new DefaultRedisScript<>();
+        bucketScript.setLocation(new ClassPathResource(algorithm.equals("sliding-window")
+                ? "lua/sliding_window.lua"
+                : "lua/rate_limiter.lua"));
+        bucketScript.setResultType(List.class);
+        if (!redis.isFake()) {
+            replayTrace();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        calls.reset();
+        long[] stats = scriptStats();
+        scriptCalls = stats[0];
+        scriptMicros = stats[1];
+        replicationOffset = info("replication", "master_repl_offset");
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long[] stats = scriptStats();
+        long n = Math.max(1L, calls.sum());
+        System.out.printf("%n[%s] %d calls, Redis CPU %.2f us/call, replication %.1f B/call%n", algorithm,
+                calls.sum(), (stats[1] - scriptMicros) / (double) Math.max(1L, stats[0] - scriptCalls),
+                (info("replication", "master_repl_offset") - replicationOffset) / (double) n);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    /**
+     * Replays the trace against a fresh key and prints how the decisions compare with an exact sliding log.
+     */
+    private void replayTrace() {
+        List<String> key = List.of("rate_limiter:{api-key:accuracy-" + algorithm + "-" + System.nanoTime() + "}");
+        ArrayDeque<Long> allowedTimes = new ArrayDeque<>();
+        ArrayDeque<Long> exactTimes = new ArrayDeque<>();
+        int requests = 0;
+        int allowed = 0;
+        int exactAllowed = 0;
+        int peak = 0;
+        int rejectedUnderLimit = 0;
+        for (long now : trace()) {
+            requests++;
+            prune(allowedTimes, now);
+            prune(exactTimes, now);
+            if (exactTimes.size() < LIMIT) {
+                exactTimes.addLast(now);
+                exactAllowed++;
+            }
+            List<?> reply = redis.template().execute(bucketScript, key, CAPACITY, REFILL_RATE, COST,
+                    Long.toString(now));
+            if (reply != null && Long.valueOf(1L).equals(reply.get(0))) {
+                allowedTimes.addLast(now);
+                allowed++;
+                peak = Math.max(peak, allowedTimes.size());
+            } else if (allowedTimes.size() < LIMIT) {
+                rejectedUnderLimit++;
+            }
+        }
+        System.out.printf("%n[%s] accuracy: %d requests, %d allowed (exact sliding log: %d), at most %d in any"
+                        + " 60 s (limit %d), %d rejected under the limit%n", algorithm, requests, allowed,
+                exactAllowed, peak, LIMIT, rejectedUnderLimit);
+    }
+
+    private static void prune(ArrayDeque<Long> times, long now) {
+        while (!times.isEmpty() && times.peekFirst() <= now - WINDOW_MILLIS) {
+            times.removeFirst();
+        }
+    }
+
+    /**
+     * Arrival times: sixty 20 s phases, each a Poisson stream at 0.2, 0.5, 1, 2 or 3 times the limit.
+     */
+    private static long[] trace() {
+        double[] multipliers = {0.5, 1.0, 3.0, 0.2, 2.0};
+        Random random = new Random(7);
+        long[] times = new long[16_384];
+        int n = 0;
+        long now = 1_700_000_000_000L;
+        for (int phase = 0; phase < 60; phase++) {
+            long end = now + 20_000L;
+            double perMilli = LIMIT * multipliers[random.nextInt(multipliers.length)] / WINDOW_MILLIS;
+            while (true) {
+                now += Math.max(1L, (long) (-Math.log(1.0 - random.nextDouble()) / perMilli));
+                if (now >= end || n == times.length) {
+                    break;
+                }
+                times[n++] = now;
+            }
+            now = end;
+        }
+        return Arrays.copyOf(times, n);
+    }
+
+    /**
+     * @return calls and microseconds spent in {@code EVALSHA} since the server started
+     */
+    private long[] scriptStats() {
+        Properties info = redis.template().execute((RedisCallback<Properties>) connection ->
+                connection.serverCommands().info("commandstats"));
+        String value = info == null ? null : info.getProperty("cmdstat_evalsha");
+        long[] stats = new long[2];
+        if (value != null) {
+            for (String field : value.trim().split(",")) {
+                if (field.startsWith("calls=")) {
+                    stats[0] = Long.parseLong(field.substring(6));
+                } else if (field.startsWith("usec=")) {
+                    stats[1] = Long.parseLong(field.substring(5));
+                }
+            }
+        }
+        return stats;
+    }
+
+    private long info(String section, String field) {
+        Properties info = redis.template().execute((RedisCallback<Properties>) connection ->
+                connection.serverCommands().info(section));
+        String value = info == null ? null : info.getProperty(field);
+        return value == null ? 0L : Long.parseLong(value.trim());
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private List<String>[] keys;
+        private int next;
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setUp(SlidingWindowBenchmark benchmark, ThreadParams threadParams) {
+            keys = new List[benchmark.clients];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = List.of("rate_limiter:{api-key:window-" + threadParams.getThreadIndex() + "-" + i + "}");
+            }
+        }
+
+        private List<String> nextKey() {
+            List<String> key = keys[next];
+            next = next + 1 == keys.length ? 0 : next + 1;
+            return key;
+        }
+    }
+
+    @Benchmark
+    public Object tryAcquire(Client client) {
+        calls.increment();
+        return redis.template().execute(bucketScript, client.nextKey(), CAPACITY, REFILL_RATE, COST,
+                Long.toString(System.currentTimeMillis()));
+    }
+}
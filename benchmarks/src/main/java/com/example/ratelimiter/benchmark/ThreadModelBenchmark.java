@@ -0,0 +1,141 @@
+package com.example.ratelimiter.benchmark;
+
+import com.example.ratelimiter.backend.HotKeyTracker;
+import com.example.ratelimiter.backend.RateLimiterBackend;
+import com.example.ratelimiter.backend.RedisRateLimiterBackend;
+import com.example.ratelimiter.backend.RedisScriptBatcher;
+import com.example.ratelimiter.backend.RequestCoalescer;
+import com.example.ratelimiter.backend.TokenLeaseManager;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.config.RedisConfig;
+import com.example.ratelimiter.service.RateLimiterService;
+import com.example.ratelimiter.service.RedisCircuitBreaker;
+import com.example.ratelimiter.service.RejectionCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking rate limit checks on a Tomcat-sized platform thread pool versus one virtual thread per request,
+ * with Redis latency injected by the stand-in.
+ * <p>
+ * One operation is a burst of {@code concurrentRequests} checks submitted at once, the way a traffic spike
+ * reaches the servlet container; it completes when every check has returned. Requests per second are
+ * therefore {@code ops/s x concurrentRequests}, and the sample mode percentiles are the time to drain a
+ * burst, which is what the slowest (p99) request of the burst sees. Run it with {@code -Dthreads=1}.
+ * <p>
+ * The {@code virtual} model needs a Java 21 runtime; on older JVMs its trials fail in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModelBenchmark {
+
+    /**
+     * Tomcat's default {@code server.tomcat.threads.max}.
+     */
+    private static final int TOMCAT_MAX_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String threadModel;
+
+    /**
+     * Delay before the stand-in answers each command; pipelined commands overlap.
+     */
+    @Param({"1000"})
+    public long redisLatencyMicros;
+
+    @Param({"1000"})
+    public int concurrentRequests;
+
+    private RedisTarget redis;
+    private ExecutorService executor;
+    private RateLimiterService service;
+    private String[] clientIds;
+
+    @Setup
+    public void setUp() throws IOException {
+        executor = switch (threadModel) {
+            case "platform" -> Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+            case "virtual" -> newVirtualThreadPerTaskExecutor();
+            default -> throw new IllegalArgumentException("Unknown thread model " + threadModel);
+        };
+        redis = RedisTarget.start(redisLatencyMicros);
+        RateLimiterProperties properties = BenchmarkSupport.unlimitedProperties();
+        RateLimiterBackend backend = new RedisRateLimiterBackend(
+                redis.template(),
+                new RedisConfig().rateLimiterScript(properties),
+                new RedisConfig().multiLimitScript(),
+                new RedisConfig().peekScript(),
+                new RedisConfig().leaseAcquireScript(),
+                new RedisConfig().shardTransferScript(),
+                properties,
+                BenchmarkSupport.providerOf(RedisScriptBatcher.class, null),
+                BenchmarkSupport.providerOf(TokenLeaseManager.class, null),
+                BenchmarkSupport.providerOf(HotKeyTracker.class, null),
+                BenchmarkSupport.providerOf(RequestCoalescer.class, null)
+        );
+        service = new RateLimiterService(backend, properties, Clock.systemUTC(),
+                BenchmarkSupport.providerOf(RejectionCache.class, null),
+                BenchmarkSupport.providerOf(RedisCircuitBreaker.class, null), new SimpleMeterRegistry());
+        clientIds = new String[concurrentRequests];
+        for (int i = 0; i < concurrentRequests; i++) {
+            clientIds[i] = "api-key:bench-" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        redis.close();
+    }
+
+    @Benchmark
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(clientIds.length);
+        for (String clientId : clientIds) {
+            executor.execute(() -> {
+                try {
+                    service.check(clientId);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    /**
+     * Looked up reflectively so the module still compiles for Java 17.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException ex) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21, running on "
+                    + Runtime.version(), ex);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.ratelimiter.filter;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PolicyTable#match} for a table of {@code rules} route limits: one literal route per rule, every
+ * fourth with a {@code *} segment, every eighth restricted to an API key group. Run with {@code -prof gc}:
+ * the allocation rate must be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolicyMatchBenchmark {
+
+    @Param({"8", "64"})
+    public int rules;
+
+    private PolicyTable table;
+
+    @Setup
+    public void setUp() {
+        List<RateLimiterProperties.LimitRule> limits = new ArrayList<>();
+        for (int i = 0; i < rules; i++) {
+            RateLimiterProperties.LimitRule rule = new RateLimiterProperties.LimitRule();
+            rule.setName("route-" + i);
+            rule.setCapacity(100);
+            rule.setRefillRatePerSecond(10);
+            rule.setPaths(List.of(i % 4 == 0 ? "/api/v1/resource-" + i + "/*/items" : "/api/v1/resource-" + i + "/**"));
+            rule.setMethods(i % 2 == 0 ? List.of("GET") : List.of());
+            if (i % 8 == 0) {
+                rule.setApiKeyGroups(List.of("premium"));
+            }
+            limits.add(rule);
+        }
+        table = PolicyTable.compile(limits, Map.of("premium", List.of("premium-key")));
+    }
+
+    @Benchmark
+    public long matchRoute() {
+        return table.match("GET", "demo-key", "/api/v1/resource-5/orders/42");
+    }
+
+    @Benchmark
+    public long matchWildcard() {
+        return table.match("GET", "premium-key", "/api/v1/resource-4/42/items");
+    }
+
+    @Benchmark
+    public long matchNone() {
+        return table.match("POST", null, "/api/ping");
+    }
+}
@@ -0,0 +1,102 @@
+-- Baseline for ExpiryBenchmark: rate_limiter.lua as it was before expiry refreshes were skipped, issuing
+-- EXPIRE floor(capacity / refill_rate) on every call. Not used by the application.
+--
+-- Token Bucket rate limiter script
+-- KEYS[1] - rate limiter key (per client)
+-- ARGV[1] - capacity (max tokens)
+-- ARGV[2] - refill_rate (tokens per second)
+-- ARGV[3] - cost (tokens per request)
+-- ARGV[4] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+--
+-- Returns { allowed, remainingTokens, retryAfterMillis, resetMillis }
+--
+-- Hash structure:
+--  tokens (float)
+--  last_refill (millis)
+--
+-- A hash written by rate_limiter_fixed.lua (integer 'micro_tokens') is read and rewritten in this layout.
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local refill_rate = tonumber(ARGV[2])
+local cost = tonumber(ARGV[3])
+local now = tonumber(ARGV[4])
+if now < 0 then
+  -- Server time: one clock for every app node. Scripts calling TIME must replicate their effects,
+  -- which is the only mode since Redis 7; older servers need to be told.
+  if redis.replicate_commands then
+    redis.replicate_commands()
+  end
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+
+local ttl = 0
+if refill_rate > 0 then
+  ttl = math.floor(capacity / refill_rate)
+end
+
+local data = redis.call('HMGET', key, 'tokens', 'last_refill', 'micro_tokens')
+local tokens = data[1]
+local last_refill = data[2]
+local migrated = false
+if (tokens == false or tokens == nil) and data[3] then
+  -- Written by rate_limiter_fixed.lua.
+  tokens = tonumber(data[3]) / 1000000
+  migrated = true
+end
+
+if tokens == false or tokens == nil or last_refill == false or last_refill == nil then
+  -- Initialize new bucket as full to allow bursts immediately
+  tokens = capacity
+  last_refill = now
+else
+  tokens = tonumber(tokens)
+  last_refill = tonumber(last_refill)
+
+  local elapsed = now - last_refill
+  if elapsed < 0 then
+    elapsed = 0
+  end
+
+  local refill = (elapsed * refill_rate) / 1000.0
+  tokens = math.min(capacity, tokens + refill)
+  last_refill = now
+end
+
+local allowed = 0
+if tokens >= cost then
+  allowed = 1
+  tokens = tokens - cost
+end
+
+redis.call('HMSET', key, 'tokens', tokens, 'last_refill', last_refill)
+if migrated then
+  redis.call('HDEL', key, 'micro_tokens')
+end
+
+if ttl > 0 then
+  redis.call('EXPIRE', key, ttl)
+end
+
+-- Milliseconds until cost tokens are available (0 if they are) and until the bucket is full;
+-- -1 when that never happens because the bucket does not refill.
+local retry_after = 0
+if tokens < cost then
+  retry_after = -1
+  if refill_rate > 0 and cost <= capacity then
+    retry_after = math.ceil((cost - tokens) * 1000 / refill_rate)
+  end
+end
+local reset = 0
+if tokens < capacity then
+  reset = -1
+  if refill_rate > 0 then
+    reset = math.ceil((capacity - tokens) * 1000 / refill_rate)
+  end
+end
+
+-- Return tokens as a string: a Lua number would be truncated to an integer reply.
+return { allowed, tostring(tokens), retry_after, reset }
+
+
@@ -0,0 +1,129 @@
+package com.example.ratelimiter.backend;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Naming of the per-client bucket keys.
+ * <p>
+ * The client id is wrapped in a Redis Cluster hash tag ({@code {...}}), so every key of one client hashes
+ * to the same slot whatever prefix it carries, and a script may touch several of them. GCRA state lives
+ * under its own prefix: its string value would otherwise collide with the token bucket hash of the same
+ * client ({@code WRONGTYPE}) while nodes switch algorithms. Shards of a hot client's bucket are meant to
+ * spread over slots, so their tag is {@code {<n>:<clientId>}}, one slot per shard. Buckets of additional
+ * limits ({@code rate-limiter.limits}) are tagged with their scope, so a client scoped limit shares the
+ * client's slot. Sliding-window counters are named by the scripts: the bucket key plus {@code :<window>},
+ * e.g. {@code rate_limiter:{api-key:abc}:28333333}, strings that never collide with the bucket's hash.
+ * <p>
+ * Releases before the hash tags used {@code rate_limiter:<clientId>}. Those keys are not migrated: clients
+ * start once with a full bucket and the old keys expire on their own (see the README's upgrade notes).
+ */
+public final class BucketKeys {
+
+    public static final String PREFIX = "rate_limiter:";
+
+    public static final String GCRA_PREFIX = "rate_limiter:gcra:";
+
+    public static final String LIMIT_PREFIX = "rate_limiter:limit:";
+
+    private static final String TAGGED_PREFIX = PREFIX + "{";
+    private static final String TAGGED_GCRA_PREFIX = GCRA_PREFIX + "{";
+    private static final byte[] TAGGED_PREFIX_BYTES = TAGGED_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TAGGED_GCRA_PREFIX_BYTES = TAGGED_GCRA_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Upper bound of shards per client.
+     */
+    public static final int MAX_SHARDS = 64;
+
+    private static final String[] SHARD_PREFIXES = new String[MAX_SHARDS * 2];
+    private static final byte[][] SHARD_PREFIX_BYTES = new byte[MAX_SHARDS * 2][];
+
+    static {
+        for (int shard = 0; shard < MAX_SHARDS; shard++) {
+            SHARD_PREFIXES[shard] = PREFIX + "shard:{" + shard + ":";
+            SHARD_PREFIXES[MAX_SHARDS + shard] = GCRA_PREFIX + "shard:{" + shard + ":";
+        }
+        for (int i = 0; i < SHARD_PREFIXES.length; i++) {
+            SHARD_PREFIX_BYTES[i] = SHARD_PREFIXES[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private BucketKeys() {
+    }
+
+    /**
+     * @return the key holding the token bucket of {@code clientId}, e.g. {@code rate_limiter:{api-key:abc}}.
+     */
+    public static String key(String clientId) {
+        return TAGGED_PREFIX + clientId + "}";
+    }
+
+    /**
+     * UTF-8 encoded {@link #key(String)}, built with a single allocation for ASCII client ids
+     * (API keys, IP addresses) by copying the pre-encoded prefix.
+     */
+    public static byte[] keyBytes(String clientId) {
+        return encode(TAGGED_PREFIX_BYTES, TAGGED_PREFIX, clientId);
+    }
+
+    /**
+     * @return the key holding the GCRA theoretical arrival time of {@code clientId},
+     * e.g. {@code rate_limiter:gcra:{api-key:abc}}.
+     */
+    public static String gcraKey(String clientId) {
+        return TAGGED_GCRA_PREFIX + clientId + "}";
+    }
+
+    /**
+     * UTF-8 encoded {@link #gcraKey(String)}, see {@link #keyBytes(String)}.
+     */
+    public static byte[] gcraKeyBytes(String clientId) {
+        return encode(TAGGED_GCRA_PREFIX_BYTES, TAGGED_GCRA_PREFIX, clientId);
+    }
+
+    /**
+     * UTF-8 encoded key of one shard of a sharded bucket, e.g. {@code rate_limiter:shard:{3:api-key:abc}}
+     * or {@code rate_limiter:gcra:shard:{3:api-key:abc}}.
+     *
+     * @param shard 0 to {@link #MAX_SHARDS} - 1
+     */
+    public static byte[] shardKeyBytes(String clientId, int shard, boolean gcra) {
+        int index = gcra ? MAX_SHARDS + shard : shard;
+        return encode(SHARD_PREFIX_BYTES[index], SHARD_PREFIXES[index], clientId);
+    }
+
+    /**
+     * @return the start of the bucket keys of limit {@code name}: {@code rate_limiter:limit:<name>:} and the
+     * opening brace of the hash tag
+     */
+    public static String limitKeyPrefix(String name) {
+        return LIMIT_PREFIX + name + ":{";
+    }
+
+    /**
+     * UTF-8 encoded bucket key of one scope of a limit, e.g. {@code rate_limiter:limit:tenant:{acme}}.
+     *
+     * @param prefix {@link #limitKeyPrefix(String)} of the limit; {@code prefixBytes} is its encoding
+     */
+    static byte[] limitKeyBytes(byte[] prefixBytes, String prefix, String scopeId) {
+        return encode(prefixBytes, prefix, scopeId);
+    }
+
+    /**
+     * {@code prefix + clientId + "}"}; the prefix ends with the opening brace of the hash tag.
+     */
+    private static byte[] encode(byte[] prefixBytes, String prefix, String clientId) {
+        int length = clientId.length();
+        byte[] key = new byte[prefixBytes.length + length + 1];
+        System.arraycopy(prefixBytes, 0, key, 0, prefixBytes.length);
+        for (int i = 0; i < length; i++) {
+            char c = clientId.charAt(i);
+            if (c >= 0x80) {
+                return (prefix + clientId + "}").getBytes(StandardCharsets.UTF_8);
+            }
+            key[prefixBytes.length + i] = (byte) c;
+        }
+        key[key.length - 1] = '}';
+        return key;
+    }
+}
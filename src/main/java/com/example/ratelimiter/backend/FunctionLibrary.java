@@ -0,0 +1,106 @@
+package com.example.ratelimiter.backend;
+
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * The bucket scripts as one Redis 7 function library, for {@code rate-limiter.scripts.functions}.
+ * <p>
+ * The library is generated from the same script files EVALSHA runs: each script body becomes the body of a
+ * function registered under {@code <library>_acquire}, {@code <library>_multi}, {@code <library>_lease} (the
+ * {@code lease_acquire.lua} calls of request coalescing), {@code <library>_transfer} (hot-key sharding) and
+ * {@code <library>_peek}, the last one flagged
+ * {@code no-writes} so that it can be called with {@code FCALL_RO}, also on replicas.
+ * Like a script's SHA-1, the library name is derived from the code ({@code ratelimiter_<hash>}), so app
+ * nodes running different versions during a rollout each call their own functions instead of replacing
+ * each other's library. Libraries of earlier versions are deleted by {@link RedisScriptLoader} at startup.
+ */
+final class FunctionLibrary {
+
+    /**
+     * Start of the name of every library generated here.
+     */
+    static final String NAME_PREFIX = "ratelimiter_";
+
+    private final String name;
+    private final String code;
+
+    private FunctionLibrary(String name, String code) {
+        this.name = name;
+        this.code = code;
+    }
+
+    /**
+     * @param acquire    the configured bucket script, see {@code RedisConfig#rateLimiterScript}
+     * @param multiLimit {@code rate_limiter_multi.lua}
+     * @param peek       {@code rate_limiter_peek.lua}
+     * @param lease      {@code lease_acquire.lua}
+     * @param transfer   {@code shard_transfer.lua}
+     */
+    static FunctionLibrary of(RedisScript<?> acquire, RedisScript<?> multiLimit, RedisScript<?> peek,
+                              RedisScript<?> lease, RedisScript<?> transfer) {
+        String name = NAME_PREFIX + hash(acquire.getSha1() + multiLimit.getSha1() + peek.getSha1()
+                + lease.getSha1() + transfer.getSha1());
+        String code = "#!lua name=" + name + "\n"
+                + function("acquire", acquire)
+                + function("multi_limit", multiLimit)
+                + function("peek", peek)
+                + function("lease", lease)
+                + function("transfer", transfer)
+                + "redis.register_function('" + name + "_acquire', acquire)\n"
+                + "redis.register_function('" + name + "_multi', multi_limit)\n"
+                + "redis.register_function('" + name + "_lease', lease)\n"
+                + "redis.register_function('" + name + "_transfer', transfer)\n"
+                + "redis.register_function{function_name='" + name + "_peek', callback=peek, flags={'no-writes'}}\n";
+        return new FunctionLibrary(name, code);
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Source for {@code FUNCTION LOAD}, including the {@code #!lua} header.
+     */
+    String code() {
+        return code;
+    }
+
+    String acquireFunction() {
+        return name + "_acquire";
+    }
+
+    String multiLimitFunction() {
+        return name + "_multi";
+    }
+
+    String peekFunction() {
+        return name + "_peek";
+    }
+
+    String leaseFunction() {
+        return name + "_lease";
+    }
+
+    String transferFunction() {
+        return name + "_transfer";
+    }
+
+    private static String function(String localName, RedisScript<?> script) {
+        // KEYS and ARGV are parameters instead of globals; the script body is otherwise unchanged.
+        return "local function " + localName + "(KEYS, ARGV)\n" + script.getScriptAsString() + "\nend\n\n";
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.US_ASCII));
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 not available", ex);
+        }
+    }
+}
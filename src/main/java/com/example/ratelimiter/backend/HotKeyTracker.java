@@ -0,0 +1,218 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Decides which clients are hot enough to have their bucket sharded across several Redis keys.
+ *
+ * Request rates are counted per client in one-second windows, in a fixed direct-mapped table. A client
+ * reaching {@code promote-at-requests-per-second} within a window is {@link State#PROMOTED}; once the backend
+ * has moved its bucket to the shards ({@link #shard}) it stays sharded for {@code cooldown} after the last
+ * window in which it was hot, and the first request after that is {@link State#DEMOTED}. The threshold is per
+ * node, but the switch is not: the backend holds the client's bucket empty in Redis while it is sharded, and
+ * other nodes seeing that adopt the same sharded period.
+ *
+ * A slot holding a non-hot client is taken over by the next client hashing to it; a hot client keeps its
+ * slot until it cools down. Counting is approximate (a window reset can race with increments), which only
+ * shifts the promotion point by a few requests. No locks; a client already tracked costs no allocation.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter.sharding", name = "enabled", havingValue = "true")
+public class HotKeyTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(HotKeyTracker.class);
+
+    private static final long WINDOW_MILLIS = 1_000L;
+
+    /**
+     * Which bucket a request should use.
+     */
+    public enum State {
+        /**
+         * The client's regular bucket.
+         */
+        COLD,
+        /**
+         * The shards.
+         */
+        SHARDED,
+        /**
+         * The client is hot in this window: the bucket has to be held for another cooldown, then the shards
+         * are used.
+         */
+        PROMOTED,
+        /**
+         * The client just cooled down on this node: what is left in the shards goes back to the bucket, which
+         * is used from now on.
+         */
+        DEMOTED
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final int shards;
+    private final int threshold;
+    private final long cooldownMillis;
+    private final int borrowAttempts;
+    private final boolean effective;
+    private final Counter promotions;
+    private final Counter borrows;
+
+    public HotKeyTracker(RateLimiterProperties properties, MeterRegistry meterRegistry) {
+        RateLimiterProperties.Sharding config = properties.getSharding();
+        int size = Integer.highestOneBit(Math.max(2, config.getTrackedClients() - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.shards = Math.max(1, Math.min(config.getShards(), BucketKeys.MAX_SHARDS));
+        this.threshold = Math.max(2, config.getPromoteAtRequestsPerSecond());
+        this.cooldownMillis = Math.max(0L, config.getCooldown().toMillis());
+        this.borrowAttempts = Math.max(0, Math.min(config.getBorrowAttempts(), shards - 1));
+        // The regular bucket of a sharded client is held empty by putting it into debt, which the window
+        // counters of sliding-window cannot express.
+        this.effective = !ScriptArguments.slidingWindow(properties);
+        if (!effective) {
+            log.warn("Hot-key sharding requires rate-limiter.algorithm=token-bucket, token-bucket-fixed or gcra,"
+                    + " found {}; sharding is disabled", properties.getAlgorithm());
+        }
+        this.promotions = Counter.builder("ratelimiter.sharding.promotions")
+                .description("Clients promoted to sharded buckets")
+                .register(meterRegistry);
+        this.borrows = Counter.builder("ratelimiter.sharding.borrows")
+                .description("Requests retried on another shard after the chosen one rejected")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return false when the configured algorithm keeps a bucket that cannot be held while sharded.
+     */
+    public boolean isEffective() {
+        return effective;
+    }
+
+    /**
+     * Count a request of {@code clientId}.
+     *
+     * @return the bucket the request should use; {@link State#PROMOTED} and {@link State#DEMOTED} are each
+     * returned to one request only
+     */
+    public State recordRequest(String clientId, long nowMillis) {
+        int index = indexFor(clientId);
+        Entry entry = slots.get(index);
+        if (entry == null || !entry.clientId.equals(clientId)) {
+            if (entry == null || entry.hotUntilMillis.get() <= nowMillis) {
+                slots.compareAndSet(index, entry, new Entry(clientId, nowMillis));
+            }
+            return State.COLD;
+        }
+
+        long windowStart = entry.windowStartMillis.get();
+        if (nowMillis - windowStart >= WINDOW_MILLIS && entry.windowStartMillis.compareAndSet(windowStart, nowMillis)) {
+            entry.count.set(0);
+        }
+        if (entry.count.incrementAndGet() == threshold) {
+            return State.PROMOTED;
+        }
+        long hotUntil = entry.hotUntilMillis.get();
+        if (hotUntil > nowMillis) {
+            return State.SHARDED;
+        }
+        if (hotUntil != 0L && entry.hotUntilMillis.compareAndSet(hotUntil, 0L)) {
+            return State.DEMOTED;
+        }
+        return State.COLD;
+    }
+
+    /**
+     * Marks {@code clientId} sharded until {@code untilMillis}: after a promotion once its bucket is held, or
+     * when another node's promotion was found holding the bucket. Never shortens a sharded period.
+     */
+    void shard(String clientId, long nowMillis, long untilMillis) {
+        int index = indexFor(clientId);
+        Entry entry = slots.get(index);
+        if (entry == null || !entry.clientId.equals(clientId)) {
+            if (entry != null && entry.hotUntilMillis.get() > nowMillis) {
+                // The slot belongs to another hot client; this one is sharded request by request.
+                return;
+            }
+            Entry tracked = new Entry(clientId, nowMillis);
+            if (!slots.compareAndSet(index, entry, tracked)) {
+                return;
+            }
+            entry = tracked;
+        }
+        long previous = entry.hotUntilMillis.getAndAccumulate(untilMillis, Math::max);
+        if (previous <= nowMillis) {
+            promotions.increment();
+        }
+    }
+
+    /**
+     * @return configured number of shards for hot clients
+     */
+    int shards() {
+        return shards;
+    }
+
+    /**
+     * @return how long a promotion holds the client's bucket
+     */
+    long cooldownMillis() {
+        return cooldownMillis;
+    }
+
+    /**
+     * @return other shards to try after the chosen one rejected; none while the client's shards were all
+     * found empty
+     */
+    int borrowAttempts(String clientId, long nowMillis) {
+        Entry entry = slots.get(indexFor(clientId));
+        if (entry != null && entry.clientId.equals(clientId) && entry.emptyUntilMillis > nowMillis) {
+            return 0;
+        }
+        return borrowAttempts;
+    }
+
+    /**
+     * Records that every shard asked rejected {@code clientId}: requests until {@code untilMillis}, the
+     * earliest retry any of them reported, are decided by one shard without borrowing.
+     */
+    void shardsEmpty(String clientId, long untilMillis) {
+        Entry entry = slots.get(indexFor(clientId));
+        if (entry != null && entry.clientId.equals(clientId)) {
+            entry.emptyUntilMillis = untilMillis;
+        }
+    }
+
+    void borrowed() {
+        borrows.increment();
+    }
+
+    private int indexFor(String clientId) {
+        int h = clientId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static final class Entry {
+        private final String clientId;
+        private final AtomicLong windowStartMillis;
+        private final AtomicInteger count = new AtomicInteger(1);
+        private final AtomicLong hotUntilMillis = new AtomicLong();
+        // A hint only: a lost update costs one borrow attempt more or less.
+        private volatile long emptyUntilMillis;
+
+        private Entry(String clientId, long nowMillis) {
+            this.clientId = clientId;
+            this.windowStartMillis = new AtomicLong(nowMillis);
+        }
+    }
+}
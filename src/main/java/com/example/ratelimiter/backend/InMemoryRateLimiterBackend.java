@@ -0,0 +1,255 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.Limit;
+import com.example.ratelimiter.model.LimitBucket;
+import com.example.ratelimiter.model.RateLimitDecision;
+import com.example.ratelimiter.model.RateLimitResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process backend for single-instance deployments where a Redis hop is pure overhead.
+ *
+ * Each bucket is a single {@code long}: the instant, in epoch nanoseconds, at which the bucket was (or
+ * would have been) empty. The tokens available at {@code now} are {@code (now - emptyAt) / nanosPerToken},
+ * capped at capacity, which is exactly the continuous refill of {@code rate_limiter.lua}. Allowing a request
+ * moves {@code emptyAt} forward by {@code cost} tokens with one CAS; rejecting a request writes nothing.
+ * A bucket with {@code refillRatePerSecond <= 0} never refills: its clock is frozen at zero.
+ *
+ * Buckets are keyed by client id directly; there is no shared key space to namespace.
+ *
+ * Idle buckets expire generationally instead of by scanning: buckets live in a "current" map, and once per
+ * idle period the current map becomes the "previous" one and the old previous map is dropped wholesale.
+ * Buckets touched in the meantime are promoted back to current. The idle period is the time an empty bucket
+ * needs to refill completely, so a dropped bucket is indistinguishable from a new (full) one.
+ *
+ * Additional limits ({@code rate-limiter.limits}) each get an engine of their own, keyed by scope id. A
+ * request takes its tokens from the client's bucket and then from each limit's; if one rejects, the tokens
+ * already taken are put back, so either every bucket is charged or none. Every bucket is a token bucket,
+ * including limits configured with {@code algorithm: sliding-window}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "in-memory")
+public class InMemoryRateLimiterBackend implements RateLimiterBackend {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /**
+     * Keeps {@code now - emptyAt} far from overflow for extreme capacity / refill rate ratios.
+     */
+    private static final long MAX_SPAN_NANOS = Long.MAX_VALUE / 4;
+
+    /**
+     * Lower bound on the generation length so tiny buckets do not rotate maps on every request.
+     */
+    private static final long MIN_IDLE_NANOS = 1_000L * NANOS_PER_MILLI;
+
+    /**
+     * Upper bound on the generation length so buckets with very slow (or no) refill still age out.
+     */
+    private static final long MAX_IDLE_NANOS = 24L * 3600L * 1000L * NANOS_PER_MILLI;
+
+    private static final int MAX_LIMIT_ENGINES = 1024;
+
+    private final double costPerRequest;
+    private final boolean refills;
+    private final double nanosPerToken;
+    private final long capacityNanos;
+    private final long costNanos;
+    private final long idleNanos;
+    private final AtomicReference<Generation> generation;
+    private final ConcurrentHashMap<Limit, InMemoryRateLimiterBackend> limitEngines = new ConcurrentHashMap<>();
+
+    @Autowired
+    public InMemoryRateLimiterBackend(RateLimiterProperties properties) {
+        this(properties.getCapacity(), properties.getRefillRatePerSecond(), properties.getCostPerRequest());
+    }
+
+    /**
+     * Engine with explicit bucket parameters, e.g. a scaled-down per-node share of the configured limit.
+     */
+    public InMemoryRateLimiterBackend(double capacity, double refillRatePerSecond, double costPerRequest) {
+        this.costPerRequest = costPerRequest;
+        this.refills = refillRatePerSecond > 0;
+        this.nanosPerToken = refills ? 1_000_000_000.0 / refillRatePerSecond : 1_000_000_000.0;
+        this.capacityNanos = toNanos(capacity);
+        this.costNanos = toNanos(costPerRequest);
+        this.idleNanos = refills
+                ? Math.min(MAX_IDLE_NANOS, Math.max(MIN_IDLE_NANOS, capacityNanos))
+                : MAX_IDLE_NANOS;
+        this.generation = new AtomicReference<>(new Generation(0L, new ConcurrentHashMap<>(), new ConcurrentHashMap<>()));
+    }
+
+    @Override
+    public RateLimitResult tryAcquire(String clientId, long nowMillis) {
+        long now = refills ? nowMillis * NANOS_PER_MILLI : 0L;
+        AtomicLong bucket = bucketFor(clientId, nowMillis * NANOS_PER_MILLI, now);
+
+        while (true) {
+            long observed = bucket.get();
+            long emptyAt = observed;
+            long available = now - emptyAt;
+            if (available > capacityNanos) {
+                // Refill is capped at capacity: pretend the bucket was empty exactly capacity ago.
+                emptyAt = now - capacityNanos;
+                available = capacityNanos;
+            }
+            if (available < costNanos) {
+                return RateLimitResult.rejectRateLimited(available / nanosPerToken,
+                        retryAfterMillis(available), resetMillis(available));
+            }
+            if (bucket.compareAndSet(observed, emptyAt + costNanos)) {
+                long left = available - costNanos;
+                return RateLimitResult.allow(left / nanosPerToken, retryAfterMillis(left), resetMillis(left));
+            }
+        }
+    }
+
+    /**
+     * Charges the client's bucket and every limit's bucket, or none of them. A rejection is reported for the
+     * first bucket that rejects; an allowed request for the bucket with the fewest tokens left.
+     */
+    @Override
+    public RateLimitResult tryAcquire(String clientId, List<LimitBucket> limits, long nowMillis) {
+        RateLimitResult reported = tryAcquire(clientId, nowMillis);
+        if (limits.isEmpty() || reported.getDecision() != RateLimitDecision.ALLOW) {
+            return reported;
+        }
+        for (int i = 0; i < limits.size(); i++) {
+            LimitBucket bucket = limits.get(i);
+            RateLimitResult result = engineFor(bucket.getLimit()).tryAcquire(bucket.getScopeId(), nowMillis);
+            if (result.getDecision() != RateLimitDecision.ALLOW) {
+                refund(clientId, nowMillis);
+                for (int j = 0; j < i; j++) {
+                    LimitBucket charged = limits.get(j);
+                    engineFor(charged.getLimit()).refund(charged.getScopeId(), nowMillis);
+                }
+                return result.withLimit(bucket.getLimit().getCapacity());
+            }
+            if (result.getRemainingTokens() < reported.getRemainingTokens()) {
+                reported = result.withLimit(bucket.getLimit().getCapacity());
+            }
+        }
+        return reported;
+    }
+
+    /**
+     * Reads the bucket without creating it; a missing bucket is full.
+     */
+    @Override
+    public RateLimitResult peek(String clientId, long nowMillis) {
+        long now = refills ? nowMillis * NANOS_PER_MILLI : 0L;
+        Generation gen = generation.get();
+        AtomicLong bucket = gen.current.get(clientId);
+        if (bucket == null) {
+            bucket = gen.previous.get(clientId);
+        }
+        long available = bucket == null ? capacityNanos : Math.min(capacityNanos, now - bucket.get());
+        long left = available >= costNanos ? available - costNanos : available;
+        return available >= costNanos
+                ? RateLimitResult.allow(left / nanosPerToken, retryAfterMillis(left), resetMillis(left))
+                : RateLimitResult.rejectRateLimited(left / nanosPerToken, retryAfterMillis(left), resetMillis(left));
+    }
+
+    /**
+     * All scopes are supported: every bucket lives in this process.
+     */
+    @Override
+    public void validateLimits(List<RateLimiterProperties.LimitRule> limits) {
+    }
+
+    /**
+     * Puts back the tokens of one allowed request, for a multi-limit check rejected by a later bucket.
+     */
+    void refund(String key, long nowMillis) {
+        long now = refills ? nowMillis * NANOS_PER_MILLI : 0L;
+        bucketFor(key, nowMillis * NANOS_PER_MILLI, now).addAndGet(-costNanos);
+    }
+
+    private InMemoryRateLimiterBackend engineFor(Limit limit) {
+        InMemoryRateLimiterBackend engine = limitEngines.get(limit);
+        if (engine == null) {
+            if (limitEngines.size() >= MAX_LIMIT_ENGINES) {
+                // Limits replaced by a reload are never asked for again.
+                limitEngines.clear();
+            }
+            engine = limitEngines.computeIfAbsent(limit, l ->
+                    new InMemoryRateLimiterBackend(l.getCapacity(), l.getRefillRatePerSecond(), costPerRequest));
+        }
+        return engine;
+    }
+
+    /**
+     * Time until {@code cost} is available again, given {@code available} nanos of tokens after the decision.
+     */
+    private long retryAfterMillis(long available) {
+        if (available >= costNanos) {
+            return 0L;
+        }
+        return refills && costNanos <= capacityNanos ? ceilMillis(costNanos - available) : RateLimitResult.UNKNOWN;
+    }
+
+    private long resetMillis(long available) {
+        if (available >= capacityNanos) {
+            return 0L;
+        }
+        return refills ? ceilMillis(capacityNanos - available) : RateLimitResult.UNKNOWN;
+    }
+
+    private static long ceilMillis(long nanos) {
+        return (nanos + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+    }
+
+    private AtomicLong bucketFor(String key, long wallNanos, long now) {
+        Generation gen = currentGeneration(wallNanos);
+        AtomicLong bucket = gen.current.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        AtomicLong previous = gen.previous.get(key);
+        if (previous != null) {
+            AtomicLong raced = gen.current.putIfAbsent(key, previous);
+            return raced != null ? raced : previous;
+        }
+        // New buckets start full, like a missing hash in Redis.
+        return gen.current.computeIfAbsent(key, k -> new AtomicLong(now - capacityNanos));
+    }
+
+    private Generation currentGeneration(long wallNanos) {
+        Generation gen = generation.get();
+        if (wallNanos - gen.startedAtNanos < idleNanos) {
+            return gen;
+        }
+        Generation rotated = new Generation(wallNanos, new ConcurrentHashMap<>(), gen.current);
+        // Losing the race is fine: another thread already rotated.
+        return generation.compareAndSet(gen, rotated) ? rotated : generation.get();
+    }
+
+    private long toNanos(double tokens) {
+        double nanos = tokens * nanosPerToken;
+        if (!(nanos > 0)) {
+            return 0L;
+        }
+        return nanos >= MAX_SPAN_NANOS ? MAX_SPAN_NANOS : (long) Math.ceil(nanos);
+    }
+
+    private static final class Generation {
+        private final long startedAtNanos;
+        private final ConcurrentHashMap<String, AtomicLong> current;
+        private final ConcurrentHashMap<String, AtomicLong> previous;
+
+        private Generation(long startedAtNanos, ConcurrentHashMap<String, AtomicLong> current,
+                           ConcurrentHashMap<String, AtomicLong> previous) {
+            this.startedAtNanos = startedAtNanos;
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.example.ratelimiter.backend;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.output.StatusOutput;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandType;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceExceptionConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One long-lived native Lettuce connection ({@link ByteArrayCodec}) for sending the rate limiter scripts,
+ * opened lazily from the client managed by {@link LettuceConnectionFactory}.
+ * <p>
+ * Against Redis Cluster this is a cluster connection: each command is routed to the master owning its key's
+ * slot, {@code MOVED} and {@code ASK} redirects are followed by Lettuce, and the topology is refreshed with
+ * the factory's client options. With manual flushing, a burst of commands reaches every node as one write.
+ * {@code SCRIPT LOAD} is sent to every node of a cluster and {@code FUNCTION LOAD} to every master.
+ * <p>
+ * Script calls are dispatched with {@link ScriptReplyOutput}, so their futures complete with a
+ * {@link ScriptReply} rather than the driver's {@code List} of boxed elements.
+ */
+final class NativeScriptConnection implements AutoCloseable {
+
+    private static final LettuceExceptionConverter EXCEPTION_CONVERTER = new LettuceExceptionConverter();
+
+    private final LettuceConnectionFactory connectionFactory;
+    private final boolean manualFlush;
+    private final ReadFrom readFrom;
+    // Not a monitor: connecting blocks, and a virtual thread blocking inside synchronized pins its carrier.
+    private final ReentrantLock connectLock = new ReentrantLock();
+    private volatile StatefulConnection<byte[], byte[]> connection;
+    private volatile RedisClusterAsyncCommands<byte[], byte[]> commands;
+
+    /**
+     * @param manualFlush commands are buffered until {@link #flush()}; only for a connection with a single
+     *                    writer, which must flush after every burst
+     */
+    NativeScriptConnection(RedisConnectionFactory connectionFactory, String feature, boolean manualFlush) {
+        this(connectionFactory, feature, manualFlush, null);
+    }
+
+    /**
+     * @param readFrom nodes read-only commands ({@code FCALL_RO}) are routed to on Redis Cluster; {@code null}
+     *                 for the masters
+     */
+    NativeScriptConnection(RedisConnectionFactory connectionFactory, String feature, boolean manualFlush,
+                           ReadFrom readFrom) {
+        if (!(connectionFactory instanceof LettuceConnectionFactory lettuce)) {
+            throw new IllegalStateException(feature + " requires the Lettuce driver, found "
+                    + connectionFactory.getClass().getName());
+        }
+        this.connectionFactory = lettuce;
+        this.manualFlush = manualFlush;
+        this.readFrom = readFrom;
+    }
+
+    /**
+     * Invokes {@code script} with EVALSHA or, for a function, with {@code FCALL} ({@code FCALL_RO} if
+     * {@code readOnly}). A node without the function gets the library loaded and the call repeated once.
+     *
+     * @param keysAndArgs {@code numKeys} keys followed by ARGV
+     * @return future completed with the {@link ScriptReply}
+     */
+    CompletableFuture<Object> invoke(ScriptHandle script, int numKeys, byte[][] keysAndArgs, boolean readOnly) {
+        if (!script.isFunction()) {
+            return evalSha(script.sha(), script.body(), numKeys, keysAndArgs);
+        }
+        RedisClusterAsyncCommands<byte[], byte[]> async = commands();
+        CommandType type = readOnly ? CommandType.FCALL_RO : CommandType.FCALL;
+        CommandArgs<byte[], byte[]> args = scriptArgs(new CommandArgs<>(ByteArrayCodec.INSTANCE).add(script.function()),
+                numKeys, keysAndArgs);
+        return reply(async.dispatch(type, new ScriptReplyOutput(), args))
+                .exceptionallyCompose(error -> {
+                    if (!ScriptResults.isFunctionNotFound(error)) {
+                        return CompletableFuture.failedFuture(translate(error));
+                    }
+                    CompletableFuture<Object> retry = functionLoad(script.library().code())
+                            .thenCompose(loaded -> {
+                                CompletableFuture<Object> call = reply(async.dispatch(type, new ScriptReplyOutput(), args));
+                                flush();
+                                return call;
+                            });
+                    flush();
+                    return retry.exceptionallyCompose(retryError -> CompletableFuture.failedFuture(translate(retryError)));
+                });
+    }
+
+    /**
+     * {@code SCRIPT LOAD}, on every node of a cluster.
+     *
+     * @return future completed with the script's SHA-1
+     */
+    CompletableFuture<String> scriptLoad(byte[] script) {
+        return commands().scriptLoad(script).toCompletableFuture();
+    }
+
+    /**
+     * {@code FUNCTION LOAD REPLACE}, on every master of a cluster; replicas receive the library through
+     * replication.
+     */
+    CompletableFuture<Void> functionLoad(String library) {
+        RedisClusterAsyncCommands<byte[], byte[]> async = commands();
+        if (async instanceof RedisAdvancedClusterAsyncCommands<byte[], byte[]> cluster) {
+            return CompletableFuture.allOf(cluster.upstream().commands().functionLoad(library, true).futures());
+        }
+        return async.functionLoad(library, true).toCompletableFuture().thenApply(name -> null);
+    }
+
+    /**
+     * {@code FUNCTION DELETE} of every library named {@code prefix...} except {@code keep}, on every master of
+     * a cluster.
+     *
+     * @return future completed with the number of libraries deleted
+     */
+    CompletableFuture<Integer> deleteLibraries(String prefix, String keep) {
+        RedisClusterAsyncCommands<byte[], byte[]> async = commands();
+        if (async instanceof RedisAdvancedClusterAsyncCommands<byte[], byte[]> cluster) {
+            List<CompletableFuture<Integer>> nodes = new ArrayList<>();
+            for (RedisClusterAsyncCommands<byte[], byte[]> node : cluster.upstream().asMap().values()) {
+                nodes.add(deleteLibraries(node, prefix, keep));
+            }
+            return CompletableFuture.allOf(nodes.toArray(CompletableFuture[]::new))
+                    .thenApply(done -> nodes.stream().mapToInt(CompletableFuture::join).sum());
+        }
+        return deleteLibraries(async, prefix, keep);
+    }
+
+    private static CompletableFuture<Integer> deleteLibraries(RedisClusterAsyncCommands<byte[], byte[]> node,
+                                                              String prefix, String keep) {
+        return node.functionList(prefix + "*").toCompletableFuture().thenCompose(libraries -> {
+            List<CompletableFuture<String>> deletes = new ArrayList<>();
+            for (Object library : (List<?>) libraries) {
+                String name = libraryName(library);
+                if (name != null && name.startsWith(prefix) && !name.equals(keep)) {
+                    CommandArgs<byte[], byte[]> args = new CommandArgs<>(ByteArrayCodec.INSTANCE)
+                            .add("DELETE").add(name);
+                    deletes.add(node.dispatch(CommandType.FUNCTION, new StatusOutput<>(ByteArrayCodec.INSTANCE),
+                            args).toCompletableFuture());
+                }
+            }
+            return CompletableFuture.allOf(deletes.toArray(CompletableFuture[]::new))
+                    .thenApply(done -> deletes.size());
+        });
+    }
+
+    /**
+     * {@code library_name} of a {@code FUNCTION LIST} entry: a map over RESP3, a flat list of names and values
+     * over RESP2.
+     */
+    private static String libraryName(Object library) {
+        Object value = null;
+        if (library instanceof Map<?, ?> map) {
+            value = map.get("library_name");
+        } else if (library instanceof List<?> fields) {
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                if ("library_name".equals(text(fields.get(i)))) {
+                    value = fields.get(i + 1);
+                }
+            }
+        }
+        return value == null ? null : text(value);
+    }
+
+    private static String text(Object value) {
+        return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    /**
+     * EVALSHA with a transparent EVAL fallback when the script is not cached on the node that ran it.
+     *
+     * @param keysAndArgs KEYS[1] followed by ARGV
+     * @return future completed with the {@link ScriptReply}, or failed with the Lettuce error translated like
+     * Spring Data Redis does
+     */
+    CompletableFuture<Object> evalSha(String sha, byte[] script, byte[][] keysAndArgs) {
+        return evalSha(sha, script, 1, keysAndArgs);
+    }
+
+    /**
+     * As {@link #evalSha(String, byte[], byte[][])} for a script taking {@code numKeys} keys; on Redis Cluster
+     * they must share a slot.
+     */
+    CompletableFuture<Object> evalSha(String sha, byte[] script, int numKeys, byte[][] keysAndArgs) {
+        RedisClusterAsyncCommands<byte[], byte[]> async = commands();
+        CommandArgs<byte[], byte[]> args = scriptArgs(new CommandArgs<>(ByteArrayCodec.INSTANCE).add(sha),
+                numKeys, keysAndArgs);
+        return reply(async.dispatch(CommandType.EVALSHA, new ScriptReplyOutput(), args))
+                .exceptionallyCompose(error -> {
+                    if (!ScriptResults.isNoScript(error)) {
+                        return CompletableFuture.failedFuture(translate(error));
+                    }
+                    CompletableFuture<Object> retry = reply(async.dispatch(CommandType.EVAL, new ScriptReplyOutput(),
+                            scriptArgs(new CommandArgs<>(ByteArrayCodec.INSTANCE).add(script), numKeys, keysAndArgs)));
+                    // Issued from an I/O thread after the writer's flush.
+                    flush();
+                    return retry.exceptionallyCompose(retryError -> CompletableFuture.failedFuture(translate(retryError)));
+                });
+    }
+
+    /**
+     * Appends {@code numkeys}, the keys and ARGV after the script or function name, as EVALSHA and FCALL
+     * expect them. Keys are added as keys so that a cluster connection routes by their slot.
+     */
+    private static CommandArgs<byte[], byte[]> scriptArgs(CommandArgs<byte[], byte[]> args, int numKeys,
+                                                         byte[][] keysAndArgs) {
+        args.add(numKeys);
+        for (int i = 0; i < keysAndArgs.length; i++) {
+            if (i < numKeys) {
+                args.addKey(keysAndArgs[i]);
+            } else {
+                args.addValue(keysAndArgs[i]);
+            }
+        }
+        return args;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<Object> reply(RedisFuture<ScriptReply> future) {
+        // The command itself is the future; only its declared type changes.
+        return (CompletableFuture<Object>) (CompletableFuture<?>) future.toCompletableFuture();
+    }
+
+    private static Throwable translate(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof Exception ex) {
+            DataAccessException translated = EXCEPTION_CONVERTER.convert(ex);
+            if (translated != null) {
+                return translated;
+            }
+        }
+        return cause;
+    }
+
+    /**
+     * Write out buffered commands; no-op unless created with manual flushing.
+     */
+    void flush() {
+        StatefulConnection<byte[], byte[]> current = connection;
+        if (manualFlush && current != null) {
+            current.flushCommands();
+        }
+    }
+
+    @Override
+    public void close() {
+        StatefulConnection<byte[], byte[]> current = connection;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private RedisClusterAsyncCommands<byte[], byte[]> commands() {
+        RedisClusterAsyncCommands<byte[], byte[]> current = commands;
+        if (current == null) {
+            connectLock.lock();
+            try {
+                current = commands;
+                if (current == null) {
+                    current = connect();
+                    commands = current;
+                }
+            } finally {
+                connectLock.unlock();
+            }
+        }
+        return current;
+    }
+
+    private RedisClusterAsyncCommands<byte[], byte[]> connect() {
+        AbstractRedisClient client = connectionFactory.getRequiredNativeClient();
+        RedisClusterAsyncCommands<byte[], byte[]> async;
+        if (client instanceof RedisClusterClient clusterClient) {
+            // Seed nodes, credentials and topology refresh come from the client the factory configured.
+            StatefulRedisClusterConnection<byte[], byte[]> cluster = clusterClient.connect(ByteArrayCodec.INSTANCE);
+            if (readFrom != null) {
+                cluster.setReadFrom(readFrom);
+            }
+            connection = cluster;
+            async = cluster.async();
+        } else if (client instanceof RedisClient redisClient) {
+            StatefulRedisConnection<byte[], byte[]> standalone;
+            try {
+                // Standalone and Sentinel clients are created with the factory's URI: Sentinel nodes and master
+                // name, credentials, database, TLS, client name and timeouts.
+                standalone = redisClient.connect(ByteArrayCodec.INSTANCE);
+            } catch (IllegalStateException noDefaultUri) {
+                // A client created without a URI, e.g. for static master/replica.
+                standalone = redisClient.connect(ByteArrayCodec.INSTANCE, standaloneUri());
+            }
+            connection = standalone;
+            async = standalone.async();
+        } else {
+            throw new IllegalStateException("Unsupported Redis client " + client.getClass().getName()
+                    + "; standalone Redis or Redis Cluster required");
+        }
+        if (manualFlush) {
+            connection.setAutoFlushCommands(false);
+        }
+        return async;
+    }
+
+    private RedisURI standaloneUri() {
+        RedisStandaloneConfiguration standalone = connectionFactory.getStandaloneConfiguration();
+        LettuceClientConfiguration clientConfiguration = connectionFactory.getClientConfiguration();
+        RedisURI.Builder uri = RedisURI.builder()
+                .withHost(standalone.getHostName())
+                .withPort(standalone.getPort())
+                .withDatabase(standalone.getDatabase())
+                .withSsl(clientConfiguration.isUseSsl())
+                .withVerifyPeer(clientConfiguration.isVerifyPeer())
+                .withStartTls(clientConfiguration.isStartTls())
+                .withTimeout(clientConfiguration.getCommandTimeout());
+        clientConfiguration.getClientName().ifPresent(uri::withClientName);
+        RedisPassword password = standalone.getPassword();
+        if (password.isPresent()) {
+            String username = standalone.getUsername();
+            if (username != null) {
+                uri.withAuthentication(username, password.get());
+            } else {
+                uri.withPassword(password.get());
+            }
+        }
+        return uri.build();
+    }
+}
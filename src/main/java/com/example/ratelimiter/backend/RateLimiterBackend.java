@@ -0,0 +1,113 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.LimitBucket;
+import com.example.ratelimiter.model.RateLimitResult;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Engine holding token-bucket state and making the per-request decision.
+ * <p>
+ * Implementations must apply the token-bucket semantics of {@code rate_limiter.lua}: a new bucket starts
+ * full, refills continuously at {@code refillRatePerSecond} up to {@code capacity}, and a request is allowed
+ * only if {@code costPerRequest} tokens are available, in which case they are deducted atomically.
+ * <p>
+ * Infrastructure failures are thrown as runtime exceptions; {@code RateLimiterService} owns the
+ * fail-open / fail-closed policy.
+ */
+public interface RateLimiterBackend {
+
+    /**
+     * Evaluate one request against the bucket of {@code clientId}. Backends own the naming of their keys
+     * (see {@link BucketKeys}).
+     *
+     * @param clientId  unique identifier for the client, e.g. {@code api-key:abc}
+     * @param nowMillis current time in milliseconds
+     */
+    RateLimitResult tryAcquire(String clientId, long nowMillis);
+
+    /**
+     * Non-blocking variant of {@link #tryAcquire(String, long)}. Failures complete the future exceptionally.
+     * <p>
+     * The default implementation evaluates synchronously on the calling thread, which is appropriate for
+     * backends that never wait on I/O.
+     */
+    default CompletableFuture<RateLimitResult> tryAcquireAsync(String clientId, long nowMillis) {
+        try {
+            return CompletableFuture.completedFuture(tryAcquire(clientId, nowMillis));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Evaluate one request against the bucket of {@code clientId} and the additional {@code limits},
+     * atomically: tokens are deducted from every bucket only if all of them allow the request. The result
+     * describes the most restrictive bucket, see {@link RateLimitResult#getLimit()}.
+     * <p>
+     * The default implementation only supports an empty {@code limits} list.
+     *
+     * @param limits additional buckets in evaluation order; usually empty
+     */
+    default RateLimitResult tryAcquire(String clientId, List<LimitBucket> limits, long nowMillis) {
+        if (!limits.isEmpty()) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support rate-limiter.limits");
+        }
+        return tryAcquire(clientId, nowMillis);
+    }
+
+    /**
+     * The state of {@code clientId}'s bucket without taking tokens: the decision the next request would get
+     * and the tokens that would remain after it. For inspection only; never used to admit requests.
+     * <p>
+     * The default implementation is unsupported.
+     */
+    default RateLimitResult peek(String clientId, long nowMillis) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support bucket peeks");
+    }
+
+    /**
+     * Rejects limit definitions this backend cannot enforce, with an {@link IllegalArgumentException}.
+     * Called for every policy table before it is put in use, at startup and on reload.
+     * <p>
+     * The default implementation accepts no limits at all, matching {@link #tryAcquire(String, List, long)}.
+     */
+    default void validateLimits(List<RateLimiterProperties.LimitRule> limits) {
+        if (!limits.isEmpty()) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + " does not support rate-limiter.limits");
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #tryAcquire(String, List, long)}, with the same default behavior as
+     * {@link #tryAcquireAsync(String, long)}.
+     */
+    default CompletableFuture<RateLimitResult> tryAcquireAsync(String clientId, List<LimitBucket> limits,
+                                                                long nowMillis) {
+        if (limits.isEmpty()) {
+            return tryAcquireAsync(clientId, nowMillis);
+        }
+        try {
+            return CompletableFuture.completedFuture(tryAcquire(clientId, limits, nowMillis));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Number of parts of this backend that fail independently, e.g. one per Redis instance of a sharded
+     * backend. The circuit breaker keeps one circuit per part.
+     */
+    default int failureDomains() {
+        return 1;
+    }
+
+    /**
+     * @return the part of this backend, in {@code [0, failureDomains())}, that holds {@code clientId}'s bucket
+     */
+    default int failureDomain(String clientId) {
+        return 0;
+    }
+}
@@ -0,0 +1,902 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.Limit;
+import com.example.ratelimiter.model.LimitBucket;
+import com.example.ratelimiter.model.RateLimitDecision;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.lettuce.core.ReadFrom;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Default backend: bucket state lives in Redis and every decision is made by {@code rate_limiter.lua}, or by
+ * {@code rate_limiter_fixed.lua}, {@code gcra.lua} or {@code sliding_window.lua} when
+ * {@code rate-limiter.algorithm} is {@code token-bucket-fixed}, {@code gcra} or {@code sliding-window}.
+ *
+ * All concurrency control lives inside the Lua script. This backend is responsible for building the key,
+ * passing parameters and translating the script result into a domain-level decision. Keys and arguments are
+ * sent as pre-encoded bytes via EVALSHA on a native Lettuce connection of this backend, and the reply is
+ * decoded into primitives as it is read ({@link ScriptReplyOutput}). When batching is enabled the script
+ * invocation is handed to {@link RedisScriptBatcher}, which shares one pipelined round trip between
+ * concurrent callers. With async mode enabled, {@link #tryAcquireAsync} sends the script on the same native
+ * connection without waiting for the reply.
+ * When token leasing is enabled, most requests are served from a local lease held by
+ * {@link TokenLeaseManager} and only lease refreshes reach Redis. Clients that {@link HotKeyTracker} marks as
+ * hot are spread over several smaller buckets on separate keys, see {@link #tryAcquireSharded}. With
+ * {@link RequestCoalescer} concurrent checks of one client share script calls instead.
+ *
+ * Requests with additional limits ({@code rate-limiter.limits}) run {@code rate_limiter_multi.lua} instead,
+ * which checks the client's bucket and every limit's bucket in one call, each with the algorithm configured
+ * for it (token bucket or sliding window). They bypass leasing, whose local state cannot be checked together
+ * with the other buckets; for a sharded client the limits are checked after its shard.
+ *
+ * With {@code rate-limiter.scripts.functions} the scripts are invoked as functions of a {@link FunctionLibrary}
+ * with {@code FCALL} instead, and {@link #peek} uses {@code FCALL_RO}, served by replicas if
+ * {@code read-from} allows.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis", matchIfMissing = true)
+public class RedisRateLimiterBackend implements RateLimiterBackend, DisposableBean {
+
+    private static final int MAX_LIMIT_ENCODINGS = 1024;
+
+    private static final CompletableFuture<ScriptArguments> NOT_SHARDED = CompletableFuture.completedFuture(null);
+
+    private final StringRedisTemplate redisTemplate;
+    private final RateLimiterProperties properties;
+    private final RedisScriptBatcher batcher;
+    private final TokenLeaseManager leaseManager;
+    private final HotKeyTracker hotKeys;
+    private final RequestCoalescer coalescer;
+    private final RequestCoalescer.PermitCall permitCall = this::acquirePermits;
+    private final ScriptHandle acquireScript;
+    private final ScriptHandle multiLimitScript;
+    private final ScriptHandle peekScript;
+    private final ScriptHandle permitScript;
+    private final ScriptHandle transferScript;
+    private final NativeScriptConnection scriptConnection;
+    private final Duration scriptTimeout;
+    private final boolean async;
+    private final boolean gcra;
+    private final boolean slidingWindow;
+    private final double tokenScale;
+    private final byte[] tokenScaleBytes;
+    private final byte[] peekAlgorithmBytes;
+    private final boolean serverTime;
+    private final ConcurrentHashMap<Limit, LimitEncoding> limitEncodings = new ConcurrentHashMap<>();
+    private volatile ScriptArguments arguments;
+    private volatile ScriptArguments shardArguments;
+
+    @Autowired
+    public RedisRateLimiterBackend(
+            StringRedisTemplate redisTemplate,
+            @Qualifier("rateLimiterScript") DefaultRedisScript<List> rateLimiterScript,
+            @Qualifier("multiLimitScript") DefaultRedisScript<List> multiLimitScript,
+            @Qualifier("peekScript") DefaultRedisScript<List> peekScript,
+            @Qualifier("leaseAcquireScript") DefaultRedisScript<List> leaseAcquireScript,
+            @Qualifier("shardTransferScript") DefaultRedisScript<List> shardTransferScript,
+            RateLimiterProperties properties,
+            ObjectProvider<RedisScriptBatcher> batcher,
+            ObjectProvider<TokenLeaseManager> leaseManager,
+            ObjectProvider<HotKeyTracker> hotKeys,
+            ObjectProvider<RequestCoalescer> coalescer
+    ) {
+        this(redisTemplate, rateLimiterScript, multiLimitScript, peekScript, leaseAcquireScript,
+                shardTransferScript, properties, batcher.getIfAvailable(),
+                leaseManager.getIfAvailable(), hotKeys.getIfAvailable(),
+                coalescer.getIfAvailable());
+    }
+
+    /**
+     * For backends managing their own connections, e.g. one instance per Redis shard. Optional collaborators
+     * may be {@code null}.
+     */
+    RedisRateLimiterBackend(
+            StringRedisTemplate redisTemplate,
+            DefaultRedisScript<List> rateLimiterScript,
+            DefaultRedisScript<List> multiLimitScript,
+            DefaultRedisScript<List> peekScript,
+            DefaultRedisScript<List> leaseAcquireScript,
+            DefaultRedisScript<List> shardTransferScript,
+            RateLimiterProperties properties,
+            RedisScriptBatcher batcher,
+            TokenLeaseManager leaseManager,
+            HotKeyTracker hotKeys,
+            RequestCoalescer coalescer
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+        this.batcher = batcher;
+        this.leaseManager = leaseManager != null && leaseManager.isEffective() ? leaseManager : null;
+        this.hotKeys = hotKeys != null && hotKeys.isEffective() ? hotKeys : null;
+        RateLimiterProperties.Scripts scripts = properties.getScripts();
+        if (scripts.isFunctions()) {
+            FunctionLibrary library = FunctionLibrary.of(rateLimiterScript, multiLimitScript, peekScript,
+                    leaseAcquireScript, shardTransferScript);
+            this.acquireScript = ScriptHandle.function(rateLimiterScript, library, library.acquireFunction());
+            this.multiLimitScript = ScriptHandle.function(multiLimitScript, library, library.multiLimitFunction());
+            this.peekScript = ScriptHandle.function(peekScript, library, library.peekFunction());
+            this.permitScript = ScriptHandle.function(leaseAcquireScript, library, library.leaseFunction());
+            this.transferScript = ScriptHandle.function(shardTransferScript, library, library.transferFunction());
+        } else {
+            this.acquireScript = ScriptHandle.eval(rateLimiterScript);
+            this.multiLimitScript = ScriptHandle.eval(multiLimitScript);
+            this.peekScript = ScriptHandle.eval(peekScript);
+            this.permitScript = ScriptHandle.eval(leaseAcquireScript);
+            this.transferScript = ScriptHandle.eval(shardTransferScript);
+        }
+        // Other drivers run EVALSHA through the template; functions need Lettuce.
+        boolean lettuce = redisTemplate != null
+                && redisTemplate.getConnectionFactory() instanceof LettuceConnectionFactory;
+        this.scriptConnection = lettuce || scripts.isFunctions()
+                ? new NativeScriptConnection(redisTemplate.getRequiredConnectionFactory(), "Redis functions", false,
+                        ReadFrom.valueOf(scripts.getReadFrom()))
+                : null;
+        this.scriptTimeout = scripts.getTimeout();
+        // Async checks need Lettuce's async API.
+        this.async = properties.getAsync().isEnabled() && scriptConnection != null;
+        // Coalesced calls are asynchronous: they need a native connection, and a live lease serves bursts anyway.
+        this.coalescer = coalescer != null && coalescer.isEffective() && scriptConnection != null
+                && this.leaseManager == null ? coalescer : null;
+        this.gcra = "gcra".equals(properties.getAlgorithm());
+        this.slidingWindow = ScriptArguments.slidingWindow(properties);
+        this.tokenScale = ScriptArguments.fixedPoint(properties) ? ScriptArguments.MICRO_TOKENS : 1.0;
+        this.tokenScaleBytes = ScriptArguments.encode((long) tokenScale);
+        this.peekAlgorithmBytes = ScriptArguments.encode(gcra ? 2 : slidingWindow ? 1 : 0);
+        this.serverTime = ScriptArguments.usesServerTime(properties);
+        this.arguments = ScriptArguments.of(properties);
+        if (this.hotKeys != null) {
+            this.shardArguments = ScriptArguments.sharded(properties, this.hotKeys.shards());
+        }
+    }
+
+    @Override
+    public RateLimitResult tryAcquire(String clientId, long nowMillis) {
+        if (leaseManager != null) {
+            String key = BucketKeys.key(clientId);
+            RateLimitResult leased = leaseManager.tryConsume(key);
+            return leased != null ? leased : leaseManager.acquire(key);
+        }
+        ScriptArguments sharded = shardArgumentsFor(clientId, nowMillis);
+        if (sharded != null) {
+            return tryAcquireSharded(sharded, clientId, randomShard(sharded), nowMillis);
+        }
+        RateLimitResult result = coalescer != null
+                ? await(coalescer.acquire(clientId, nowMillis, permitCall), scriptTimeout)
+                : toResult(executeScript(keysAndArgs(clientId, nowMillis)));
+        sharded = adoptHold(clientId, result, nowMillis);
+        return sharded != null ? tryAcquireSharded(sharded, clientId, randomShard(sharded), nowMillis) : result;
+    }
+
+    /**
+     * All buckets in one {@code rate_limiter_multi.lua} call; with no additional limits this is
+     * {@link #tryAcquire(String, long)}.
+     */
+    @Override
+    public RateLimitResult tryAcquire(String clientId, List<LimitBucket> limits, long nowMillis) {
+        if (limits.isEmpty()) {
+            return tryAcquire(clientId, nowMillis);
+        }
+        ScriptArguments sharded = shardArgumentsFor(clientId, nowMillis);
+        if (sharded == null) {
+            Object result = executeScript(multiLimitScript, limits.size() + 1,
+                    multiKeysAndArgs(clientId, limits, nowMillis));
+            RateLimitResult decided = toResult(result, limits, 1);
+            // Only the client's own bucket can be held by a promotion.
+            sharded = bucketIndex(result) == 0 ? adoptHold(clientId, decided, nowMillis) : null;
+            if (sharded == null) {
+                return decided;
+            }
+        }
+        return tryAcquireSharded(sharded, clientId, limits, nowMillis);
+    }
+
+    @Override
+    public CompletableFuture<RateLimitResult> tryAcquireAsync(String clientId, List<LimitBucket> limits,
+                                                              long nowMillis) {
+        if (limits.isEmpty()) {
+            return tryAcquireAsync(clientId, nowMillis);
+        }
+        if (!async) {
+            return RateLimiterBackend.super.tryAcquireAsync(clientId, limits, nowMillis);
+        }
+        return shardArgumentsForAsync(clientId, nowMillis).thenCompose(sharded -> {
+            if (sharded != null) {
+                return tryAcquireShardAsync(sharded, clientId, limits, nowMillis);
+            }
+            return executeScriptAsync(multiLimitScript, limits.size() + 1,
+                    multiKeysAndArgs(clientId, limits, nowMillis))
+                    .thenCompose(result -> {
+                        RateLimitResult decided = toResult(result, limits, 1);
+                        ScriptArguments held = bucketIndex(result) == 0
+                                ? adoptHold(clientId, decided, nowMillis)
+                                : null;
+                        return held != null
+                                ? tryAcquireShardAsync(held, clientId, limits, nowMillis)
+                                : CompletableFuture.completedFuture(decided);
+                    });
+        });
+    }
+
+    /**
+     * One request of a hot client against its sharded bucket. Each of the N shards holds {@code 1/N} of
+     * the capacity and refill rate under its own key, so the client's load spreads over N keys (and
+     * cluster slots) instead of serializing on one. The shard is picked at random; if it rejects, up to
+     * {@code borrow-attempts} following shards are tried, each with its own script call, so a client is not
+     * throttled early just because its requests landed unevenly. Once every shard asked has rejected, the
+     * client's budget is taken to be spent and its requests are decided by one shard without borrowing until
+     * the earliest retry those shards reported. The returned remaining tokens and timings describe the last
+     * shard asked.
+     */
+    private RateLimitResult tryAcquireSharded(ScriptArguments current, String clientId, int shard, long nowMillis) {
+        RateLimitResult result = toResult(executeScript(shardKeysAndArgs(current, clientId, shard, nowMillis)));
+        if (result.getDecision() == RateLimitDecision.ALLOW) {
+            return result;
+        }
+        int attempts = Math.min(hotKeys.borrowAttempts(clientId, nowMillis), current.shards() - 1);
+        long retryAfterMillis = result.getRetryAfterMillis();
+        for (int i = 1; i <= attempts; i++) {
+            hotKeys.borrowed();
+            result = toResult(executeScript(shardKeysAndArgs(current, clientId, (shard + i) % current.shards(),
+                    nowMillis)));
+            if (result.getDecision() == RateLimitDecision.ALLOW) {
+                return result;
+            }
+            retryAfterMillis = earlier(retryAfterMillis, result.getRetryAfterMillis());
+        }
+        if (attempts > 0 && retryAfterMillis >= 0) {
+            hotKeys.shardsEmpty(clientId, nowMillis + retryAfterMillis);
+        }
+        return result;
+    }
+
+    /**
+     * A request of a hot client with additional limits: the client's own token comes from a shard, then the
+     * limits' buckets are checked with {@code rate_limiter_multi.lua}, and the token goes back to the shard
+     * if a limit rejects. Unlike the unsharded check this takes two calls, so the shard token is briefly
+     * taken for a request that may still be rejected. When allowed, the bucket with fewer tokens left is
+     * described.
+     */
+    private RateLimitResult tryAcquireSharded(ScriptArguments current, String clientId, List<LimitBucket> limits,
+                                              long nowMillis) {
+        int shard = randomShard(current);
+        RateLimitResult own = tryAcquireSharded(current, clientId, shard, nowMillis);
+        if (own.getDecision() != RateLimitDecision.ALLOW) {
+            return own;
+        }
+        RateLimitResult decided = toResult(executeScript(multiLimitScript, limits.size(),
+                multiLimitKeysAndArgs(null, limits, nowMillis)), limits, 0);
+        if (decided.getDecision() != RateLimitDecision.ALLOW) {
+            executeScript(transferScript, 1, refundKeysAndArgs(current, clientId, shard, nowMillis));
+            return decided;
+        }
+        return own.getRemainingTokens() <= decided.getRemainingTokens() ? own : decided;
+    }
+
+    /**
+     * {@code shard_transfer.lua} giving one request's cost back to {@code shard}. If a borrowed shard
+     * granted the token, it still goes to the chosen one: the tokens all belong to the client.
+     */
+    private byte[][] refundKeysAndArgs(ScriptArguments current, String clientId, int shard, long nowMillis) {
+        return current.transferKeysAndArgs(BucketKeys.shardKeyBytes(clientId, shard, gcra),
+                ScriptArguments.now(serverTime, nowMillis), peekAlgorithmBytes, ScriptArguments.TRANSFER_GIVE,
+                current.tokens(properties.getCostPerRequest()));
+    }
+
+    /**
+     * The earlier of two retry-after values, {@code -1} (never) counting as later than any other.
+     */
+    private static long earlier(long retryAfterMillis, long otherMillis) {
+        if (retryAfterMillis < 0) {
+            return otherMillis;
+        }
+        return otherMillis < 0 ? retryAfterMillis : Math.min(retryAfterMillis, otherMillis);
+    }
+
+    private static int randomShard(ScriptArguments current) {
+        return ThreadLocalRandom.current().nextInt(current.shards());
+    }
+
+    /**
+     * Without blocking the caller: batched invocations already complete a future, otherwise the script is
+     * sent on the native script connection. Lease refreshes still use the blocking path; requests served
+     * from a live lease complete immediately.
+     */
+    @Override
+    public CompletableFuture<RateLimitResult> tryAcquireAsync(String clientId, long nowMillis) {
+        if (leaseManager != null || !async) {
+            return RateLimiterBackend.super.tryAcquireAsync(clientId, nowMillis);
+        }
+        if (hotKeys != null) {
+            return shardArgumentsForAsync(clientId, nowMillis).thenCompose(sharded -> sharded != null
+                    ? tryAcquireShardAsync(sharded, clientId, randomShard(sharded), nowMillis)
+                    : tryAcquireBucketAsync(clientId, nowMillis));
+        }
+        return tryAcquireBucketAsync(clientId, nowMillis);
+    }
+
+    /**
+     * The client's own bucket, and its shards if another node's promotion holds it.
+     */
+    private CompletableFuture<RateLimitResult> tryAcquireBucketAsync(String clientId, long nowMillis) {
+        CompletableFuture<RateLimitResult> pending = coalescer != null
+                ? coalescer.acquire(clientId, nowMillis, permitCall)
+                : executeScriptAsync(keysAndArgs(clientId, nowMillis)).thenApply(this::toResult);
+        if (hotKeys == null) {
+            return pending;
+        }
+        return pending.thenCompose(result -> {
+            ScriptArguments held = adoptHold(clientId, result, nowMillis);
+            return held != null
+                    ? tryAcquireShardAsync(held, clientId, randomShard(held), nowMillis)
+                    : CompletableFuture.completedFuture(result);
+        });
+    }
+
+    /**
+     * {@link #tryAcquireSharded(ScriptArguments, String, List, long)} without blocking.
+     */
+    private CompletableFuture<RateLimitResult> tryAcquireShardAsync(ScriptArguments current, String clientId,
+                                                                    List<LimitBucket> limits, long nowMillis) {
+        int shard = randomShard(current);
+        return tryAcquireShardAsync(current, clientId, shard, nowMillis).thenCompose(own -> {
+            if (own.getDecision() != RateLimitDecision.ALLOW) {
+                return CompletableFuture.completedFuture(own);
+            }
+            return executeScriptAsync(multiLimitScript, limits.size(),
+                    multiLimitKeysAndArgs(null, limits, nowMillis))
+                    .thenCompose(result -> {
+                        RateLimitResult decided = toResult(result, limits, 0);
+                        if (decided.getDecision() == RateLimitDecision.ALLOW) {
+                            return CompletableFuture.completedFuture(
+                                    own.getRemainingTokens() <= decided.getRemainingTokens() ? own : decided);
+                        }
+                        return executeScriptAsync(transferScript, 1, refundKeysAndArgs(current, clientId, shard,
+                                nowMillis)).thenApply(ignored -> decided);
+                    });
+        });
+    }
+
+    /**
+     * {@link #tryAcquireSharded(ScriptArguments, String, int, long)} without blocking.
+     */
+    private CompletableFuture<RateLimitResult> tryAcquireShardAsync(ScriptArguments current, String clientId,
+                                                                    int shard, long nowMillis) {
+        return executeScriptAsync(shardKeysAndArgs(current, clientId, shard, nowMillis))
+                .thenApply(this::toResult)
+                .thenCompose(result -> {
+                    if (result.getDecision() == RateLimitDecision.ALLOW) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    int attempts = Math.min(hotKeys.borrowAttempts(clientId, nowMillis), current.shards() - 1);
+                    return attempts == 0
+                            ? CompletableFuture.completedFuture(result)
+                            : borrowAsync(current, clientId, shard + 1, attempts, result.getRetryAfterMillis(),
+                                    nowMillis);
+                });
+    }
+
+    private CompletableFuture<RateLimitResult> borrowAsync(ScriptArguments current, String clientId, int shard,
+                                                           int attemptsLeft, long retryAfterMillis, long nowMillis) {
+        hotKeys.borrowed();
+        return executeScriptAsync(shardKeysAndArgs(current, clientId, shard % current.shards(), nowMillis))
+                .thenApply(this::toResult)
+                .thenCompose(result -> {
+                    if (result.getDecision() == RateLimitDecision.ALLOW) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    long earliest = earlier(retryAfterMillis, result.getRetryAfterMillis());
+                    if (attemptsLeft > 1) {
+                        return borrowAsync(current, clientId, shard + 1, attemptsLeft - 1, earliest, nowMillis);
+                    }
+                    if (earliest >= 0) {
+                        hotKeys.shardsEmpty(clientId, nowMillis + earliest);
+                    }
+                    return CompletableFuture.completedFuture(result);
+                });
+    }
+
+    private CompletableFuture<Object> executeScriptAsync(byte[][] keysAndArgs) {
+        return executeScriptAsync(acquireScript, 1, keysAndArgs);
+    }
+
+    private CompletableFuture<Object> executeScriptAsync(ScriptHandle script, int numKeys, byte[][] keysAndArgs) {
+        CompletableFuture<Object> pending = batcher != null ? batcher.submit(script, numKeys, keysAndArgs) : null;
+        if (pending == null) {
+            pending = scriptConnection.invoke(script, numKeys, keysAndArgs, false);
+        }
+        return pending;
+    }
+
+    /**
+     * One coalesced call: {@code lease_acquire.lua} withdrawing up to {@code permits} permits.
+     */
+    private CompletableFuture<Object> acquirePermits(String clientId, int permits, long nowMillis) {
+        return executeScriptAsync(permitScript, 1, currentArguments().permitKeysAndArgs(
+                BucketKeys.keyBytes(clientId), permits, ScriptArguments.now(serverTime, nowMillis)));
+    }
+
+    /**
+     * The client's bucket as the configured bucket script would see it now, from {@code rate_limiter_peek.lua},
+     * which writes nothing: the token bucket's hash, the GCRA key's TAT or the two sliding-window counters.
+     * Leased tokens count as taken.
+     */
+    @Override
+    public RateLimitResult peek(String clientId, long nowMillis) {
+        byte[][] keysAndArgs = Arrays.copyOf(keysAndArgs(clientId, nowMillis), 7);
+        keysAndArgs[5] = tokenScaleBytes;
+        keysAndArgs[6] = peekAlgorithmBytes;
+        if (scriptConnection != null) {
+            return toResult(await(scriptConnection.invoke(peekScript, 1, keysAndArgs, true), scriptTimeout));
+        }
+        return toResult(redisTemplate.execute((RedisCallback<Object>) connection ->
+                evalSha(connection, peekScript, 1, keysAndArgs), true));
+    }
+
+    @Override
+    public void destroy() {
+        if (scriptConnection != null) {
+            scriptConnection.close();
+        }
+    }
+
+    RateLimitResult toResult(Object result) {
+        if (result instanceof ScriptReply reply && reply.size() >= 4) {
+            return toResult(reply.flag(), reply.tokens(), reply.retryAfterMillis(), reply.resetMillis());
+        }
+        if (!(result instanceof List<?> listResult) || listResult.size() < 4) {
+            // Defensive: unexpected script return type; treat as infrastructure failure.
+            throw new IllegalStateException("Unexpected Lua script result: " + result);
+        }
+        return toResult(ScriptResults.toLong(listResult.get(0)), ScriptResults.toDouble(listResult.get(1)),
+                ScriptResults.toLong(listResult.get(2)), ScriptResults.toLong(listResult.get(3)));
+    }
+
+    private RateLimitResult toResult(long allowedFlag, double tokens, long retryAfterMillis, long resetMillis) {
+        // Below zero while the bucket is held for hot-key sharding.
+        double remainingTokens = Math.max(0.0, tokens / tokenScale);
+        if (allowedFlag == 1L) {
+            return RateLimitResult.allow(remainingTokens, retryAfterMillis, resetMillis);
+        } else {
+            return RateLimitResult.rejectRateLimited(remainingTokens, retryAfterMillis, resetMillis);
+        }
+    }
+
+    /**
+     * {@link #toResult(Object)} of a {@code rate_limiter_multi.lua} reply, whose fifth element is the index
+     * of the bucket described: {@code limits[index - first]}, or the client's own if {@code index < first}.
+     *
+     * @param first number of keys sent before the limits' buckets: 1 with the client's bucket, 0 without
+     */
+    private RateLimitResult toResult(Object result, List<LimitBucket> limits, int first) {
+        RateLimitResult decided = toResult(result);
+        int bucket = bucketIndex(result) - first;
+        if (bucket < 0 || bucket >= limits.size()) {
+            return decided;
+        }
+        return decided.withLimit(limits.get(bucket).getLimit().getCapacity());
+    }
+
+    private static int bucketIndex(Object result) {
+        if (result instanceof ScriptReply reply) {
+            return reply.size() > 4 ? (int) reply.bucket() : 0;
+        }
+        List<?> listResult = (List<?>) result;
+        return listResult.size() > 4 ? (int) ScriptResults.toLong(listResult.get(4)) : 0;
+    }
+
+    /**
+     * KEYS and ARGV for the bucket script as raw bytes. The static arguments are re-encoded only when
+     * the configuration changes. With {@code rate-limiter.time.source=redis-script} {@code nowMillis} is
+     * ignored and the script reads the server's clock.
+     */
+    byte[][] keysAndArgs(String clientId, long nowMillis) {
+        ScriptArguments current = currentArguments();
+        byte[] key = bucketKeyBytes(clientId);
+        return serverTime ? current.keysAndArgsAtServerTime(key) : current.keysAndArgs(key, nowMillis);
+    }
+
+    /**
+     * KEYS (the client's bucket, then one per limit) followed by ARGV ({@code now}, then capacity, refill
+     * rate, cost and algorithm per key) for {@code rate_limiter_multi.lua}.
+     */
+    byte[][] multiKeysAndArgs(String clientId, List<LimitBucket> limits, long nowMillis) {
+        return multiLimitKeysAndArgs(BucketKeys.keyBytes(clientId), limits, nowMillis);
+    }
+
+    /**
+     * As {@link #multiKeysAndArgs(String, List, long)}; with {@code clientKey} {@code null} only the limits'
+     * buckets are checked.
+     */
+    private byte[][] multiLimitKeysAndArgs(byte[] clientKey, List<LimitBucket> limits, long nowMillis) {
+        int first = clientKey != null ? 1 : 0;
+        int keys = limits.size() + first;
+        byte[][] keysAndArgs = new byte[keys * 5 + 1][];
+        keysAndArgs[keys] = ScriptArguments.now(serverTime, nowMillis);
+        if (clientKey != null) {
+            keysAndArgs[0] = clientKey;
+            currentArguments().writeBucketArgs(keysAndArgs, keys + 1);
+        }
+        for (int i = first; i < keys; i++) {
+            LimitBucket bucket = limits.get(i - first);
+            LimitEncoding encoding = limitEncoding(bucket.getLimit());
+            keysAndArgs[i] = BucketKeys.limitKeyBytes(encoding.keyPrefixBytes, encoding.keyPrefix, bucket.getScopeId());
+            encoding.arguments.writeBucketArgs(keysAndArgs, keys + 1 + 4 * i);
+        }
+        return keysAndArgs;
+    }
+
+    private ScriptArguments currentArguments() {
+        ScriptArguments current = arguments;
+        if (!current.matches(properties)) {
+            current = ScriptArguments.of(properties);
+            arguments = current;
+        }
+        return current;
+    }
+
+    private byte[] bucketKeyBytes(String clientId) {
+        return gcra ? BucketKeys.gcraKeyBytes(clientId) : BucketKeys.keyBytes(clientId);
+    }
+
+    /**
+     * Key prefix and ARGV of a limit, encoded once per limit and cost.
+     */
+    private LimitEncoding limitEncoding(Limit limit) {
+        double cost = properties.getCostPerRequest();
+        LimitEncoding encoding = limitEncodings.get(limit);
+        if (encoding == null || !encoding.arguments.matchesCost(cost)) {
+            if (limitEncodings.size() >= MAX_LIMIT_ENCODINGS) {
+                // Limits replaced by a reload are never asked for again.
+                limitEncodings.clear();
+            }
+            encoding = new LimitEncoding(limit, cost);
+            limitEncodings.put(limit, encoding);
+        }
+        return encoding;
+    }
+
+    /**
+     * Multi-key scripts need every key on one node: on Redis Cluster only client scoped limits, which share
+     * the client's hash tag, can be checked together with the client's bucket.
+     */
+    @Override
+    public void validateLimits(List<RateLimiterProperties.LimitRule> limits) {
+        if (limits.isEmpty()) {
+            return;
+        }
+        if (!"token-bucket".equals(properties.getAlgorithm()) && !slidingWindow) {
+            // rate_limiter_multi.lua works on the float token bucket layout and on window counters only.
+            throw new IllegalArgumentException(
+                    "rate-limiter.limits requires rate-limiter.algorithm=token-bucket or sliding-window");
+        }
+        boolean cluster = redisTemplate.getConnectionFactory() instanceof LettuceConnectionFactory factory
+                && factory.isClusterAware();
+        for (RateLimiterProperties.LimitRule rule : limits) {
+            if (cluster && !"client".equals(rule.getScope())) {
+                throw new IllegalArgumentException("Limit " + rule.getName() + " has scope " + rule.getScope()
+                        + "; on Redis Cluster rate-limiter.limits only supports scope client");
+            }
+        }
+    }
+
+    private byte[][] shardKeysAndArgs(ScriptArguments current, String clientId, int shard, long nowMillis) {
+        byte[] key = BucketKeys.shardKeyBytes(clientId, shard, gcra);
+        return serverTime ? current.keysAndArgsAtServerTime(key) : current.keysAndArgs(key, nowMillis);
+    }
+
+    /**
+     * Counts the request towards the client's rate and moves the client's bucket to or from its shards when
+     * it becomes hot or cools down.
+     *
+     * @return shard arguments if the client is hot and its bucket can be split, otherwise {@code null}
+     */
+    private ScriptArguments shardArgumentsFor(String clientId, long nowMillis) {
+        ScriptArguments current = splittableShardArguments();
+        if (current == null) {
+            return null;
+        }
+        return switch (hotKeys.recordRequest(clientId, nowMillis)) {
+            case SHARDED -> current;
+            case PROMOTED -> promote(current, clientId, nowMillis);
+            case DEMOTED -> demote(current, clientId, nowMillis);
+            case COLD -> null;
+        };
+    }
+
+    /**
+     * {@link #shardArgumentsFor} without blocking: the transfers of a promotion or demotion are chained on
+     * the script connection.
+     *
+     * @return a future of the shard arguments, or of {@code null}
+     */
+    private CompletableFuture<ScriptArguments> shardArgumentsForAsync(String clientId, long nowMillis) {
+        ScriptArguments current = splittableShardArguments();
+        if (current == null) {
+            return NOT_SHARDED;
+        }
+        return switch (hotKeys.recordRequest(clientId, nowMillis)) {
+            case SHARDED -> CompletableFuture.completedFuture(current);
+            case PROMOTED -> promoteAsync(current, clientId, nowMillis);
+            case DEMOTED -> demoteAsync(current, clientId, nowMillis);
+            case COLD -> NOT_SHARDED;
+        };
+    }
+
+    /**
+     * @return the shard arguments of the current configuration, or {@code null} if sharding is off or the
+     * bucket cannot be split
+     */
+    private ScriptArguments splittableShardArguments() {
+        if (hotKeys == null) {
+            return null;
+        }
+        ScriptArguments current = shardArguments;
+        if (!current.matches(properties)) {
+            current = ScriptArguments.sharded(properties, hotKeys.shards());
+            shardArguments = current;
+        }
+        return current.shards() > 1 ? current : null;
+    }
+
+    /**
+     * Holds the client's bucket empty for another cooldown and, unless it already was held (sharded by this
+     * node or another), moves its tokens to the shards. Withdrawing the tokens and starting the hold is one
+     * script call, so of several nodes promoting the client at once only the first finds the bucket unheld
+     * and seeds the shards; the others neither withdraw nor overwrite the seed. The tokens are spread over
+     * the shards, replacing whatever an earlier sharded period left there. A node that adopts the hold while
+     * the shards are still being seeded may find them as that period left them, for one round trip per
+     * shard. Tokens refilled meanwhile are dropped.
+     * <p>
+     * One call per hot second, plus one per shard when the client was not sharded yet.
+     */
+    private ScriptArguments promote(ScriptArguments shards, String clientId, long nowMillis) {
+        long holdMillis = hotKeys.cooldownMillis();
+        byte[] now = ScriptArguments.now(serverTime, nowMillis);
+        Object taken = executeScript(transferScript, 1, holdKeysAndArgs(clientId, now, holdMillis));
+        if (heldMillis(taken) == 0) {
+            byte[] seed = shards.tokens(transferredTokens(taken) / shards.shards());
+            for (int shard = 0; shard < shards.shards(); shard++) {
+                executeScript(transferScript, 1, seedKeysAndArgs(shards, clientId, shard, now, seed));
+            }
+        }
+        hotKeys.shard(clientId, nowMillis, nowMillis + holdMillis);
+        return shards;
+    }
+
+    /**
+     * {@link #promote} without blocking; the shards are seeded in parallel.
+     */
+    private CompletableFuture<ScriptArguments> promoteAsync(ScriptArguments shards, String clientId,
+                                                            long nowMillis) {
+        long holdMillis = hotKeys.cooldownMillis();
+        byte[] now = ScriptArguments.now(serverTime, nowMillis);
+        return executeScriptAsync(transferScript, 1, holdKeysAndArgs(clientId, now, holdMillis))
+                .thenCompose(taken -> {
+                    if (heldMillis(taken) > 0) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    byte[] seed = shards.tokens(transferredTokens(taken) / shards.shards());
+                    CompletableFuture<?>[] seeded = new CompletableFuture<?>[shards.shards()];
+                    for (int shard = 0; shard < seeded.length; shard++) {
+                        seeded[shard] = executeScriptAsync(transferScript, 1,
+                                seedKeysAndArgs(shards, clientId, shard, now, seed));
+                    }
+                    return CompletableFuture.allOf(seeded);
+                })
+                .thenApply(ignored -> {
+                    hotKeys.shard(clientId, nowMillis, nowMillis + holdMillis);
+                    return shards;
+                });
+    }
+
+    /**
+     * {@code shard_transfer.lua} withdrawing the bucket's tokens unless it is held, and holding it empty for
+     * {@code holdMillis}.
+     */
+    private byte[][] holdKeysAndArgs(String clientId, byte[] now, long holdMillis) {
+        return currentArguments().transferKeysAndArgs(bucketKeyBytes(clientId), now, peekAlgorithmBytes,
+                ScriptArguments.TRANSFER_TAKE, ScriptArguments.encode(holdMillis));
+    }
+
+    private byte[][] seedKeysAndArgs(ScriptArguments shards, String clientId, int shard, byte[] now, byte[] seed) {
+        return shards.transferKeysAndArgs(BucketKeys.shardKeyBytes(clientId, shard, gcra), now, peekAlgorithmBytes,
+                ScriptArguments.TRANSFER_SET, seed);
+    }
+
+    /**
+     * The client cooled down on this node. If its bucket is still held, another node kept it hot and this
+     * one adopts the remaining period. Otherwise the shards are emptied into the bucket (capped at
+     * capacity), so the client resumes with what it had left instead of full shards or a bucket that refilled
+     * meanwhile. Another node draining at the same time finds the shards empty.
+     */
+    private ScriptArguments demote(ScriptArguments shards, String clientId, long nowMillis) {
+        byte[] now = ScriptArguments.now(serverTime, nowMillis);
+        long heldMillis = heldMillis(executeScript(transferScript, 1, giveKeysAndArgs(clientId, now, 0.0)));
+        if (heldMillis > 0) {
+            hotKeys.shard(clientId, nowMillis, nowMillis + heldMillis);
+            return shards;
+        }
+        double drained = 0.0;
+        for (int shard = 0; shard < shards.shards(); shard++) {
+            drained += transferredTokens(executeScript(transferScript, 1,
+                    drainKeysAndArgs(shards, clientId, shard, now)));
+        }
+        if (drained > 0.0) {
+            executeScript(transferScript, 1, giveKeysAndArgs(clientId, now, drained));
+        }
+        return null;
+    }
+
+    /**
+     * {@link #demote} without blocking; the shards are drained in parallel.
+     */
+    private CompletableFuture<ScriptArguments> demoteAsync(ScriptArguments shards, String clientId,
+                                                           long nowMillis) {
+        byte[] now = ScriptArguments.now(serverTime, nowMillis);
+        return executeScriptAsync(transferScript, 1, giveKeysAndArgs(clientId, now, 0.0)).thenCompose(probe -> {
+            long heldMillis = heldMillis(probe);
+            if (heldMillis > 0) {
+                hotKeys.shard(clientId, nowMillis, nowMillis + heldMillis);
+                return CompletableFuture.completedFuture(shards);
+            }
+            List<CompletableFuture<Object>> drains = new ArrayList<>(shards.shards());
+            for (int shard = 0; shard < shards.shards(); shard++) {
+                drains.add(executeScriptAsync(transferScript, 1, drainKeysAndArgs(shards, clientId, shard, now)));
+            }
+            return CompletableFuture.allOf(drains.toArray(new CompletableFuture<?>[0])).thenCompose(ignored -> {
+                double drained = 0.0;
+                for (CompletableFuture<Object> drain : drains) {
+                    drained += transferredTokens(drain.join());
+                }
+                return drained > 0.0
+                        ? executeScriptAsync(transferScript, 1, giveKeysAndArgs(clientId, now, drained))
+                        .thenApply(given -> (ScriptArguments) null)
+                        : NOT_SHARDED;
+            });
+        });
+    }
+
+    private byte[][] giveKeysAndArgs(String clientId, byte[] now, double tokens) {
+        ScriptArguments bucket = currentArguments();
+        return bucket.transferKeysAndArgs(bucketKeyBytes(clientId), now, peekAlgorithmBytes,
+                ScriptArguments.TRANSFER_GIVE, bucket.tokens(tokens));
+    }
+
+    private byte[][] drainKeysAndArgs(ScriptArguments shards, String clientId, int shard, byte[] now) {
+        return shards.transferKeysAndArgs(BucketKeys.shardKeyBytes(clientId, shard, gcra), now, peekAlgorithmBytes,
+                ScriptArguments.TRANSFER_TAKE, ScriptArguments.encode(0L));
+    }
+
+    /**
+     * A rejection by the client's own bucket that reports a reset beyond a full refill comes from a bucket
+     * held by another node's promotion: the client is sharded for the rest of the hold on this node too.
+     *
+     * @return shard arguments to decide the request with, or {@code null} to keep {@code result}
+     */
+    private ScriptArguments adoptHold(String clientId, RateLimitResult result, long nowMillis) {
+        if (hotKeys == null || result.getDecision() == RateLimitDecision.ALLOW) {
+            return null;
+        }
+        ScriptArguments current = shardArguments;
+        long heldMillis = result.getResetMillis() - currentArguments().fullRefillMillis();
+        // Rounded up on both sides: a millisecond beyond is not yet a hold.
+        if (current.shards() <= 1 || heldMillis <= 1) {
+            return null;
+        }
+        hotKeys.shard(clientId, nowMillis, nowMillis + heldMillis);
+        return current;
+    }
+
+    /**
+     * @return first element of a {@code shard_transfer.lua} reply: how long the bucket was held
+     */
+    private static long heldMillis(Object reply) {
+        if (reply instanceof ScriptReply scriptReply) {
+            return scriptReply.flag();
+        }
+        return ScriptResults.toLong(((List<?>) reply).get(0));
+    }
+
+    /**
+     * @return second element of a {@code shard_transfer.lua} reply, in tokens
+     */
+    private double transferredTokens(Object reply) {
+        double tokens = reply instanceof ScriptReply scriptReply
+                ? scriptReply.tokens()
+                : ScriptResults.toDouble(((List<?>) reply).get(1));
+        return tokens / tokenScale;
+    }
+
+    private Object executeScript(byte[][] keysAndArgs) {
+        return executeScript(acquireScript, 1, keysAndArgs);
+    }
+
+    private Object executeScript(ScriptHandle script, int numKeys, byte[][] keysAndArgs) {
+        CompletableFuture<Object> pending = batcher != null ? batcher.submit(script, numKeys, keysAndArgs) : null;
+        if (pending != null) {
+            return await(pending, properties.getBatching().getResultTimeout());
+        }
+        if (scriptConnection != null) {
+            return await(scriptConnection.invoke(script, numKeys, keysAndArgs, false), scriptTimeout);
+        }
+        // Exposing the native connection avoids a proxy per call; EVALSHA on raw bytes skips the
+        // template's argument serialization and result conversion.
+        return redisTemplate.execute((RedisCallback<Object>) connection ->
+                evalSha(connection, script, numKeys, keysAndArgs), true);
+    }
+
+    private static <T> T await(CompletableFuture<T> pending, Duration timeout) {
+        try {
+            return pending.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException ex) {
+            // Surface the original Redis exception so the regular failure handling applies.
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Script execution failed", ex.getCause());
+        } catch (TimeoutException ex) {
+            pending.cancel(false);
+            throw new IllegalStateException("Timed out waiting for script result", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for script result", ex);
+        }
+    }
+
+    private static Object evalSha(RedisConnection connection, ScriptHandle script, int numKeys,
+                                  byte[][] keysAndArgs) {
+        return evalSha(connection, script, ReturnType.MULTI, numKeys, keysAndArgs);
+    }
+
+    /**
+     * EVALSHA of {@code script} on a template connection, falling back to EVAL on NOSCRIPT.
+     */
+    static <T> T evalSha(RedisConnection connection, ScriptHandle script, ReturnType returnType, int numKeys,
+                         byte[][] keysAndArgs) {
+        try {
+            return connection.scriptingCommands().evalSha(script.sha(), returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException ex) {
+            if (!ScriptResults.isNoScript(ex)) {
+                throw ex;
+            }
+            // Script cache flushed (restart/failover): EVAL runs the script and caches it again.
+            return connection.scriptingCommands().eval(script.body(), returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    private static final class LimitEncoding {
+        private final String keyPrefix;
+        private final byte[] keyPrefixBytes;
+        private final ScriptArguments arguments;
+
+        private LimitEncoding(Limit limit, double costPerRequest) {
+            this.keyPrefix = BucketKeys.limitKeyPrefix(limit.getName());
+            this.keyPrefixBytes = keyPrefix.getBytes(StandardCharsets.UTF_8);
+            this.arguments = ScriptArguments.of(limit, costPerRequest);
+        }
+    }
+}
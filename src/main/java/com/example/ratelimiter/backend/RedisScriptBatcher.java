@@ -0,0 +1,240 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces concurrent rate-limit checks into pipelined EVALSHA bursts.
+ *
+ * Request threads enqueue their script invocation and wait on a future. A single flusher thread
+ * collects up to {@code maxBatchSize} invocations, or whatever arrived within {@code maxWait} of the
+ * first one, and writes them to Redis as a pipeline on its own long-lived connection. Each invocation
+ * still runs as its own atomic script execution; only the network round trip is shared. Replies complete
+ * the futures from the I/O thread, so the next batch can be written while earlier ones are in flight.
+ *
+ * Against Redis Cluster the connection routes every invocation to the node owning its key's slot and the
+ * batch is flushed to each node as one write, so one batch costs one round trip per node involved rather
+ * than per invocation. Invocations redirected with {@code MOVED} or {@code ASK} during resharding are
+ * retried on the new owner by the driver instead of failing.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter.batching", name = "enabled", havingValue = "true")
+public class RedisScriptBatcher implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisScriptBatcher.class);
+
+    /**
+     * How often the idle flusher writes out commands the driver queued by itself while replies are pending:
+     * invocations redirected with MOVED/ASK, which only reach the wire on a flush.
+     */
+    private static final long IN_FLIGHT_FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final NativeScriptConnection connection;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<PendingInvocation> queue;
+    private final DistributionSummary batchSize;
+    private final Timer batchLatency;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    public RedisScriptBatcher(
+            RedisConnectionFactory connectionFactory,
+            RateLimiterProperties properties,
+            MeterRegistry meterRegistry
+    ) {
+        RateLimiterProperties.Batching batching = properties.getBatching();
+        this.connection = new NativeScriptConnection(connectionFactory, "Batching", true);
+        this.maxBatchSize = Math.max(1, batching.getMaxBatchSize());
+        this.maxWaitNanos = batching.getMaxWait().toNanos();
+        this.queue = new ArrayBlockingQueue<>(Math.max(this.maxBatchSize, batching.getQueueCapacity()));
+        this.batchSize = DistributionSummary.builder("ratelimiter.batch.size")
+                .description("Number of script invocations flushed per Redis pipeline")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchLatency = Timer.builder("ratelimiter.batch.latency")
+                .description("Time from writing one pipelined batch until its last reply")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Enqueue one script invocation, e.g. of {@code rate_limiter.lua}, {@code rate_limiter_multi.lua} or a
+     * function of the {@link FunctionLibrary}; all of them are batched together.
+     *
+     * @param keysAndArgs {@code numKeys} keys followed by ARGV, already encoded
+     * @return a future completed with the decoded {@link ScriptReply}, or {@code null} if the batcher cannot
+     * accept the invocation (not running or queue full) and the caller should execute it directly.
+     */
+    CompletableFuture<Object> submit(ScriptHandle script, int numKeys, byte[][] keysAndArgs) {
+        if (!running) {
+            return null;
+        }
+        PendingInvocation invocation = new PendingInvocation(script, numKeys, keysAndArgs);
+        if (!queue.offer(invocation)) {
+            return null;
+        }
+        return invocation.future;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        flusher = new Thread(this::runLoop, "rate-limiter-batcher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = flusher;
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Anything still queued after the flusher exited can no longer be served by this batcher.
+        PendingInvocation leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.future.completeExceptionally(new IllegalStateException("Batcher stopped"));
+        }
+        connection.close();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void runLoop() {
+        List<PendingInvocation> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                boolean awaitingReplies = inFlight.get() > 0;
+                PendingInvocation first = awaitingReplies
+                        ? queue.poll(IN_FLIGHT_FLUSH_NANOS, TimeUnit.NANOSECONDS)
+                        : queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (awaitingReplies) {
+                        connection.flush();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+                flush(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (RuntimeException ex) {
+                // Never let the flusher die; fail what was not sent and keep serving.
+                log.error("Unexpected error while flushing rate limiter batch of size {}", batch.size(), ex);
+                failUnsent(batch, ex);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void collect(List<PendingInvocation> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            if (batch.size() >= maxBatchSize) {
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            PendingInvocation next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Writes the batch as one pipeline; every future is completed by its own reply. A script cache flushed
+     * by a restart or failover is handled per invocation: NOSCRIPT means the script did not run, so it is
+     * re-sent with EVAL and no bucket is charged twice; a missing function library is loaded again before
+     * the call is repeated.
+     */
+    private void flush(List<PendingInvocation> batch) {
+        batchSize.record(batch.size());
+        long start = System.nanoTime();
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[batch.size()];
+        try {
+            for (int i = 0; i < replies.length; i++) {
+                PendingInvocation invocation = batch.get(i);
+                CompletableFuture<Object> reply = connection.invoke(invocation.script, invocation.numKeys,
+                        invocation.keysAndArgs, false);
+                invocation.sent = true;
+                inFlight.incrementAndGet();
+                replies[i] = reply.whenComplete((result, error) -> {
+                    inFlight.decrementAndGet();
+                    if (error != null) {
+                        invocation.future.completeExceptionally(error);
+                    } else {
+                        invocation.future.complete(result);
+                    }
+                });
+            }
+        } finally {
+            connection.flush();
+        }
+        CompletableFuture.allOf(replies).whenComplete((ignored, error) ->
+                batchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Fails the invocations that never reached the connection. The others may already have charged their
+     * bucket; their own reply (or the connection's error) completes them.
+     */
+    private static void failUnsent(List<PendingInvocation> batch, Throwable error) {
+        for (PendingInvocation invocation : batch) {
+            if (!invocation.sent) {
+                invocation.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static final class PendingInvocation {
+        private final ScriptHandle script;
+        private final int numKeys;
+        private final byte[][] keysAndArgs;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        /**
+         * Handed to the connection; only read and written by the flusher thread.
+         */
+        private boolean sent;
+
+        private PendingInvocation(ScriptHandle script, int numKeys, byte[][] keysAndArgs) {
+            this.script = script;
+            this.numKeys = numKeys;
+            this.keysAndArgs = keysAndArgs;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import io.lettuce.core.cluster.event.ClusterTopologyChangedEvent;
+import io.lettuce.core.event.connection.ConnectionActivatedEvent;
+import io.lettuce.core.event.connection.ReconnectAttemptEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the rate limiter scripts loaded in Redis, so requests only ever send a script's SHA-1 (or a function
+ * name) instead of its body.
+ *
+ * Every script is sent with {@code SCRIPT LOAD} (to every node of a cluster) once at startup, and again when
+ * Lettuce activates a connection after a reconnect (restart or failover) or after a failed load, and when the
+ * cluster topology changes (a new node). First connects do not trigger a load: the startup load covers them.
+ * With {@code rate-limiter.scripts.functions} the {@link FunctionLibrary} is loaded as well
+ * ({@code FUNCTION LOAD REPLACE}, to every master), and the first successful load deletes the libraries of
+ * other versions, so that every release leaves at most the previous one behind. Loads run on a background
+ * thread and a burst of connection events is coalesced into one load.
+ *
+ * A failed load is only logged. Requests recover on their own: EVALSHA falls back to EVAL on NOSCRIPT, and
+ * FCALL of a missing function loads the library and calls it again.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis", matchIfMissing = true)
+public class RedisScriptLoader implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisScriptLoader.class);
+
+    private static final long LOAD_TIMEOUT_SECONDS = 10;
+
+    private final RedisConnectionFactory connectionFactory;
+    private final List<byte[]> scripts;
+    private final FunctionLibrary library;
+    private final AtomicBoolean loadPending = new AtomicBoolean();
+    // Set by a reconnect attempt or a failed load: the next activated connection schedules a load.
+    private final AtomicBoolean reloadOnActivation = new AtomicBoolean();
+    private volatile boolean staleLibraries = true;
+
+    private NativeScriptConnection connection;
+    private ExecutorService loader;
+    private Disposable subscription;
+    private volatile boolean running;
+
+    @Autowired
+    public RedisScriptLoader(
+            RedisConnectionFactory connectionFactory,
+            @Qualifier("rateLimiterScript") DefaultRedisScript<List> rateLimiterScript,
+            @Qualifier("multiLimitScript") DefaultRedisScript<List> multiLimitScript,
+            @Qualifier("peekScript") DefaultRedisScript<List> peekScript,
+            @Qualifier("leaseAcquireScript") DefaultRedisScript<List> leaseAcquireScript,
+            @Qualifier("leaseReleaseScript") DefaultRedisScript<Long> leaseReleaseScript,
+            @Qualifier("shardTransferScript") DefaultRedisScript<List> shardTransferScript,
+            RateLimiterProperties properties
+    ) {
+        this(connectionFactory,
+                List.of(rateLimiterScript, multiLimitScript, peekScript, leaseAcquireScript, leaseReleaseScript,
+                        shardTransferScript),
+                properties.getScripts().isFunctions()
+                        ? FunctionLibrary.of(rateLimiterScript, multiLimitScript, peekScript, leaseAcquireScript,
+                                shardTransferScript)
+                        : null,
+                properties.getScripts().isPreload());
+    }
+
+    /**
+     * For backends managing their own connections, e.g. one loader per Redis shard.
+     *
+     * @param library loaded in addition to the scripts, or {@code null}
+     * @param preload whether {@code scripts} are loaded; if not, only the library is
+     */
+    RedisScriptLoader(RedisConnectionFactory connectionFactory, List<? extends RedisScript<?>> scripts,
+                      FunctionLibrary library, boolean preload) {
+        this.connectionFactory = connectionFactory;
+        this.scripts = new ArrayList<>();
+        if (preload) {
+            for (RedisScript<?> script : scripts) {
+                this.scripts.add(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        this.library = library;
+    }
+
+    @Override
+    public void start() {
+        if (scripts.isEmpty() && library == null) {
+            return;
+        }
+        if (!(connectionFactory instanceof LettuceConnectionFactory lettuce)) {
+            log.warn("Rate limiter scripts are loaded on demand: preloading requires the Lettuce driver");
+            return;
+        }
+        connection = new NativeScriptConnection(connectionFactory, "Script preloading", false);
+        loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-script-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        subscription = lettuce.getRequiredNativeClient().getResources().eventBus().get()
+                .subscribe(this::onEvent);
+        requestLoad();
+    }
+
+    private void onEvent(Object event) {
+        if (event instanceof ReconnectAttemptEvent) {
+            reloadOnActivation.set(true);
+        } else if (event instanceof ConnectionActivatedEvent) {
+            if (reloadOnActivation.getAndSet(false)) {
+                requestLoad();
+            }
+        } else if (event instanceof ClusterTopologyChangedEvent) {
+            requestLoad();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (subscription != null) {
+            subscription.dispose();
+        }
+        if (loader != null) {
+            loader.shutdownNow();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Schedules a load unless one is already waiting to run. Called from Lettuce's event threads, so it
+     * never blocks.
+     */
+    private void requestLoad() {
+        if (running && loadPending.compareAndSet(false, true)) {
+            loader.execute(this::load);
+        }
+    }
+
+    private void load() {
+        loadPending.set(false);
+        List<CompletableFuture<?>> pending = new ArrayList<>(scripts.size() + 1);
+        try {
+            for (byte[] script : scripts) {
+                pending.add(connection.scriptLoad(script));
+            }
+            if (library != null) {
+                pending.add(connection.functionLoad(library.code()));
+            }
+            CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new))
+                    .get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            log.debug("Loaded {} rate limiter scripts{}", scripts.size(),
+                    library != null ? " and function library " + library.name() : "");
+            if (library != null && staleLibraries) {
+                int deleted = connection.deleteLibraries(FunctionLibrary.NAME_PREFIX, library.name())
+                        .get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                staleLibraries = false;
+                if (deleted > 0) {
+                    log.info("Deleted {} rate limiter function libraries of other versions", deleted);
+                }
+            }
+            return;
+        } catch (ExecutionException ex) {
+            log.warn("Could not load rate limiter scripts, requests load them on demand: {}", ex.getCause().toString());
+        } catch (TimeoutException ex) {
+            log.warn("Timed out loading rate limiter scripts, requests load them on demand");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException ex) {
+            log.warn("Could not load rate limiter scripts, requests load them on demand: {}", ex.toString());
+        }
+        // Retried once a connection is activated again, e.g. when Redis is reachable.
+        reloadOnActivation.set(true);
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock following Redis server time, so every node refills buckets against the same time line.
+ *
+ * Redis {@code TIME} is sampled every {@code sync-interval} on a background thread, never per request. Each
+ * sync takes the sample with the smallest round trip out of a few and assumes Redis read its clock halfway
+ * through it. The result is kept as an offset to {@link System#nanoTime()}, so reading the clock is one
+ * {@code nanoTime} call plus an addition and is immune to the node's wall clock being stepped.
+ *
+ * The clock never goes backwards: a later sample that puts Redis behind the current offset is applied by
+ * slewing, at most 1% of the sync interval per sync. Until the first successful sync the node's wall
+ * clock is used.
+ *
+ * Exports {@code ratelimiter.clock.skew} (Redis minus node wall clock, ms), {@code ratelimiter.clock.sync.rtt}
+ * (round trip of the sample used, ms) and {@code ratelimiter.clock.sync.failures}.
+ */
+@Component
+@Primary
+@ConditionalOnProperty(prefix = "rate-limiter.time", name = "source", havingValue = "redis-offset")
+public class RedisTimeClock extends Clock implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisTimeClock.class);
+
+    private static final int SAMPLES_PER_SYNC = 3;
+
+    private final StringRedisTemplate redisTemplate;
+    private final long syncIntervalMillis;
+    private final long maxSlewNanos;
+    private final Counter syncFailures;
+
+    /**
+     * Redis epoch nanoseconds minus {@link System#nanoTime()}.
+     */
+    private volatile long offsetNanos;
+    private volatile double skewMillis;
+    private volatile double rttMillis;
+    private volatile boolean running;
+    private ScheduledExecutorService syncer;
+
+    public RedisTimeClock(StringRedisTemplate redisTemplate, RateLimiterProperties properties,
+                          MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.syncIntervalMillis = Math.max(10L, properties.getTime().getSyncInterval().toMillis());
+        this.maxSlewNanos = syncIntervalMillis * 1_000_000L / 100;
+        this.offsetNanos = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+        this.syncFailures = Counter.builder("ratelimiter.clock.sync.failures")
+                .description("Failed Redis TIME samples")
+                .register(meterRegistry);
+        Gauge.builder("ratelimiter.clock.skew", this, clock -> clock.skewMillis)
+                .description("Redis server time minus this node's wall clock")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("ratelimiter.clock.sync.rtt", this, clock -> clock.rttMillis)
+                .description("Round trip of the Redis TIME sample used for the last sync")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public long millis() {
+        return Math.floorDiv(System.nanoTime() + offsetNanos, 1_000_000L);
+    }
+
+    @Override
+    public Instant instant() {
+        long epochNanos = System.nanoTime() + offsetNanos;
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (ZoneOffset.UTC.equals(zone)) {
+            return this;
+        }
+        RedisTimeClock source = this;
+        return new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return zone;
+            }
+
+            @Override
+            public Clock withZone(ZoneId other) {
+                return source.withZone(other);
+            }
+
+            @Override
+            public long millis() {
+                return source.millis();
+            }
+
+            @Override
+            public Instant instant() {
+                return source.instant();
+            }
+        };
+    }
+
+    /**
+     * Sample Redis {@code TIME} and move the offset towards it. Errors are counted and logged; the previous
+     * offset stays in use.
+     */
+    void sync() {
+        long bestRtt = Long.MAX_VALUE;
+        long bestOffset = 0L;
+        long bestSkewNanos = 0L;
+        for (int i = 0; i < SAMPLES_PER_SYNC; i++) {
+            long wallBefore = System.currentTimeMillis();
+            long before = System.nanoTime();
+            Long micros;
+            try {
+                micros = redisTemplate.execute(
+                        (RedisCallback<Long>) connection -> connection.serverCommands().time(TimeUnit.MICROSECONDS));
+            } catch (RuntimeException ex) {
+                syncFailures.increment();
+                log.warn("Failed to sample Redis TIME, keeping the previous clock offset: {}", ex.toString());
+                return;
+            }
+            long after = System.nanoTime();
+            long wallAfter = System.currentTimeMillis();
+            if (micros == null) {
+                syncFailures.increment();
+                return;
+            }
+            long rtt = after - before;
+            if (rtt < bestRtt) {
+                bestRtt = rtt;
+                long redisNanos = micros * 1_000L;
+                bestOffset = redisNanos - (before + rtt / 2);
+                bestSkewNanos = redisNanos - (wallBefore + wallAfter) * 500_000L;
+            }
+        }
+        long current = offsetNanos;
+        offsetNanos = bestOffset >= current ? bestOffset : Math.max(bestOffset, current - maxSlewNanos);
+        skewMillis = bestSkewNanos / 1_000_000.0;
+        rttMillis = bestRtt / 1_000_000.0;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        // Best effort before serving traffic; falls back to the wall clock if Redis is not reachable yet.
+        sync();
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-clock-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Merges concurrent checks of one client into a single script call ("single flight").
+ *
+ * At most one call per client is in flight. A check arriving while there is none sends its own call right
+ * away; checks arriving while one is in flight wait, and when it completes all of them are decided by the
+ * next call, which withdraws up to one permit per waiting check with {@code lease_acquire.lua}. The first
+ * {@code granted} checks, in arrival order, are allowed and the rest rejected, as if they had run one after
+ * another. A burst of n checks for one client thus costs Redis about two script calls per round trip
+ * instead of n, and a quiet client pays no extra latency.
+ *
+ * The bucket is the one {@code rate_limiter.lua} uses, so only {@code rate-limiter.algorithm=token-bucket}
+ * is supported. A check that stops waiting (timeout) still counts in its call; its permit, if granted, is
+ * lost, never given to another request.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter.coalescing", name = "enabled", havingValue = "true")
+public class RequestCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private final RateLimiterProperties properties;
+    private final double tokenScale;
+    private final boolean effective;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final DistributionSummary permitsPerCall;
+
+    public RequestCoalescer(RateLimiterProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.effective = "token-bucket".equals(properties.getAlgorithm()) || ScriptArguments.fixedPoint(properties);
+        this.tokenScale = ScriptArguments.fixedPoint(properties) ? ScriptArguments.MICRO_TOKENS : 1.0;
+        if (!effective) {
+            log.warn("Request coalescing requires rate-limiter.algorithm=token-bucket or token-bucket-fixed, found {};"
+                    + " coalescing is disabled", properties.getAlgorithm());
+        }
+        this.permitsPerCall = DistributionSummary.builder("ratelimiter.coalescing.permits")
+                .description("Checks of one client decided by one coalesced script call")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return false when the configured algorithm keeps a bucket the coalesced script cannot work on.
+     */
+    public boolean isEffective() {
+        return effective;
+    }
+
+    /**
+     * Decide one check of {@code clientId}, together with the client's other concurrent checks.
+     *
+     * @param call sends the script call for a number of permits; invoked on the caller's thread or on the
+     *             thread completing the previous call, so it must not block
+     * @return future completed with the decision, or exceptionally with the call's error
+     */
+    CompletableFuture<RateLimitResult> acquire(String clientId, long nowMillis, PermitCall call) {
+        CompletableFuture<RateLimitResult> result = new CompletableFuture<>();
+        Flight flight = flights.compute(clientId, (id, current) -> {
+            if (current == null) {
+                return new Flight(result, call, nowMillis);
+            }
+            current.waiting.add(result);
+            current.latestNowMillis = Math.max(current.latestNowMillis, nowMillis);
+            return current;
+        });
+        if (flight.leader == result) {
+            send(clientId, flight, List.of(result), nowMillis);
+        }
+        return result;
+    }
+
+    private void send(String clientId, Flight flight, List<CompletableFuture<RateLimitResult>> checks,
+                      long nowMillis) {
+        permitsPerCall.record(checks.size());
+        double cost = properties.getCostPerRequest();
+        CompletableFuture<Object> reply;
+        try {
+            reply = flight.call.acquire(clientId, checks.size(), nowMillis);
+        } catch (RuntimeException ex) {
+            reply = CompletableFuture.failedFuture(ex);
+        }
+        reply.whenComplete((value, error) -> {
+            complete(checks, value, error, cost, tokenScale);
+            sendWaiting(clientId, flight);
+        });
+    }
+
+    /**
+     * Sends the checks that arrived during the last call, or ends the flight if there are none.
+     */
+    private void sendWaiting(String clientId, Flight flight) {
+        // The flight stays mapped until here, so checks either joined it or will start a new one.
+        Flight next = flights.compute(clientId, (id, current) -> {
+            if (current.waiting.isEmpty()) {
+                return null;
+            }
+            current.sending = current.waiting;
+            current.waiting = new ArrayList<>();
+            return current;
+        });
+        if (next != null) {
+            send(clientId, next, next.sending, next.latestNowMillis);
+        }
+    }
+
+    /**
+     * The first {@code granted} checks are allowed, each seeing the permits granted after it as remaining
+     * tokens; the others are rejected with the bucket's state after the call.
+     *
+     * @param tokenScale units per token of the reply, see {@link ScriptArguments#MICRO_TOKENS}
+     */
+    private static void complete(List<CompletableFuture<RateLimitResult>> checks, Object value, Throwable error,
+                                 double cost, double tokenScale) {
+        if (error == null && !(value instanceof ScriptReply reply && reply.size() >= 4)) {
+            error = new IllegalStateException("Unexpected lease script result: " + value);
+        }
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            for (CompletableFuture<RateLimitResult> check : checks) {
+                check.completeExceptionally(cause);
+            }
+            return;
+        }
+        ScriptReply reply = (ScriptReply) value;
+        double tokens = reply.tokens() / tokenScale;
+        long granted = Math.min(reply.flag(), checks.size());
+        for (int i = 0; i < checks.size(); i++) {
+            long after = granted - 1 - i;
+            checks.get(i).complete(after >= 0
+                    ? RateLimitResult.allow(tokens + after * cost, after > 0 ? 0L : reply.retryAfterMillis(),
+                            reply.resetMillis())
+                    : RateLimitResult.rejectRateLimited(tokens, reply.retryAfterMillis(), reply.resetMillis()));
+        }
+    }
+
+    /**
+     * One script call withdrawing up to {@code permits} permits from {@code clientId}'s bucket.
+     */
+    @FunctionalInterface
+    interface PermitCall {
+        /**
+         * @return future completed with the {@link ScriptReply} of {@code lease_acquire.lua}
+         */
+        CompletableFuture<Object> acquire(String clientId, int permits, long nowMillis);
+    }
+
+    /**
+     * A client's call in flight and the checks waiting for the next one. Mutated only inside
+     * {@link ConcurrentHashMap#compute}, except {@code sending}, which only the thread completing the
+     * previous call reads.
+     */
+    private static final class Flight {
+        private final CompletableFuture<RateLimitResult> leader;
+        private final PermitCall call;
+        private List<CompletableFuture<RateLimitResult>> waiting = new ArrayList<>();
+        private List<CompletableFuture<RateLimitResult>> sending;
+        private long latestNowMillis;
+
+        private Flight(CompletableFuture<RateLimitResult> leader, PermitCall call, long nowMillis) {
+            this.leader = leader;
+            this.call = call;
+            this.latestNowMillis = nowMillis;
+        }
+    }
+}
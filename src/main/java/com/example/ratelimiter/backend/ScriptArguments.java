@@ -0,0 +1,274 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.Limit;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pre-encoded static ARGV of {@code rate_limiter.lua} for one version of the configuration.
+ * <p>
+ * Capacity, refill rate and cost do not change between requests, so they are serialized once instead of
+ * going through {@code Double.toString} and the template's string serializer on every call. Only the
+ * timestamp is encoded per request.
+ * <p>
+ * For {@code rate_limiter_fixed.lua} the values are sent as integer micro-tokens ({@link #MICRO_TOKENS} per
+ * token), rounded to the nearest micro-token. {@code sliding_window.lua} takes the same arguments.
+ */
+final class ScriptArguments {
+
+    /**
+     * {@code now} argument asking the scripts to read the Redis server's {@code TIME} instead.
+     */
+    static final String SERVER_TIME = "-1";
+
+    /**
+     * Fixed-point scale of {@code rate_limiter_fixed.lua}: micro-tokens per token.
+     */
+    static final double MICRO_TOKENS = 1_000_000.0;
+
+    /**
+     * Operations of {@code shard_transfer.lua}.
+     */
+    static final byte[] TRANSFER_TAKE = "take".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] TRANSFER_SET = "set".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] TRANSFER_GIVE = "give".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] SERVER_TIME_BYTES = SERVER_TIME.getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] TOKEN_BUCKET_BYTES = {'0'};
+    private static final byte[] SLIDING_WINDOW_BYTES = {'1'};
+    private static final byte[] TOKEN_SCALE_BYTES = {'1'};
+    private static final byte[] MICRO_TOKEN_SCALE_BYTES = encode((long) MICRO_TOKENS);
+
+    private final double capacity;
+    private final double refillRatePerSecond;
+    private final double costPerRequest;
+    private final int shards;
+    private final boolean fixedPoint;
+    private final byte[] capacityBytes;
+    private final byte[] refillRateBytes;
+    private final byte[] costBytes;
+    private final byte[] algorithmBytes;
+    private final byte[] scaleBytes;
+
+    private ScriptArguments(double capacity, double refillRatePerSecond, double costPerRequest, int shards,
+                            boolean fixedPoint, boolean slidingWindow) {
+        this.capacity = capacity;
+        this.refillRatePerSecond = refillRatePerSecond;
+        this.costPerRequest = costPerRequest;
+        this.shards = shards;
+        this.fixedPoint = fixedPoint;
+        this.capacityBytes = encode(capacity / shards, fixedPoint);
+        this.refillRateBytes = encode(refillRatePerSecond / shards, fixedPoint);
+        this.costBytes = encode(costPerRequest, fixedPoint);
+        this.algorithmBytes = slidingWindow ? SLIDING_WINDOW_BYTES : TOKEN_BUCKET_BYTES;
+        this.scaleBytes = fixedPoint ? MICRO_TOKEN_SCALE_BYTES : TOKEN_SCALE_BYTES;
+    }
+
+    /**
+     * Arguments for the bucket of an additional limit; the cost is the configured one.
+     */
+    static ScriptArguments of(Limit limit, double costPerRequest) {
+        return new ScriptArguments(limit.getCapacity(), limit.getRefillRatePerSecond(), costPerRequest, 1, false,
+                limit.isSlidingWindow());
+    }
+
+    static ScriptArguments of(RateLimiterProperties properties) {
+        return new ScriptArguments(
+                properties.getCapacity(),
+                properties.getRefillRatePerSecond(),
+                properties.getCostPerRequest(),
+                1,
+                fixedPoint(properties),
+                slidingWindow(properties)
+        );
+    }
+
+    /**
+     * Arguments for one shard of a bucket split {@code shards} ways: capacity and refill rate are divided,
+     * the cost is not. The split is reduced so that a shard can still hold one request; see {@link #shards()}.
+     * A bucket that does not refill is not split: it could not be held empty while sharded.
+     */
+    static ScriptArguments sharded(RateLimiterProperties properties, int shards) {
+        double capacity = properties.getCapacity();
+        double cost = properties.getCostPerRequest();
+        int effective = Math.min(shards, BucketKeys.MAX_SHARDS);
+        if (cost > 0) {
+            effective = (int) Math.min(effective, Math.floor(capacity / cost));
+        }
+        if (properties.getRefillRatePerSecond() <= 0) {
+            effective = 1;
+        }
+        return new ScriptArguments(capacity, properties.getRefillRatePerSecond(), cost, Math.max(1, effective),
+                fixedPoint(properties), slidingWindow(properties));
+    }
+
+    /**
+     * @return true if the bucket script is {@code rate_limiter_fixed.lua}, which works in micro-tokens.
+     */
+    static boolean fixedPoint(RateLimiterProperties properties) {
+        return "token-bucket-fixed".equals(properties.getAlgorithm());
+    }
+
+    /**
+     * @return true if the bucket script is {@code sliding_window.lua}, whose counters
+     * {@code rate_limiter_multi.lua} handles separately.
+     */
+    static boolean slidingWindow(RateLimiterProperties properties) {
+        return "sliding-window".equals(properties.getAlgorithm());
+    }
+
+    /**
+     * @return true if {@code rate-limiter.time.source} makes the scripts read Redis {@code TIME}.
+     * @throws IllegalArgumentException for an unknown source
+     */
+    static boolean usesServerTime(RateLimiterProperties properties) {
+        String source = properties.getTime().getSource();
+        return switch (source) {
+            case "node", "redis-offset" -> false;
+            case "redis-script" -> true;
+            default -> throw new IllegalArgumentException("Unknown rate-limiter.time.source " + source);
+        };
+    }
+
+    /**
+     * @return true if this snapshot still reflects {@code properties}; compared per request without allocating.
+     */
+    boolean matches(RateLimiterProperties properties) {
+        return Double.compare(capacity, properties.getCapacity()) == 0
+                && Double.compare(refillRatePerSecond, properties.getRefillRatePerSecond()) == 0
+                && Double.compare(costPerRequest, properties.getCostPerRequest()) == 0;
+    }
+
+    /**
+     * @return true if these arguments were built for {@code costPerRequest}.
+     */
+    boolean matchesCost(double costPerRequest) {
+        return Double.compare(this.costPerRequest, costPerRequest) == 0;
+    }
+
+    /**
+     * @return number of shards these arguments split the bucket into; 1 for an unsharded bucket.
+     */
+    int shards() {
+        return shards;
+    }
+
+    /**
+     * KEYS[1] followed by ARGV (capacity, refill rate, cost, now) as expected by {@code rate_limiter.lua}.
+     */
+    byte[][] keysAndArgs(byte[] key, long nowMillis) {
+        return new byte[][] {key, capacityBytes, refillRateBytes, costBytes, encode(nowMillis)};
+    }
+
+    /**
+     * As {@link #keysAndArgs(byte[], long)}, letting the script take {@code now} from the Redis server.
+     */
+    byte[][] keysAndArgsAtServerTime(byte[] key) {
+        return new byte[][] {key, capacityBytes, refillRateBytes, costBytes, SERVER_TIME_BYTES};
+    }
+
+    /**
+     * KEYS[1] followed by ARGV (capacity, refill rate, cost, max permits, now, scale) as expected by
+     * {@code lease_acquire.lua}.
+     *
+     * @param now see {@link #now(boolean, long)}
+     */
+    byte[][] permitKeysAndArgs(byte[] key, int permits, byte[] now) {
+        return new byte[][] {key, capacityBytes, refillRateBytes, costBytes, encode(permits), now, scaleBytes};
+    }
+
+    /**
+     * KEYS[1] followed by ARGV (capacity, refill rate, returned tokens, now, scale) as expected by
+     * {@code lease_release.lua}, returning {@code permits} times the cost.
+     *
+     * @param now see {@link #now(boolean, long)}
+     */
+    byte[][] releaseKeysAndArgs(byte[] key, int permits, byte[] now) {
+        return new byte[][] {key, capacityBytes, refillRateBytes, encode(permits * costPerRequest, fixedPoint), now,
+                scaleBytes};
+    }
+
+    /**
+     * KEYS[1] followed by ARGV (capacity, refill rate, now, scale, algorithm, operation, amount) as expected by
+     * {@code shard_transfer.lua}.
+     *
+     * @param now       see {@link #now(boolean, long)}
+     * @param algorithm {@code 0} for the token bucket layouts, {@code 2} for GCRA
+     * @param amount    milliseconds for {@link #TRANSFER_TAKE}, otherwise {@link #tokens(double)}
+     */
+    byte[][] transferKeysAndArgs(byte[] key, byte[] now, byte[] algorithm, byte[] operation, byte[] amount) {
+        return new byte[][] {key, capacityBytes, refillRateBytes, now, scaleBytes, algorithm, operation, amount};
+    }
+
+    /**
+     * A token amount as the scripts take it for this configuration: micro-tokens for the fixed-point script.
+     */
+    byte[] tokens(double tokens) {
+        return encode(tokens, fixedPoint);
+    }
+
+    /**
+     * @return milliseconds an empty bucket takes to refill completely, rounded up and computed from the values
+     * as sent, like the scripts' reset; {@link Long#MAX_VALUE} if it does not refill
+     */
+    long fullRefillMillis() {
+        if (refillRatePerSecond <= 0) {
+            return Long.MAX_VALUE;
+        }
+        if (fixedPoint) {
+            return (long) Math.ceil(Math.round(capacity * MICRO_TOKENS) * 1000.0
+                    / Math.round(refillRatePerSecond * MICRO_TOKENS));
+        }
+        return (long) Math.ceil(capacity * 1000 / refillRatePerSecond);
+    }
+
+    /**
+     * Writes capacity, refill rate, cost and algorithm at {@code offset}: one bucket's ARGV of
+     * {@code rate_limiter_multi.lua}.
+     */
+    void writeBucketArgs(byte[][] argv, int offset) {
+        argv[offset] = capacityBytes;
+        argv[offset + 1] = refillRateBytes;
+        argv[offset + 2] = costBytes;
+        argv[offset + 3] = algorithmBytes;
+    }
+
+    /**
+     * The {@code now} argument as sent for this configuration of the time source.
+     */
+    static byte[] now(boolean serverTime, long nowMillis) {
+        return serverTime ? SERVER_TIME_BYTES : encode(nowMillis);
+    }
+
+    private static byte[] encode(double value, boolean fixedPoint) {
+        return fixedPoint
+                ? encode(Math.round(value * MICRO_TOKENS))
+                : Double.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * ASCII decimal encoding of a long without an intermediate String.
+     */
+    static byte[] encode(long value) {
+        if (value == Long.MIN_VALUE) {
+            return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+        }
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int digits = 1;
+        for (long v = remaining; v >= 10; v /= 10) {
+            digits++;
+        }
+        byte[] bytes = new byte[digits + (negative ? 1 : 0)];
+        for (int i = bytes.length - 1; i >= (negative ? 1 : 0); i--) {
+            bytes[i] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        if (negative) {
+            bytes[0] = '-';
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.ratelimiter.backend;
+
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * How one script is invoked: by SHA-1 with EVALSHA (the body kept for the EVAL fallback on NOSCRIPT), or by
+ * name with FCALL when deployed as part of a {@link FunctionLibrary} (the library kept to load it again
+ * when a node does not know the function).
+ */
+final class ScriptHandle {
+
+    private final String sha;
+    private final byte[] body;
+    private final String function;
+    private final FunctionLibrary library;
+
+    private ScriptHandle(String sha, byte[] body, String function, FunctionLibrary library) {
+        this.sha = sha;
+        this.body = body;
+        this.function = function;
+        this.library = library;
+    }
+
+    static ScriptHandle eval(RedisScript<?> script) {
+        return new ScriptHandle(script.getSha1(), script.getScriptAsString().getBytes(StandardCharsets.UTF_8),
+                null, null);
+    }
+
+    static ScriptHandle function(RedisScript<?> script, FunctionLibrary library, String function) {
+        return new ScriptHandle(script.getSha1(), script.getScriptAsString().getBytes(StandardCharsets.UTF_8),
+                function, library);
+    }
+
+    boolean isFunction() {
+        return function != null;
+    }
+
+    String sha() {
+        return sha;
+    }
+
+    byte[] body() {
+        return body;
+    }
+
+    /**
+     * @return the function name, or {@code null} for EVALSHA
+     */
+    String function() {
+        return function;
+    }
+
+    FunctionLibrary library() {
+        return library;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.ratelimiter.backend;
+
+/**
+ * A bucket script's reply as primitives, filled in by {@link ScriptReplyOutput} while the reply is read:
+ * the decision (granted permits for {@code lease_acquire.lua}), the remaining tokens (micro-tokens for
+ * {@code rate_limiter_fixed.lua}), the retry-after and reset waits, and for {@code rate_limiter_multi.lua}
+ * the index of the bucket described.
+ */
+final class ScriptReply {
+
+    private int size;
+    private long flag;
+    private double tokens;
+    private long retryAfterMillis;
+    private long resetMillis;
+    private long bucket;
+
+    /**
+     * Stores element {@code index} of the reply; elements past the fifth are ignored.
+     */
+    void set(int index, long value) {
+        switch (index) {
+            case 0 -> flag = value;
+            case 1 -> tokens = value;
+            case 2 -> retryAfterMillis = value;
+            case 3 -> resetMillis = value;
+            case 4 -> bucket = value;
+            default -> {
+            }
+        }
+        size = Math.max(size, index + 1);
+    }
+
+    void set(int index, double value) {
+        if (index == 1) {
+            tokens = value;
+            size = Math.max(size, 2);
+        } else {
+            set(index, (long) value);
+        }
+    }
+
+    /**
+     * @return number of elements in the reply
+     */
+    int size() {
+        return size;
+    }
+
+    long flag() {
+        return flag;
+    }
+
+    double tokens() {
+        return tokens;
+    }
+
+    long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    long resetMillis() {
+        return resetMillis;
+    }
+
+    long bucket() {
+        return bucket;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + flag + ", " + tokens + ", " + retryAfterMillis + ", " + resetMillis
+                + (size > 4 ? ", " + bucket : "") + "] (" + size + " elements)";
+    }
+}
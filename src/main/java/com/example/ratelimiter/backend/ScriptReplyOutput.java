@@ -0,0 +1,44 @@
+package com.example.ratelimiter.backend;
+
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.output.CommandOutput;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a bucket script's array reply straight into a {@link ScriptReply}.
+ * <p>
+ * With {@code ScriptOutputType.MULTI} Lettuce builds a {@code List} for the array, boxes every integer into
+ * a {@code Long} and copies every bulk string into a {@code byte[]}, all of which are parsed again and
+ * dropped right away. Here integers are stored as they arrive and the remaining tokens are parsed from the
+ * read buffer in place, so a reply costs one small object. Error replies are kept by {@link CommandOutput}
+ * and fail the command as usual.
+ */
+final class ScriptReplyOutput extends CommandOutput<byte[], byte[], ScriptReply> {
+
+    private int index;
+
+    ScriptReplyOutput() {
+        super(ByteArrayCodec.INSTANCE, new ScriptReply());
+    }
+
+    @Override
+    public void set(long integer) {
+        output.set(index++, integer);
+    }
+
+    @Override
+    public void set(double number) {
+        output.set(index++, number);
+    }
+
+    @Override
+    public void set(ByteBuffer bytes) {
+        if (index == 1 && bytes != null) {
+            output.set(index, ScriptResults.parseDouble(bytes));
+        } else if (bytes != null) {
+            output.set(index, ScriptResults.parseLong(bytes));
+        }
+        index++;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.ratelimiter.backend;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conversions for values returned by the rate limiter Lua scripts.
+ * <p>
+ * Depending on the driver, the execution path and the Redis reply type, numbers come back as
+ * {@link Number} instances, raw bulk-string bytes, or their string representation. {@link ScriptReplyOutput}
+ * parses bulk strings straight from the driver's read buffer.
+ */
+final class ScriptResults {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private ScriptResults() {
+    }
+
+    static long toLong(Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value instanceof byte[] bytes) {
+            return parseLong(bytes);
+        }
+        return Long.parseLong(String.valueOf(value));
+    }
+
+    static double toDouble(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (value instanceof byte[] bytes) {
+            return parseDouble(bytes);
+        }
+        return Double.parseDouble(String.valueOf(value));
+    }
+
+    /**
+     * @return true if {@code error} (or one of its causes) is a Redis NOSCRIPT reply.
+     */
+    static boolean isNoScript(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && message.contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if {@code error} (or one of its causes) is the reply to {@code FCALL} of a function the
+     * node does not have, e.g. after {@code FUNCTION FLUSH} or on a node added since the library was loaded.
+     */
+    static boolean isFunctionNotFound(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && message.contains("Function not found")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long parseLong(byte[] bytes) {
+        return parseLong(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Parses the integer between the buffer's position and limit without moving the position.
+     */
+    static long parseLong(ByteBuffer bytes) {
+        int start = bytes.position();
+        int end = bytes.limit();
+        if (start == end || end - start > 18) {
+            return Long.parseLong(ascii(bytes));
+        }
+        int i = start;
+        boolean negative = bytes.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = bytes.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not an integer: " + ascii(bytes));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the plain decimal form produced by Lua's {@code tostring} (e.g. {@code 41.966666666667})
+     * without allocating. Anything else (exponents, inf, nan, more than 18 significant digits) goes
+     * through {@link Double#parseDouble(String)}.
+     */
+    private static double parseDouble(byte[] bytes) {
+        return parseDouble(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * As {@link #parseDouble(byte[])} for the bytes between the buffer's position and limit, without moving
+     * the position.
+     */
+    static double parseDouble(ByteBuffer bytes) {
+        int end = bytes.limit();
+        int i = bytes.position();
+        boolean negative = i < end && bytes.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9' && digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                return Double.parseDouble(ascii(bytes));
+            }
+        }
+        if (digits == 0) {
+            return Double.parseDouble(ascii(bytes));
+        }
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static String ascii(ByteBuffer bytes) {
+        return StandardCharsets.US_ASCII.decode(bytes.duplicate()).toString();
+    }
+}
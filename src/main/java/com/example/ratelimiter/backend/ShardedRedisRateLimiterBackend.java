@@ -0,0 +1,294 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.LimitBucket;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.SocketOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads buckets over several independent standalone Redis instances instead of one Redis or a cluster.
+ *
+ * Each client is assigned to one instance with a jump consistent hash of its id (Lamping and Veach): no
+ * ring to store or rebalance, and appending an instance moves only {@code 1/n} of the clients, whose
+ * buckets start full once on the new instance. Every instance has its own Lettuce connection and its own
+ * {@link RedisRateLimiterBackend}, and with them its own batcher and {@link RedisScriptLoader}.
+ * Requests for clients on a failed instance fail like any backend error (fail-open / fail-closed); clients
+ * on the other instances are unaffected. Additional limits ({@code rate-limiter.limits}) must be client
+ * scoped, so that all of a client's buckets live on its instance.
+ *
+ * Calls are timed per instance as {@code ratelimiter.shard.calls}, tagged with {@code shard} (position),
+ * {@code node} and {@code outcome}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter", name = "backend", havingValue = "redis-sharded")
+public class ShardedRedisRateLimiterBackend implements RateLimiterBackend, SmartLifecycle, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedRedisRateLimiterBackend.class);
+
+    private final Shard[] shards;
+    private volatile boolean running;
+
+    public ShardedRedisRateLimiterBackend(
+            RedisProperties redisProperties,
+            @Qualifier("rateLimiterScript") DefaultRedisScript<List> rateLimiterScript,
+            @Qualifier("multiLimitScript") DefaultRedisScript<List> multiLimitScript,
+            @Qualifier("peekScript") DefaultRedisScript<List> peekScript,
+            @Qualifier("leaseAcquireScript") DefaultRedisScript<List> leaseAcquireScript,
+            @Qualifier("shardTransferScript") DefaultRedisScript<List> shardTransferScript,
+            RateLimiterProperties properties,
+            ObjectProvider<HotKeyTracker> hotKeys,
+            ObjectProvider<RequestCoalescer> coalescer,
+            MeterRegistry meterRegistry
+    ) {
+        List<String> nodes = properties.getRedisShards().getNodes();
+        if (nodes.isEmpty()) {
+            throw new IllegalStateException("rate-limiter.backend=redis-sharded requires rate-limiter.redis-shards.nodes");
+        }
+        if (properties.getLease().isEnabled()) {
+            log.warn("Local token leasing is not supported by the redis-sharded backend and is ignored");
+        }
+        FunctionLibrary library = properties.getScripts().isFunctions()
+                ? FunctionLibrary.of(rateLimiterScript, multiLimitScript, peekScript, leaseAcquireScript,
+                        shardTransferScript)
+                : null;
+        this.shards = new Shard[nodes.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, nodes.get(i).trim(), redisProperties, rateLimiterScript, multiLimitScript,
+                    peekScript, leaseAcquireScript, shardTransferScript, library, properties,
+                    hotKeys.getIfAvailable(), coalescer.getIfAvailable(), meterRegistry);
+        }
+    }
+
+    @Override
+    public RateLimitResult tryAcquire(String clientId, long nowMillis) {
+        Shard shard = shardFor(clientId);
+        long start = System.nanoTime();
+        try {
+            RateLimitResult result = shard.backend.tryAcquire(clientId, nowMillis);
+            shard.success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException ex) {
+            shard.error.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw ex;
+        }
+    }
+
+    @Override
+    public CompletableFuture<RateLimitResult> tryAcquireAsync(String clientId, long nowMillis) {
+        Shard shard = shardFor(clientId);
+        long start = System.nanoTime();
+        return shard.backend.tryAcquireAsync(clientId, nowMillis).whenComplete((result, error) ->
+                (error == null ? shard.success : shard.error).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public RateLimitResult tryAcquire(String clientId, List<LimitBucket> limits, long nowMillis) {
+        Shard shard = shardFor(clientId);
+        long start = System.nanoTime();
+        try {
+            RateLimitResult result = shard.backend.tryAcquire(clientId, limits, nowMillis);
+            shard.success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException ex) {
+            shard.error.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw ex;
+        }
+    }
+
+    @Override
+    public CompletableFuture<RateLimitResult> tryAcquireAsync(String clientId, List<LimitBucket> limits,
+                                                              long nowMillis) {
+        Shard shard = shardFor(clientId);
+        long start = System.nanoTime();
+        return shard.backend.tryAcquireAsync(clientId, limits, nowMillis).whenComplete((result, error) ->
+                (error == null ? shard.success : shard.error).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public RateLimitResult peek(String clientId, long nowMillis) {
+        return shardFor(clientId).backend.peek(clientId, nowMillis);
+    }
+
+    @Override
+    public void validateLimits(List<RateLimiterProperties.LimitRule> limits) {
+        for (RateLimiterProperties.LimitRule rule : limits) {
+            if (!"client".equals(rule.getScope())) {
+                // A tenant or global bucket would live on one shard but be checked from all of them.
+                throw new IllegalArgumentException("Limit " + rule.getName() + " has scope " + rule.getScope()
+                        + "; the redis-sharded backend only supports scope client");
+            }
+        }
+        shards[0].backend.validateLimits(limits);
+    }
+
+    /**
+     * One per Redis instance, so that an instance going down only opens the circuit of its own clients.
+     */
+    @Override
+    public int failureDomains() {
+        return shards.length;
+    }
+
+    @Override
+    public int failureDomain(String clientId) {
+        return jumpHash(hash(clientId), shards.length);
+    }
+
+    private Shard shardFor(String clientId) {
+        return shards[failureDomain(clientId)];
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units: stable across JVMs and app nodes, unlike identity hashes.
+     */
+    static long hash(String clientId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < clientId.length(); i++) {
+            h ^= clientId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Jump consistent hash: the bucket in {@code [0, buckets)} for {@code key}. Growing {@code buckets} by
+     * one moves a key only to the new bucket, and only with probability {@code 1 / buckets}.
+     */
+    static int jumpHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    @Override
+    public void start() {
+        for (Shard shard : shards) {
+            shard.scriptLoader.start();
+            if (shard.batcher != null) {
+                shard.batcher.start();
+            }
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (Shard shard : shards) {
+            if (shard.batcher != null) {
+                shard.batcher.stop();
+            }
+            shard.scriptLoader.stop();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void destroy() {
+        for (Shard shard : shards) {
+            shard.backend.destroy();
+            shard.connectionFactory.destroy();
+        }
+    }
+
+    private static final class Shard {
+        private final LettuceConnectionFactory connectionFactory;
+        private final RedisScriptLoader scriptLoader;
+        private final RedisScriptBatcher batcher;
+        private final RedisRateLimiterBackend backend;
+        private final Timer success;
+        private final Timer error;
+
+        private Shard(int index, String node, RedisProperties redisProperties,
+                      DefaultRedisScript<List> rateLimiterScript, DefaultRedisScript<List> multiLimitScript,
+                      DefaultRedisScript<List> peekScript, DefaultRedisScript<List> leaseAcquireScript,
+                      DefaultRedisScript<List> shardTransferScript, FunctionLibrary library,
+                      RateLimiterProperties properties, HotKeyTracker hotKeys, RequestCoalescer coalescer,
+                      MeterRegistry meterRegistry) {
+            this.connectionFactory = connectionFactory(node, redisProperties);
+            this.scriptLoader = new RedisScriptLoader(connectionFactory,
+                    List.of(rateLimiterScript, multiLimitScript, peekScript, leaseAcquireScript, shardTransferScript),
+                    library,
+                    properties.getScripts().isPreload());
+            this.batcher = properties.getBatching().isEnabled()
+                    ? new RedisScriptBatcher(connectionFactory, properties, meterRegistry)
+                    : null;
+            this.backend = new RedisRateLimiterBackend(new StringRedisTemplate(connectionFactory), rateLimiterScript,
+                    multiLimitScript, peekScript, leaseAcquireScript, shardTransferScript, properties, batcher, null,
+                    hotKeys, coalescer);
+            this.success = timer(meterRegistry, index, node, "success");
+            this.error = timer(meterRegistry, index, node, "error");
+        }
+
+        private static LettuceConnectionFactory connectionFactory(String node, RedisProperties redisProperties) {
+            int colon = node.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid rate-limiter.redis-shards.nodes entry '" + node
+                        + "', expected host:port");
+            }
+            RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(
+                    node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+            standalone.setDatabase(redisProperties.getDatabase());
+            standalone.setUsername(redisProperties.getUsername());
+            standalone.setPassword(RedisPassword.of(redisProperties.getPassword()));
+
+            LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder();
+            if (redisProperties.getTimeout() != null) {
+                client.commandTimeout(redisProperties.getTimeout());
+            }
+            if (redisProperties.getConnectTimeout() != null) {
+                // Bounds how long requests of a down shard wait before failing.
+                client.clientOptions(ClientOptions.builder()
+                        .socketOptions(SocketOptions.builder().connectTimeout(redisProperties.getConnectTimeout()).build())
+                        .build());
+            }
+            if (redisProperties.getSsl().isEnabled()) {
+                client.useSsl();
+            }
+            LettuceConnectionFactory factory = new LettuceConnectionFactory(standalone, client.build());
+            factory.afterPropertiesSet();
+            factory.start();
+            return factory;
+        }
+
+        private static Timer timer(MeterRegistry registry, int index, String node, String outcome) {
+            return Timer.builder("ratelimiter.shard.calls")
+                    .description("Backend evaluations per Redis shard")
+                    .tag("shard", Integer.toString(index))
+                    .tag("node", node)
+                    .tag("outcome", outcome)
+                    .register(registry);
+        }
+    }
+}
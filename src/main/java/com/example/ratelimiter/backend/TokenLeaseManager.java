@@ -0,0 +1,295 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.RateLimitDecision;
+import com.example.ratelimiter.model.RateLimitResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves requests from chunks of tokens ("leases") withdrawn atomically from a client's Redis bucket.
+ *
+ * A lease holds a number of whole permits (one permit = {@code costPerRequest} tokens). While a node
+ * holds a live lease for a client, that client's requests are decided with a single CAS on a local
+ * counter and never reach Redis. Leases expire after a configured TTL; unused permits of expired or
+ * displaced leases, and of all leases at shutdown, are returned to the bucket.
+ *
+ * Tokens are only ever moved between Redis and a lease, never created, so the global limit holds up
+ * to the tokens sitting in leases: at most lease size times the number of nodes.
+ *
+ * Refills are single-flight per key: while one thread withdraws a new lease, the other threads missing the
+ * same lease wait for it and take from it, instead of each withdrawing (and then returning) one of their own.
+ * Script arguments come pre-encoded from {@link ScriptArguments}, in micro-tokens for
+ * {@code token-bucket-fixed}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter.lease", name = "enabled", havingValue = "true")
+public class TokenLeaseManager implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenLeaseManager.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ScriptHandle leaseAcquireScript;
+    private final ScriptHandle leaseReleaseScript;
+    private final RateLimiterProperties properties;
+    private final Clock clock;
+    private final int permitsPerLease;
+    private final long ttlMillis;
+    private final boolean serverTime;
+    private final double tokenScale;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<RateLimitResult>> refills = new ConcurrentHashMap<>();
+    private volatile ScriptArguments arguments;
+
+    private volatile boolean running;
+    private ScheduledExecutorService sweeper;
+
+    public TokenLeaseManager(
+            StringRedisTemplate redisTemplate,
+            @Qualifier("leaseAcquireScript") DefaultRedisScript<List> leaseAcquireScript,
+            @Qualifier("leaseReleaseScript") DefaultRedisScript<Long> leaseReleaseScript,
+            RateLimiterProperties properties,
+            Clock clock
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.leaseAcquireScript = ScriptHandle.eval(leaseAcquireScript);
+        this.leaseReleaseScript = ScriptHandle.eval(leaseReleaseScript);
+        this.properties = properties;
+        this.clock = clock;
+        this.ttlMillis = Math.max(1L, properties.getLease().getTtl().toMillis());
+        this.serverTime = ScriptArguments.usesServerTime(properties);
+        this.tokenScale = ScriptArguments.fixedPoint(properties) ? ScriptArguments.MICRO_TOKENS : 1.0;
+        this.arguments = ScriptArguments.of(properties);
+
+        double cost = properties.getCostPerRequest();
+        double leasedTokens = properties.getCapacity() * properties.getLease().getCapacityFraction();
+        if (!"token-bucket".equals(properties.getAlgorithm()) && !ScriptArguments.fixedPoint(properties)) {
+            // The lease scripts withdraw from and return to the token bucket hash.
+            log.warn("Token leasing requires rate-limiter.algorithm=token-bucket or token-bucket-fixed, found {};"
+                    + " leasing is disabled", properties.getAlgorithm());
+            this.permitsPerLease = 0;
+        } else {
+            this.permitsPerLease = cost > 0 ? (int) Math.floor(leasedTokens / cost) : 0;
+            if (permitsPerLease <= 1) {
+                log.warn("Token leasing is enabled but a lease would hold {} permit(s); using one script call per request",
+                        permitsPerLease);
+            }
+        }
+    }
+
+    /**
+     * @return false when the configured bucket is too small for leases to save any script calls.
+     */
+    public boolean isEffective() {
+        return permitsPerLease > 1;
+    }
+
+    /**
+     * Try to serve one request from a live local lease.
+     *
+     * @return the decision, or {@code null} if there is no live lease with permits left and the
+     * caller must acquire a new one.
+     */
+    public RateLimitResult tryConsume(String key) {
+        Lease lease = leases.get(key);
+        if (lease == null || lease.isExpired(clock.millis()) || !lease.tryTake()) {
+            return null;
+        }
+        return RateLimitResult.allow(lease.permits.get() * properties.getCostPerRequest(), false);
+    }
+
+    /**
+     * Withdraw a new lease from Redis and consume one of its permits for the current request. If another
+     * thread is already withdrawing a lease for {@code key}, wait for it and take a permit from that lease;
+     * only when it is used up as well does this thread withdraw the next one.
+     * Redis errors propagate to the caller, which owns the failure policy.
+     */
+    public RateLimitResult acquire(String key) {
+        while (true) {
+            CompletableFuture<RateLimitResult> refill = new CompletableFuture<>();
+            CompletableFuture<RateLimitResult> pending = refills.putIfAbsent(key, refill);
+            if (pending == null) {
+                try {
+                    RateLimitResult result = refill(key);
+                    refill.complete(result);
+                    return result;
+                } catch (RuntimeException ex) {
+                    refill.completeExceptionally(ex);
+                    throw ex;
+                } finally {
+                    refills.remove(key, refill);
+                }
+            }
+            RateLimitResult refilled = await(pending);
+            RateLimitResult leased = tryConsume(key);
+            if (leased != null) {
+                return leased;
+            }
+            if (refilled.getDecision() != RateLimitDecision.ALLOW) {
+                // The bucket was empty a moment ago; another call would most likely say the same.
+                return refilled;
+            }
+        }
+    }
+
+    private RateLimitResult refill(String key) {
+        long now = clock.millis();
+        byte[][] keysAndArgs = currentArguments().permitKeysAndArgs(key.getBytes(StandardCharsets.UTF_8),
+                permitsPerLease, ScriptArguments.now(serverTime, now));
+        Object result = redisTemplate.execute((RedisCallback<Object>) connection ->
+                RedisRateLimiterBackend.evalSha(connection, leaseAcquireScript, ReturnType.MULTI, 1, keysAndArgs));
+
+        if (!(result instanceof List<?> listResult) || listResult.size() < 4) {
+            throw new IllegalStateException("Unexpected lease script result: " + result);
+        }
+
+        int granted = (int) ScriptResults.toLong(listResult.get(0));
+        double remainingTokens = ScriptResults.toDouble(listResult.get(1)) / tokenScale;
+        long retryAfterMillis = ScriptResults.toLong(listResult.get(2));
+        long resetMillis = ScriptResults.toLong(listResult.get(3));
+        if (granted <= 0) {
+            return RateLimitResult.rejectRateLimited(remainingTokens, retryAfterMillis, resetMillis);
+        }
+
+        int leftover = granted - 1;
+        if (leftover > 0) {
+            Lease displaced = leases.put(key, new Lease(leftover, now + ttlMillis));
+            if (displaced != null) {
+                // Another thread refreshed the lease concurrently; keep the newest and give the rest back.
+                release(key, displaced.drain());
+            }
+        }
+        // Timing describes the Redis bucket; permits left in this lease are available right away.
+        return RateLimitResult.allow(remainingTokens + leftover * properties.getCostPerRequest(),
+                leftover > 0 ? 0L : retryAfterMillis, resetMillis);
+    }
+
+    private static RateLimitResult await(CompletableFuture<RateLimitResult> refill) {
+        try {
+            return refill.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Static arguments of the lease scripts, re-encoded only when the configuration changes.
+     */
+    private ScriptArguments currentArguments() {
+        ScriptArguments current = arguments;
+        if (!current.matches(properties)) {
+            current = ScriptArguments.of(properties);
+            arguments = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-lease-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(10L, ttlMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::returnExpiredLeases, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        // Hand every unused permit back so a rolling restart does not eat into client budgets.
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            if (leases.remove(entry.getKey(), entry.getValue())) {
+                release(entry.getKey(), entry.getValue().drain());
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void returnExpiredLeases() {
+        long now = clock.millis();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            if (lease.isExpired(now) && leases.remove(entry.getKey(), lease)) {
+                release(entry.getKey(), lease.drain());
+            }
+        }
+    }
+
+    private void release(String key, int permits) {
+        if (permits <= 0) {
+            return;
+        }
+        // The scripts' now; lease expiry is node-local and always uses the clock.
+        byte[][] keysAndArgs = currentArguments().releaseKeysAndArgs(key.getBytes(StandardCharsets.UTF_8), permits,
+                ScriptArguments.now(serverTime, clock.millis()));
+        try {
+            redisTemplate.execute((RedisCallback<Long>) connection -> RedisRateLimiterBackend.evalSha(connection,
+                    leaseReleaseScript, ReturnType.INTEGER, 1, keysAndArgs));
+        } catch (RuntimeException ex) {
+            // Losing returned tokens only makes the limit stricter until the bucket refills.
+            log.warn("Failed to return {} leased permit(s) for key {}", permits, key, ex);
+        }
+    }
+
+    private static final class Lease {
+        private final AtomicInteger permits;
+        private final long expiresAtMillis;
+
+        private Lease(int permits, long expiresAtMillis) {
+            this.permits = new AtomicInteger(permits);
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAtMillis;
+        }
+
+        private boolean tryTake() {
+            int current;
+            do {
+                current = permits.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!permits.compareAndSet(current, current - 1));
+            return true;
+        }
+
+        private int drain() {
+            return permits.getAndSet(0);
+        }
+    }
+}
@@ -3,10 +3,31 @@ package com.example.ratelimiter.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Component
 @ConfigurationProperties(prefix = "rate-limiter")
 public class RateLimiterProperties {
 
+    /**
+     * Engine holding bucket state: {@code redis} (shared across instances), {@code redis-sharded} (spread over
+     * several standalone Redis instances) or {@code in-memory} (single instance).
+     */
+    private String backend = "redis";
+
+    /**
+     * Algorithm run by the {@code redis} backend: {@code token-bucket} (hash with tokens and last refill),
+     * {@code token-bucket-fixed} (the same hash key with integer micro-tokens) or {@code gcra} (single
+     * theoretical arrival time), which all make the same decisions, or {@code sliding-window} (two counters
+     * per client, {@code capacity} requests per {@code capacity / refill-rate-per-second} seconds). Read once
+     * at startup.
+     */
+    private String algorithm = "token-bucket";
+
     /**
      * Maximum number of tokens a bucket can hold (burst capacity).
      */
@@ -28,6 +49,100 @@ public class RateLimiterProperties {
      */
     private boolean failOpenOnRedisError;
 
+    /**
+     * Header carrying the tenant of a request, for {@code tenant} scoped limits.
+     */
+    private String tenantHeader = "X-Tenant-Id";
+
+    /**
+     * Additional buckets checked together with the client's own, in this order, all in one script call.
+     * Together with {@link #apiKeyGroups} this is the policy table; reloadable, see {@link #policyFile}.
+     */
+    private List<LimitRule> limits = new ArrayList<>();
+
+    /**
+     * Named sets of API keys (the {@code X-API-Key} value) that limits can be restricted to.
+     */
+    private Map<String, List<String>> apiKeyGroups = new LinkedHashMap<>();
+
+    /**
+     * Resource with the policy table ({@code rate-limiter.limits} and {@code rate-limiter.api-key-groups}, YAML
+     * or properties), e.g. {@code file:/etc/rate-limiter/policies.yml}. Replaces the table configured inline
+     * and is read again by {@code POST /actuator/ratelimitpolicies}.
+     */
+    private String policyFile;
+
+    /**
+     * Micro-batching of concurrent checks into pipelined EVALSHA bursts.
+     */
+    private final Batching batching = new Batching();
+
+    /**
+     * Local token leasing: serve requests from chunks of tokens withdrawn from Redis.
+     */
+    private final Lease lease = new Lease();
+
+    /**
+     * Local cache of clients known to be out of tokens until their bucket refills.
+     */
+    private final NegativeCache negativeCache = new NegativeCache();
+
+    /**
+     * Non-blocking request handling: the filter suspends requests while Redis is queried.
+     */
+    private final Async async = new Async();
+
+    /**
+     * Circuit breaker around the backend with a per-node fallback limiter while it is open.
+     */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * Source of the timestamps buckets are refilled against.
+     */
+    private final Time time = new Time();
+
+    /**
+     * Splitting the buckets of very hot clients across several Redis keys.
+     */
+    private final Sharding sharding = new Sharding();
+
+    /**
+     * Top-K tracking of the clients sending the most requests.
+     */
+    private final HeavyHitters heavyHitters = new HeavyHitters();
+
+    /**
+     * Standalone Redis instances used by the {@code redis-sharded} backend.
+     */
+    private final RedisShards redisShards = new RedisShards();
+
+    /**
+     * How the Lua scripts are deployed to Redis and invoked.
+     */
+    private final Scripts scripts = new Scripts();
+
+    /**
+     * Merging concurrent checks of one client into one script call.
+     */
+    private final Coalescing coalescing = new Coalescing();
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
     public double getCapacity() {
         return capacity;
     }
@@ -59,6 +174,745 @@ public class RateLimiterProperties {
     public void setFailOpenOnRedisError(boolean failOpenOnRedisError) {
         this.failOpenOnRedisError = failOpenOnRedisError;
     }
-}
 
+    public String getTenantHeader() {
+        return tenantHeader;
+    }
+
+    public void setTenantHeader(String tenantHeader) {
+        this.tenantHeader = tenantHeader;
+    }
+
+    public List<LimitRule> getLimits() {
+        return limits;
+    }
+
+    public void setLimits(List<LimitRule> limits) {
+        this.limits = limits;
+    }
+
+    public Map<String, List<String>> getApiKeyGroups() {
+        return apiKeyGroups;
+    }
+
+    public void setApiKeyGroups(Map<String, List<String>> apiKeyGroups) {
+        this.apiKeyGroups = apiKeyGroups;
+    }
+
+    public String getPolicyFile() {
+        return policyFile;
+    }
+
+    public void setPolicyFile(String policyFile) {
+        this.policyFile = policyFile;
+    }
+
+    public Batching getBatching() {
+        return batching;
+    }
+
+    public Lease getLease() {
+        return lease;
+    }
+
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Time getTime() {
+        return time;
+    }
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    public HeavyHitters getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    public RedisShards getRedisShards() {
+        return redisShards;
+    }
+
+    public Scripts getScripts() {
+        return scripts;
+    }
+
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    public static class LimitRule {
+
+        /**
+         * Identifier of the limit, used in its bucket keys; must be unique.
+         */
+        private String name;
+
+        /**
+         * Who shares a bucket: {@code client} (one per client), {@code tenant} (one per value of the tenant
+         * header; requests without it skip the limit) or {@code global} (one for everybody).
+         */
+        private String scope = "client";
+
+        /**
+         * Path patterns of the requests checked against the limit, all if empty. Segments are literal,
+         * {@code *} (any one segment) or a trailing {@code **} (any number of segments), e.g.
+         * {@code /api/items/*} or {@code /api/search/**}.
+         */
+        private List<String> paths = new ArrayList<>();
+
+        /**
+         * HTTP methods the limit applies to, all if empty.
+         */
+        private List<String> methods = new ArrayList<>();
+
+        /**
+         * Names of {@code api-key-groups} whose keys the limit applies to, all clients if empty.
+         */
+        private List<String> apiKeyGroups = new ArrayList<>();
+
+        /**
+         * {@code token-bucket} or {@code sliding-window}: {@code capacity} requests per
+         * {@code capacity / refill-rate-per-second} seconds, counted in two fixed windows.
+         */
+        private String algorithm = "token-bucket";
+
+        private double capacity;
+
+        private double refillRatePerSecond;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getScope() {
+            return scope;
+        }
+
+        public void setScope(String scope) {
+            this.scope = scope;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        public void setPaths(List<String> paths) {
+            this.paths = paths;
+        }
+
+        public List<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(List<String> methods) {
+            this.methods = methods;
+        }
+
+        public List<String> getApiKeyGroups() {
+            return apiKeyGroups;
+        }
+
+        public void setApiKeyGroups(List<String> apiKeyGroups) {
+            this.apiKeyGroups = apiKeyGroups;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public double getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(double capacity) {
+            this.capacity = capacity;
+        }
+
+        public double getRefillRatePerSecond() {
+            return refillRatePerSecond;
+        }
+
+        public void setRefillRatePerSecond(double refillRatePerSecond) {
+            this.refillRatePerSecond = refillRatePerSecond;
+        }
+    }
+
+    public static class Batching {
+
+        /**
+         * If true, concurrent checks are coalesced and sent to Redis as one pipeline.
+         */
+        private boolean enabled;
+
+        /**
+         * Maximum number of checks flushed in a single pipeline.
+         */
+        private int maxBatchSize = 64;
+
+        /**
+         * Maximum time the first check of a batch waits for others to join it.
+         */
+        private Duration maxWait = Duration.ofNanos(200_000);
+
+        /**
+         * Maximum number of checks waiting to be flushed. When full, callers execute the script directly.
+         */
+        private int queueCapacity = 10_000;
+
+        /**
+         * Upper bound a caller waits for its batched result before treating it as a Redis failure.
+         */
+        private Duration resultTimeout = Duration.ofSeconds(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
 
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Duration getResultTimeout() {
+            return resultTimeout;
+        }
+
+        public void setResultTimeout(Duration resultTimeout) {
+            this.resultTimeout = resultTimeout;
+        }
+    }
+
+    public static class Lease {
+
+        /**
+         * If true, nodes withdraw chunks of tokens from Redis and serve requests from them locally.
+         */
+        private boolean enabled;
+
+        /**
+         * Fraction of the bucket capacity withdrawn per lease. Overshoot is bounded by
+         * lease size times the number of nodes.
+         */
+        private double capacityFraction = 0.1;
+
+        /**
+         * How long a lease may be used before its unused tokens are returned to Redis.
+         */
+        private Duration ttl = Duration.ofSeconds(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getCapacityFraction() {
+            return capacityFraction;
+        }
+
+        public void setCapacityFraction(double capacityFraction) {
+            this.capacityFraction = capacityFraction;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    public static class NegativeCache {
+
+        /**
+         * If true, rejected clients are rejected locally until their bucket can serve the next request.
+         */
+        private boolean enabled;
+
+        /**
+         * Hard cap on cached rejections; rounded up to a power of two.
+         */
+        private int maxEntries = 65_536;
+
+        /**
+         * Upper bound on how long a rejection is cached, also used when the bucket never refills.
+         */
+        private Duration maxTtl = Duration.ofSeconds(60);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public Duration getMaxTtl() {
+            return maxTtl;
+        }
+
+        public void setMaxTtl(Duration maxTtl) {
+            this.maxTtl = maxTtl;
+        }
+    }
+
+    public static class Async {
+
+        /**
+         * If true, the filter suspends the request with {@code AsyncContext} and resumes it when the
+         * decision arrives, instead of blocking a servlet thread for the Redis round trip.
+         */
+        private boolean enabled;
+
+        /**
+         * Maximum time a suspended request waits for its decision before the failure policy applies.
+         */
+        private Duration timeout = Duration.ofSeconds(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class CircuitBreaker {
+
+        /**
+         * If true, backend failures and slow calls are tracked and the breaker short-circuits to a local limiter.
+         */
+        private boolean enabled;
+
+        /**
+         * Share of failed or slow calls in a window that opens the breaker.
+         */
+        private double failureRateThreshold = 0.5;
+
+        /**
+         * Calls taking at least this long count as failures.
+         */
+        private Duration slowCallThreshold = Duration.ofMillis(100);
+
+        /**
+         * Calls needed in a window before its failure rate is trusted.
+         */
+        private int minimumCalls = 20;
+
+        /**
+         * Length of the window over which the failure rate is computed.
+         */
+        private Duration window = Duration.ofSeconds(10);
+
+        /**
+         * How long the breaker stays open before probing the backend again.
+         */
+        private Duration openDuration = Duration.ofSeconds(5);
+
+        /**
+         * Consecutive successful probes needed to close the breaker again; one failed probe reopens it.
+         */
+        private int halfOpenProbes = 5;
+
+        /**
+         * Nodes sharing the limit; while open each node enforces capacity and refill rate divided by this.
+         */
+        private int expectedNodeCount = 1;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public Duration getSlowCallThreshold() {
+            return slowCallThreshold;
+        }
+
+        public void setSlowCallThreshold(Duration slowCallThreshold) {
+            this.slowCallThreshold = slowCallThreshold;
+        }
+
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        public void setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public Duration getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public int getHalfOpenProbes() {
+            return halfOpenProbes;
+        }
+
+        public void setHalfOpenProbes(int halfOpenProbes) {
+            this.halfOpenProbes = halfOpenProbes;
+        }
+
+        public int getExpectedNodeCount() {
+            return expectedNodeCount;
+        }
+
+        public void setExpectedNodeCount(int expectedNodeCount) {
+            this.expectedNodeCount = expectedNodeCount;
+        }
+    }
+
+    public static class Time {
+
+        /**
+         * {@code node}: each app node's clock. {@code redis-offset}: Redis {@code TIME} sampled periodically
+         * and applied as an offset to the node's monotonic clock. {@code redis-script}: the scripts read
+         * {@code TIME} themselves. Read at startup.
+         */
+        private String source = "node";
+
+        /**
+         * How often {@code redis-offset} samples Redis {@code TIME}.
+         */
+        private Duration syncInterval = Duration.ofSeconds(1);
+
+        public String getSource() {
+            return source;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        public Duration getSyncInterval() {
+            return syncInterval;
+        }
+
+        public void setSyncInterval(Duration syncInterval) {
+            this.syncInterval = syncInterval;
+        }
+    }
+
+    public static class Sharding {
+
+        private boolean enabled = false;
+
+        /**
+         * Sub-buckets a hot client is split into, each with {@code 1/shards} of the capacity and refill
+         * rate. Lowered automatically so every shard still holds at least one request.
+         */
+        private int shards = 8;
+
+        /**
+         * Requests per second seen by one node that make a client hot.
+         */
+        private int promoteAtRequestsPerSecond = 500;
+
+        /**
+         * How long a client stays sharded after the last second in which it was hot.
+         */
+        private Duration cooldown = Duration.ofSeconds(30);
+
+        /**
+         * Other shards tried when the chosen one rejects, before the request is rejected.
+         */
+        private int borrowAttempts = 1;
+
+        /**
+         * Size of the table tracking per-client request rates; rounded up to a power of two.
+         */
+        private int trackedClients = 4096;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public int getPromoteAtRequestsPerSecond() {
+            return promoteAtRequestsPerSecond;
+        }
+
+        public void setPromoteAtRequestsPerSecond(int promoteAtRequestsPerSecond) {
+            this.promoteAtRequestsPerSecond = promoteAtRequestsPerSecond;
+        }
+
+        public Duration getCooldown() {
+            return cooldown;
+        }
+
+        public void setCooldown(Duration cooldown) {
+            this.cooldown = cooldown;
+        }
+
+        public int getBorrowAttempts() {
+            return borrowAttempts;
+        }
+
+        public void setBorrowAttempts(int borrowAttempts) {
+            this.borrowAttempts = borrowAttempts;
+        }
+
+        public int getTrackedClients() {
+            return trackedClients;
+        }
+
+        public void setTrackedClients(int trackedClients) {
+            this.trackedClients = trackedClients;
+        }
+    }
+
+    public static class HeavyHitters {
+
+        private boolean enabled = false;
+
+        /**
+         * Number of clients reported.
+         */
+        private int topK = 20;
+
+        /**
+         * Length of one counting window; the report covers the last complete window.
+         */
+        private Duration window = Duration.ofSeconds(10);
+
+        /**
+         * Counters per sketch row, rounded up to a power of two. Overestimation is at most
+         * {@code e / sketch-width} of the window's requests.
+         */
+        private int sketchWidth = 2048;
+
+        /**
+         * Sketch rows; each adds one atomic increment per request and lowers the chance of overestimating.
+         */
+        private int sketchDepth = 4;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTopK() {
+            return topK;
+        }
+
+        public void setTopK(int topK) {
+            this.topK = topK;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public int getSketchWidth() {
+            return sketchWidth;
+        }
+
+        public void setSketchWidth(int sketchWidth) {
+            this.sketchWidth = sketchWidth;
+        }
+
+        public int getSketchDepth() {
+            return sketchDepth;
+        }
+
+        public void setSketchDepth(int sketchDepth) {
+            this.sketchDepth = sketchDepth;
+        }
+    }
+
+    public static class RedisShards {
+
+        /**
+         * {@code host:port} of every instance, in ring order. Clients are assigned by position: append new
+         * instances at the end and replace a failed one in place, never remove or reorder entries.
+         * Credentials, database and timeouts come from {@code spring.data.redis}.
+         */
+        private List<String> nodes = new ArrayList<>();
+
+        public List<String> getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(List<String> nodes) {
+            this.nodes = nodes;
+        }
+    }
+
+    public static class Scripts {
+
+        /**
+         * Load every script with {@code SCRIPT LOAD} at startup and whenever a connection to Redis is
+         * (re)established, so requests send EVALSHA only and never hit NOSCRIPT after a restart or failover.
+         */
+        private boolean preload = true;
+
+        /**
+         * If true, the bucket scripts are deployed as a Redis 7 function library ({@code FUNCTION LOAD}) and
+         * invoked with {@code FCALL}; read-only bucket peeks use {@code FCALL_RO}. Requires Redis 7.
+         */
+        private boolean functions;
+
+        /**
+         * Nodes read-only peeks may be served from on Redis Cluster with {@code functions} enabled, as a
+         * Lettuce {@code ReadFrom} name: {@code upstream}, {@code replicaPreferred}, {@code anyReplica}, ...
+         */
+        private String readFrom = "upstream";
+
+        /**
+         * Maximum time a blocking check or peek waits for its script reply (EVALSHA or {@code FCALL}) on the
+         * backend's native Lettuce connection; Lettuce's own command timeout still applies.
+         */
+        private Duration timeout = Duration.ofSeconds(2);
+
+        public boolean isPreload() {
+            return preload;
+        }
+
+        public void setPreload(boolean preload) {
+            this.preload = preload;
+        }
+
+        public boolean isFunctions() {
+            return functions;
+        }
+
+        public void setFunctions(boolean functions) {
+            this.functions = functions;
+        }
+
+        public String getReadFrom() {
+            return readFrom;
+        }
+
+        public void setReadFrom(String readFrom) {
+            this.readFrom = readFrom;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Coalescing {
+
+        /**
+         * If true, checks of a client arriving while a script call for it is in flight wait for it to complete
+         * and are then decided together by one call withdrawing up to one permit each.
+         */
+        private boolean enabled;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+}
@@ -19,18 +19,85 @@ public class RedisConfig {
     }
 
     /**
-     * Lua script implementing the token bucket algorithm.
+     * Lua script implementing the configured algorithm: the token bucket ({@code rate_limiter.lua}), its
+     * fixed-point variant ({@code rate_limiter_fixed.lua}, arguments and remaining tokens in micro-tokens),
+     * GCRA ({@code gcra.lua}) or the sliding-window counter ({@code sliding_window.lua}). All take the same
+     * arguments and return the same reply.
      * <p>
      * Loaded once at startup and cached by Spring/Data Redis.
      */
     @Bean
-    public DefaultRedisScript<List> rateLimiterScript() {
+    public DefaultRedisScript<List> rateLimiterScript(RateLimiterProperties properties) {
+        String location = switch (properties.getAlgorithm()) {
+            case "token-bucket" -> "lua/rate_limiter.lua";
+            case "token-bucket-fixed" -> "lua/rate_limiter_fixed.lua";
+            case "gcra" -> "lua/gcra.lua";
+            case "sliding-window" -> "lua/sliding_window.lua";
+            default -> throw new IllegalArgumentException("Unknown rate-limiter.algorithm '" + properties.getAlgorithm()
+                    + "', expected token-bucket, token-bucket-fixed, gcra or sliding-window");
+        };
         DefaultRedisScript<List> script = new DefaultRedisScript<>();
-        script.setLocation(new ClassPathResource("lua/rate_limiter.lua"));
+        script.setLocation(new ClassPathResource(location));
         script.setResultType(List.class);
         return script;
     }
 
+    /**
+     * Lua script checking the client's bucket and the buckets of its additional limits
+     * ({@code rate-limiter.limits}) in one call, each with its own algorithm.
+     */
+    @Bean
+    public DefaultRedisScript<List> multiLimitScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/rate_limiter_multi.lua"));
+        script.setResultType(List.class);
+        return script;
+    }
+
+    /**
+     * Read-only Lua script reporting a token bucket's state without taking tokens.
+     */
+    @Bean
+    public DefaultRedisScript<List> peekScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/rate_limiter_peek.lua"));
+        script.setResultType(List.class);
+        return script;
+    }
+
+    /**
+     * Lua script withdrawing a chunk of permits from a bucket for local token leasing.
+     */
+    @Bean
+    public DefaultRedisScript<List> leaseAcquireScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/lease_acquire.lua"));
+        script.setResultType(List.class);
+        return script;
+    }
+
+    /**
+     * Lua script moving tokens between a hot client's bucket and its shards.
+     */
+    @Bean
+    public DefaultRedisScript<List> shardTransferScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/shard_transfer.lua"));
+        script.setResultType(List.class);
+        return script;
+    }
+
+    /**
+     * Lua script returning unused leased tokens to a bucket.
+     */
+    @Bean
+    public DefaultRedisScript<Long> leaseReleaseScript() {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/lease_release.lua"));
+        script.setResultType(Long.class);
+        return script;
+    }
+
     /**
      * Clock bean for time-based operations in the rate limiter.
      * <p>
@@ -0,0 +1,29 @@
+package com.example.ratelimiter.controller;
+
+import com.example.ratelimiter.model.RateLimitResult;
+import com.example.ratelimiter.service.RateLimiterService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/ratelimitbuckets/{clientId}}: a client's bucket as its next request would find it,
+ * without taking tokens. With Redis functions enabled the read runs as {@code FCALL_RO} and may be served
+ * by a replica. Exposes client ids, so restrict access like other actuator endpoints.
+ */
+@Component
+@Endpoint(id = "ratelimitbuckets")
+public class BucketsEndpoint {
+
+    private final RateLimiterService rateLimiterService;
+
+    public BucketsEndpoint(RateLimiterService rateLimiterService) {
+        this.rateLimiterService = rateLimiterService;
+    }
+
+    @ReadOperation
+    public RateLimitResult bucket(@Selector String clientId) {
+        return rateLimiterService.peek(clientId);
+    }
+}
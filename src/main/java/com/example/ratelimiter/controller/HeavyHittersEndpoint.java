@@ -0,0 +1,29 @@
+package com.example.ratelimiter.controller;
+
+import com.example.ratelimiter.service.HeavyHitters;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/heavyhitters}: the clients sending the most requests, with estimated rates and the
+ * share of their requests rejected by the rate limiter. Exposes client ids (API keys), so restrict
+ * access to the management port like other actuator endpoints.
+ */
+@Component
+@Endpoint(id = "heavyhitters")
+@ConditionalOnProperty(prefix = "rate-limiter.heavy-hitters", name = "enabled", havingValue = "true")
+public class HeavyHittersEndpoint {
+
+    private final HeavyHitters heavyHitters;
+
+    public HeavyHittersEndpoint(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    @ReadOperation
+    public HeavyHitters.Report heavyHitters() {
+        return heavyHitters.report();
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.ratelimiter.controller;
+
+import com.example.ratelimiter.filter.LimitResolver;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/ratelimitpolicies}: the policy table in use; {@code POST} reloads
+ * {@code rate-limiter.policy-file} without a restart. Restrict access like other actuator endpoints.
+ */
+@Component
+@Endpoint(id = "ratelimitpolicies")
+public class PoliciesEndpoint {
+
+    private final LimitResolver limitResolver;
+
+    public PoliciesEndpoint(LimitResolver limitResolver) {
+        this.limitResolver = limitResolver;
+    }
+
+    @ReadOperation
+    public LimitResolver.Report policies() {
+        return limitResolver.report();
+    }
+
+    @WriteOperation
+    public LimitResolver.Report reload() {
+        return limitResolver.reload();
+    }
+}
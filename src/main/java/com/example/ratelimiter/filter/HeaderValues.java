@@ -0,0 +1,52 @@
+package com.example.ratelimiter.filter;
+
+/**
+ * Pre-encoded decimal header values.
+ * <p>
+ * Rate limit headers carry small non-negative integers (tokens, seconds). The strings for the common range
+ * are built once so setting a header on the hot path neither formats nor allocates.
+ */
+final class HeaderValues {
+
+    private static final int CACHED = 4096;
+
+    private static final String[] DECIMALS = new String[CACHED];
+
+    /**
+     * Absorbs floating point error in refill arithmetic, e.g. 0.9999999999 tokens after refilling exactly one.
+     */
+    private static final double TOKEN_EPSILON = 1e-6;
+
+    static {
+        for (int i = 0; i < CACHED; i++) {
+            DECIMALS[i] = Integer.toString(i);
+        }
+    }
+
+    private HeaderValues() {
+    }
+
+    /**
+     * @return the decimal form of {@code value}, clamped at zero.
+     */
+    static String of(long value) {
+        if (value <= 0) {
+            return DECIMALS[0];
+        }
+        return value < CACHED ? DECIMALS[(int) value] : Long.toString(value);
+    }
+
+    /**
+     * @return whole tokens, rounded down, as the draft RateLimit headers expect integers.
+     */
+    static String tokens(double tokens) {
+        return of((long) (tokens + TOKEN_EPSILON));
+    }
+
+    /**
+     * @return {@code millis} rounded up to whole seconds, so a client waiting that long is never early.
+     */
+    static String seconds(long millis) {
+        return of((millis + 999) / 1000);
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.ratelimiter.filter;
+
+import com.example.ratelimiter.backend.RateLimiterBackend;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.LimitBucket;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the additional limits ({@code rate-limiter.limits}) a request is checked against besides its
+ * client's own bucket, by method, API key group and path ({@link PolicyTable}). Limits only add buckets: the
+ * client's bucket keeps the global capacity, refill rate and cost for every request.
+ *
+ * The policy table is compiled at startup from the inline configuration or {@code rate-limiter.policy-file}.
+ * {@link #reload()} compiles the file again and swaps the new table in with a single volatile write, so
+ * every request sees either the old table or the new one, never a mix. An invalid file keeps the current
+ * table. Requests no rule applies to get the shared empty list.
+ */
+@Component
+public class LimitResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(LimitResolver.class);
+
+    static final String SCOPE_CLIENT = "client";
+    static final String SCOPE_TENANT = "tenant";
+    static final String SCOPE_GLOBAL = "global";
+
+    private static final String API_KEY_HEADER = "X-API-Key";
+
+    private final RateLimiterProperties properties;
+    private final RateLimiterBackend backend;
+    private final ResourceLoader resourceLoader;
+    private volatile Snapshot snapshot;
+
+    public LimitResolver(RateLimiterProperties properties, RateLimiterBackend backend, ResourceLoader resourceLoader) {
+        this.properties = properties;
+        this.backend = backend;
+        this.resourceLoader = resourceLoader;
+        try {
+            this.snapshot = load(null);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read rate-limiter.policy-file " + properties.getPolicyFile(), ex);
+        }
+    }
+
+    /**
+     * @param clientId the client the request is attributed to, for {@code client} scoped limits
+     * @return the buckets the request must also be allowed by, in configuration order
+     */
+    public List<LimitBucket> resolve(HttpServletRequest request, String clientId) {
+        PolicyTable table = snapshot.table;
+        long matched = table.match(request.getMethod(), request.getHeader(API_KEY_HEADER),
+                pathWithinApplication(request));
+        if (matched == 0L) {
+            return List.of();
+        }
+        return table.buckets(matched, clientId, request.getHeader(properties.getTenantHeader()));
+    }
+
+    /**
+     * The path the container mapped the request by: below the context path, percent-decoded, without path
+     * parameters ({@code ;x=1}) and with dot segments resolved. The raw request URI would let
+     * {@code /api/%6Frders}, {@code /api/orders;x=1} or {@code /api/./orders} slip past a rule for
+     * {@code /api/orders} while still reaching it.
+     */
+    static String pathWithinApplication(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        return pathInfo == null ? request.getServletPath() : request.getServletPath() + pathInfo;
+    }
+
+    /**
+     * Compiles the policy table again and puts it in use if it is valid. Reloads are serialized; requests
+     * never wait for them.
+     */
+    public synchronized Report reload() {
+        Snapshot current = snapshot;
+        try {
+            snapshot = load(current);
+            log.info("Loaded rate limit policies {} (version {})", snapshot.table.names(), snapshot.version);
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Keeping rate limit policies version {}: {}", current.version, ex.toString());
+            snapshot = current.failed(ex.toString());
+        }
+        return report();
+    }
+
+    public Report report() {
+        Snapshot current = snapshot;
+        return new Report(current.version, current.source, current.loadedAt, current.table.names(), current.lastError);
+    }
+
+    private Snapshot load(Snapshot previous) throws IOException {
+        List<RateLimiterProperties.LimitRule> limits = properties.getLimits();
+        Map<String, List<String>> apiKeyGroups = properties.getApiKeyGroups();
+        String source = "rate-limiter.limits";
+        String location = properties.getPolicyFile();
+        if (location != null && !location.isBlank()) {
+            RateLimiterProperties file = readPolicyFile(resourceLoader.getResource(location));
+            limits = file.getLimits();
+            apiKeyGroups = file.getApiKeyGroups();
+            source = location;
+        }
+        backend.validateLimits(limits);
+        PolicyTable table = PolicyTable.compile(limits, apiKeyGroups);
+        return new Snapshot(table, previous == null ? 1L : previous.version + 1, source, Instant.now(), null);
+    }
+
+    private static RateLimiterProperties readPolicyFile(Resource resource) throws IOException {
+        String filename = resource.getFilename() == null ? "" : resource.getFilename();
+        PropertySourceLoader loader = filename.endsWith(".properties")
+                ? new PropertiesPropertySourceLoader()
+                : new YamlPropertySourceLoader();
+        List<PropertySource<?>> sources = loader.load(filename, resource);
+        return new Binder(ConfigurationPropertySources.from(sources))
+                .bindOrCreate("rate-limiter", RateLimiterProperties.class);
+    }
+
+    private static final class Snapshot {
+        private final PolicyTable table;
+        private final long version;
+        private final String source;
+        private final Instant loadedAt;
+        private final String lastError;
+
+        private Snapshot(PolicyTable table, long version, String source, Instant loadedAt, String lastError) {
+            this.table = table;
+            this.version = version;
+            this.source = source;
+            this.loadedAt = loadedAt;
+            this.lastError = lastError;
+        }
+
+        private Snapshot failed(String error) {
+            return new Snapshot(table, version, source, loadedAt, error);
+        }
+    }
+
+    /**
+     * Policy table in use, as returned by the actuator endpoint.
+     */
+    public static final class Report {
+        private final long version;
+        private final String source;
+        private final Instant loadedAt;
+        private final List<String> limits;
+        private final String lastError;
+
+        Report(long version, String source, Instant loadedAt, List<String> limits, String lastError) {
+            this.version = version;
+            this.source = source;
+            this.loadedAt = loadedAt;
+            this.limits = limits;
+            this.lastError = lastError;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public Instant getLoadedAt() {
+            return loadedAt;
+        }
+
+        public List<String> getLimits() {
+            return limits;
+        }
+
+        /**
+         * @return why the last reload was rejected, or {@code null} if the last reload succeeded
+         */
+        public String getLastError() {
+            return lastError;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.ratelimiter.filter;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.Limit;
+import com.example.ratelimiter.model.LimitBucket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, compiled form of the policy table ({@code rate-limiter.limits} plus
+ * {@code rate-limiter.api-key-groups}).
+ *
+ * Each rule is one bit of a {@code long}, in configuration order. Matching a request ANDs three masks: the
+ * rules allowing its method (one precomputed mask per method), the rules allowing its API key (rules without
+ * groups, plus those unlocked by the key's groups in one hash lookup) and the rules whose path patterns match
+ * (a trie over path segments, walked on the request URI in place). No regex, no substrings, no allocation;
+ * only the resulting bucket list is allocated, and only when some rule applies.
+ */
+final class PolicyTable {
+
+    /**
+     * Index of methods other than the eight standard ones, which only match rules without methods.
+     */
+    private static final int OTHER_METHOD = 8;
+
+    private final Rule[] rules;
+    private final Node paths;
+    private final long[] rulesByMethod;
+    private final long anyKeyRules;
+    private final Map<String, Long> rulesByApiKey;
+
+    private PolicyTable(Rule[] rules, Node paths, long[] rulesByMethod, long anyKeyRules,
+                        Map<String, Long> rulesByApiKey) {
+        this.rules = rules;
+        this.paths = paths;
+        this.rulesByMethod = rulesByMethod;
+        this.anyKeyRules = anyKeyRules;
+        this.rulesByApiKey = rulesByApiKey;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the table is invalid
+     */
+    static PolicyTable compile(List<RateLimiterProperties.LimitRule> limits, Map<String, List<String>> apiKeyGroups) {
+        if (limits.size() > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " rate-limiter.limits are supported");
+        }
+        Rule[] rules = new Rule[limits.size()];
+        Node paths = new Node();
+        long[] rulesByMethod = new long[OTHER_METHOD + 1];
+        long anyKeyRules = 0L;
+        Map<String, Long> rulesByApiKey = new HashMap<>();
+        Set<String> names = new HashSet<>();
+
+        for (int i = 0; i < rules.length; i++) {
+            RateLimiterProperties.LimitRule rule = limits.get(i);
+            String name = rule.getName();
+            if (name == null || name.isBlank() || name.indexOf('{') >= 0 || name.indexOf('}') >= 0) {
+                throw new IllegalArgumentException("rate-limiter.limits[" + i + "].name must be set and must not contain braces");
+            }
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Duplicate rate-limiter.limits name '" + name + "'");
+            }
+            if (!(rule.getCapacity() > 0)) {
+                throw new IllegalArgumentException("Limit " + name + " needs a positive capacity");
+            }
+            rules[i] = new Rule(rule);
+            long bit = 1L << i;
+
+            if (rule.getPaths().isEmpty()) {
+                paths.rest |= bit;
+            }
+            for (String pattern : rule.getPaths()) {
+                paths.add(pattern, name, bit);
+            }
+
+            if (rule.getMethods().isEmpty()) {
+                for (int m = 0; m < rulesByMethod.length; m++) {
+                    rulesByMethod[m] |= bit;
+                }
+            }
+            for (String method : rule.getMethods()) {
+                int index = methodIndex(method.trim().toUpperCase(Locale.ROOT));
+                if (index == OTHER_METHOD) {
+                    throw new IllegalArgumentException("Unknown HTTP method '" + method + "' in limit " + name);
+                }
+                rulesByMethod[index] |= bit;
+            }
+
+            if (rule.getApiKeyGroups().isEmpty()) {
+                anyKeyRules |= bit;
+            }
+            for (String group : rule.getApiKeyGroups()) {
+                List<String> keys = apiKeyGroups.get(group);
+                if (keys == null) {
+                    throw new IllegalArgumentException("Unknown api-key group '" + group + "' in limit " + name);
+                }
+                for (String key : keys) {
+                    rulesByApiKey.merge(key, bit, (a, b) -> a | b);
+                }
+            }
+        }
+        return new PolicyTable(rules, paths, rulesByMethod, anyKeyRules, rulesByApiKey);
+    }
+
+    /**
+     * @param apiKey the request's API key, or {@code null}
+     * @param path   decoded path within the application, see {@link LimitResolver#pathWithinApplication}
+     * @return bit {@code i} set if {@code limits[i]} applies to the request
+     */
+    long match(String method, String apiKey, String path) {
+        long candidates = rulesByMethod[methodIndex(method)];
+        if (candidates == 0L) {
+            return 0L;
+        }
+        long keyRules = anyKeyRules;
+        if (apiKey != null && !rulesByApiKey.isEmpty()) {
+            Long unlocked = rulesByApiKey.get(apiKey);
+            if (unlocked != null) {
+                keyRules |= unlocked;
+            }
+        }
+        candidates &= keyRules;
+        return candidates == 0L ? 0L : candidates & paths.match(path, 0);
+    }
+
+    /**
+     * Buckets of the rules in {@code matched}, in configuration order. Tenant limits are skipped without a
+     * tenant.
+     */
+    List<LimitBucket> buckets(long matched, String clientId, String tenantId) {
+        if (matched == 0L) {
+            return List.of();
+        }
+        List<LimitBucket> buckets = new ArrayList<>(Long.bitCount(matched));
+        for (long remaining = matched; remaining != 0L; remaining &= remaining - 1) {
+            LimitBucket bucket = rules[Long.numberOfTrailingZeros(remaining)].bucket(clientId, tenantId);
+            if (bucket != null) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets.isEmpty() ? List.of() : buckets;
+    }
+
+    List<String> names() {
+        List<String> names = new ArrayList<>(rules.length);
+        for (Rule rule : rules) {
+            names.add(rule.limit.getName());
+        }
+        return names;
+    }
+
+    private static int methodIndex(String method) {
+        return switch (method) {
+            case "GET" -> 0;
+            case "HEAD" -> 1;
+            case "POST" -> 2;
+            case "PUT" -> 3;
+            case "PATCH" -> 4;
+            case "DELETE" -> 5;
+            case "OPTIONS" -> 6;
+            case "TRACE" -> 7;
+            default -> OTHER_METHOD;
+        };
+    }
+
+    private static final class Rule {
+        private final Limit limit;
+        private final String scope;
+        private final LimitBucket globalBucket;
+
+        private Rule(RateLimiterProperties.LimitRule rule) {
+            String algorithm = rule.getAlgorithm();
+            if (!"token-bucket".equals(algorithm) && !"sliding-window".equals(algorithm)) {
+                throw new IllegalArgumentException("Unknown algorithm '" + algorithm + "' of limit " + rule.getName()
+                        + ", expected token-bucket or sliding-window");
+            }
+            this.limit = new Limit(rule.getName(), rule.getCapacity(), rule.getRefillRatePerSecond(),
+                    "sliding-window".equals(algorithm));
+            this.scope = rule.getScope();
+            if (!LimitResolver.SCOPE_CLIENT.equals(scope) && !LimitResolver.SCOPE_TENANT.equals(scope)
+                    && !LimitResolver.SCOPE_GLOBAL.equals(scope)) {
+                throw new IllegalArgumentException("Unknown scope '" + scope + "' of limit " + rule.getName()
+                        + ", expected client, tenant or global");
+            }
+            this.globalBucket = LimitResolver.SCOPE_GLOBAL.equals(scope)
+                    ? new LimitBucket(limit, LimitResolver.SCOPE_GLOBAL)
+                    : null;
+        }
+
+        private LimitBucket bucket(String clientId, String tenantId) {
+            return switch (scope) {
+                case LimitResolver.SCOPE_CLIENT -> new LimitBucket(limit, clientId);
+                case LimitResolver.SCOPE_TENANT ->
+                        tenantId == null || tenantId.isBlank() ? null : new LimitBucket(limit, tenantId);
+                default -> globalBucket;
+            };
+        }
+    }
+
+    /**
+     * Trie node for one path segment. Only modified while the table is compiled; published with the table.
+     */
+    private static final class Node {
+        private String[] labels = new String[0];
+        private int[] hashes = new int[0];
+        private Node[] children = new Node[0];
+        /**
+         * Child for a {@code *} segment.
+         */
+        private Node any;
+        /**
+         * Rules whose pattern ends at this node.
+         */
+        private long exact;
+        /**
+         * Rules whose pattern ends with {@code **} at this node: this path and everything below it.
+         */
+        private long rest;
+
+        private void add(String pattern, String limitName, long bit) {
+            Node node = this;
+            String[] segments = Arrays.stream(pattern.trim().split("/")).filter(s -> !s.isEmpty()).toArray(String[]::new);
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.equals("**")) {
+                    if (i != segments.length - 1) {
+                        throw new IllegalArgumentException("'**' must be the last segment of path '" + pattern
+                                + "' in limit " + limitName);
+                    }
+                    node.rest |= bit;
+                    return;
+                }
+                if (segment.equals("*")) {
+                    if (node.any == null) {
+                        node.any = new Node();
+                    }
+                    node = node.any;
+                } else if (segment.indexOf('*') >= 0) {
+                    throw new IllegalArgumentException("Wildcards must be whole segments in path '" + pattern
+                            + "' of limit " + limitName);
+                } else {
+                    node = node.literal(segment);
+                }
+            }
+            node.exact |= bit;
+        }
+
+        private Node literal(String segment) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i].equals(segment)) {
+                    return children[i];
+                }
+            }
+            Node child = new Node();
+            labels = Arrays.copyOf(labels, labels.length + 1);
+            hashes = Arrays.copyOf(hashes, hashes.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            labels[labels.length - 1] = segment;
+            hashes[hashes.length - 1] = segment.hashCode();
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        /**
+         * Rules matching the path that starts at {@code pos} below this node. Empty segments are ignored, so
+         * {@code /a//b/} matches like {@code /a/b}.
+         */
+        private long match(String path, int pos) {
+            int length = path.length();
+            while (pos < length && path.charAt(pos) == '/') {
+                pos++;
+            }
+            long matched = rest;
+            if (pos == length) {
+                return matched | exact;
+            }
+            int end = path.indexOf('/', pos);
+            if (end < 0) {
+                end = length;
+            }
+            Node child = literal(path, pos, end);
+            if (child != null) {
+                matched |= child.match(path, end);
+            }
+            if (any != null) {
+                matched |= any.match(path, end);
+            }
+            return matched;
+        }
+
+        private Node literal(String path, int start, int end) {
+            if (labels.length == 0) {
+                return null;
+            }
+            // Same function as String.hashCode, over the segment in place.
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int segmentLength = end - start;
+            for (int i = 0; i < labels.length; i++) {
+                if (hashes[i] == hash && labels[i].length() == segmentLength
+                        && path.regionMatches(start, labels[i], 0, segmentLength)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -1,36 +1,92 @@
 package com.example.ratelimiter.filter;
 
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.LimitBucket;
 import com.example.ratelimiter.model.RateLimitDecision;
 import com.example.ratelimiter.model.RateLimitResult;
+import com.example.ratelimiter.service.HeavyHitters;
 import com.example.ratelimiter.service.RateLimiterService;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Servlet filter that applies rate limiting to every incoming HTTP request.
  *
  * The filter is deliberately simple: it delegates all decision-making to {@link RateLimiterService}
  * and translates the result into HTTP semantics (429 or 503).
+ *
+ * Decisions made by the backend also produce {@code RateLimit-Limit}, {@code RateLimit-Remaining} and
+ * {@code RateLimit-Reset} (IETF draft, delta seconds), and a 429 carries a {@code Retry-After} equal to the
+ * time until the next request can succeed, so clients do not retry while their bucket is still empty.
+ * Header values are pre-encoded ({@link HeaderValues}). When an additional limit ({@link LimitResolver}) is
+ * the most restrictive one, the headers describe that limit's bucket instead of the client's.
+ *
+ * In async mode the request is suspended with {@link AsyncContext} while the decision is pending, so no
+ * servlet thread is held during the Redis round trip. Once the decision arrives the request is dispatched
+ * back to the container, where this filter applies the stored decision exactly like in blocking mode. If the
+ * container times the request out first, the fail-open / fail-closed policy decides it instead; whichever of
+ * the two comes first dispatches, the other is dropped.
+ *
+ * When enabled, every decision is also fed to {@link HeavyHitters} to track the busiest clients.
  */
 @Component
 public class RateLimitingFilter extends OncePerRequestFilter {
 
     private static final Logger log = LoggerFactory.getLogger(RateLimitingFilter.class);
 
+    private static final String RESULT_ATTRIBUTE = RateLimitingFilter.class.getName() + ".RESULT";
+
+    static final String LIMIT_HEADER = "RateLimit-Limit";
+    static final String REMAINING_HEADER = "RateLimit-Remaining";
+    static final String RESET_HEADER = "RateLimit-Reset";
+
     private final RateLimiterService rateLimiterService;
+    private final RateLimiterProperties properties;
+    private final HeavyHitters heavyHitters;
+    private final LimitResolver limitResolver;
+    private volatile double encodedCapacity = Double.NaN;
+    private volatile String limitValue;
 
-    public RateLimitingFilter(RateLimiterService rateLimiterService) {
+    public RateLimitingFilter(RateLimiterService rateLimiterService, RateLimiterProperties properties,
+                              ObjectProvider<HeavyHitters> heavyHitters, LimitResolver limitResolver) {
         this.rateLimiterService = rateLimiterService;
+        this.properties = properties;
+        this.heavyHitters = heavyHitters.getIfAvailable();
+        this.limitResolver = limitResolver;
+    }
+
+    /**
+     * Management endpoints are not rate limited: a metrics scraper or health probe must keep working while
+     * its address is over the limit. Decided on the path the container mapped the request by, so that
+     * {@code /actuator/..;/api} is not mistaken for one.
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return LimitResolver.pathWithinApplication(request).startsWith("/actuator/");
+    }
+
+    /**
+     * Async mode resumes through an ASYNC dispatch, which must reach this filter to apply the decision.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
     }
 
     @Override
@@ -40,14 +96,62 @@ public class RateLimitingFilter extends OncePerRequestFilter {
             FilterChain filterChain
     ) throws ServletException, IOException {
 
+        if (isAsyncDispatch(request)) {
+            RateLimitResult decided = (RateLimitResult) request.getAttribute(RESULT_ATTRIBUTE);
+            if (decided == null) {
+                // Async processing started further down the chain; it was already rate limited.
+                filterChain.doFilter(request, response);
+            } else {
+                applyDecision(decided, extractClientId(request), request, response, filterChain);
+            }
+            return;
+        }
+
         String clientId = extractClientId(request);
+        List<LimitBucket> limits = limitResolver.resolve(request, clientId);
+
+        if (properties.getAsync().isEnabled() && request.isAsyncSupported()) {
+            AsyncContext asyncContext = request.startAsync(request, response);
+            AtomicBoolean dispatched = new AtomicBoolean();
+            // The service applies its own timeout; this is only a backstop for a lost completion.
+            asyncContext.setTimeout(properties.getAsync().getTimeout().toMillis() * 2);
+            asyncContext.addListener(new DecisionTimeout(asyncContext, clientId, dispatched));
+            rateLimiterService.checkAsync(clientId, limits).thenAccept(decided ->
+                    dispatch(asyncContext, decided, dispatched));
+            return;
+        }
 
-        RateLimitResult result = rateLimiterService.check(clientId);
+        applyDecision(rateLimiterService.check(clientId, limits), clientId, request, response, filterChain);
+    }
+
+    /**
+     * Resumes the request with its decision, unless the decision or the timeout already did.
+     */
+    private static void dispatch(AsyncContext asyncContext, RateLimitResult decided, AtomicBoolean dispatched) {
+        if (dispatched.compareAndSet(false, true)) {
+            asyncContext.getRequest().setAttribute(RESULT_ATTRIBUTE, decided);
+            asyncContext.dispatch();
+        }
+    }
+
+    private void applyDecision(
+            RateLimitResult result,
+            String clientId,
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+
+        if (heavyHitters != null) {
+            heavyHitters.record(clientId, result.getDecision() == RateLimitDecision.REJECT_RATE_LIMITED);
+        }
 
         if (result.getDecision() == RateLimitDecision.ALLOW) {
             // Optionally expose remaining tokens / degraded mode via headers for observability.
             if (result.isDegraded()) {
                 response.setHeader("X-RateLimit-Degraded", "true");
+            } else {
+                writeLimitHeaders(result, response);
             }
             filterChain.doFilter(request, response);
             return;
@@ -56,9 +160,17 @@ public class RateLimitingFilter extends OncePerRequestFilter {
         if (result.getDecision() == RateLimitDecision.REJECT_RATE_LIMITED) {
             // Standard 429 semantics when the client has exceeded its budget.
             response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
-            // Retry-After is intentionally simple here; for a precise value we would
-            // compute how long until the bucket refills enough for one token.
-            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            if (result.isDegraded()) {
+                // Decided by the per-node fallback limiter: its bucket is not the client's real budget.
+                response.setHeader("X-RateLimit-Degraded", "true");
+            } else {
+                writeLimitHeaders(result, response);
+            }
+            long retryAfterMillis = result.getRetryAfterMillis();
+            if (retryAfterMillis != RateLimitResult.UNKNOWN) {
+                // At least one second: a zero wait only happens at a refill boundary, and 0 invites a hot loop.
+                response.setHeader(HttpHeaders.RETRY_AFTER, HeaderValues.seconds(Math.max(1000L, retryAfterMillis)));
+            }
             response.getWriter().write("Too Many Requests");
             return;
         }
@@ -76,6 +188,32 @@ public class RateLimitingFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    private void writeLimitHeaders(RateLimitResult result, HttpServletResponse response) {
+        double limit = result.getLimit();
+        response.setHeader(LIMIT_HEADER, Double.isNaN(limit) ? limitValue() : HeaderValues.tokens(limit));
+        response.setHeader(REMAINING_HEADER, HeaderValues.tokens(result.getRemainingTokens()));
+        long resetMillis = result.getResetMillis();
+        if (resetMillis != RateLimitResult.UNKNOWN) {
+            response.setHeader(RESET_HEADER, HeaderValues.seconds(resetMillis));
+        }
+    }
+
+    /**
+     * Capacity as a header value, re-encoded only when the configuration changes.
+     */
+    private String limitValue() {
+        double capacity = properties.getCapacity();
+        // Read in the reverse order of the writes below so a matching capacity implies its value is visible.
+        double encoded = encodedCapacity;
+        String value = limitValue;
+        if (value == null || Double.compare(capacity, encoded) != 0) {
+            value = HeaderValues.tokens(capacity);
+            limitValue = value;
+            encodedCapacity = capacity;
+        }
+        return value;
+    }
+
     private String extractClientId(HttpServletRequest request) {
         String apiKey = request.getHeader("X-API-Key");
         if (apiKey != null && !apiKey.isBlank()) {
@@ -84,6 +222,40 @@ public class RateLimitingFilter extends OncePerRequestFilter {
         String ip = request.getRemoteAddr();
         return "ip:" + ip;
     }
-}
 
+    /**
+     * Decides a suspended request the container timed out before its decision arrived. Dispatching ends the
+     * async cycle, so the container does not answer the request with its own error page.
+     */
+    private final class DecisionTimeout implements AsyncListener {
 
+        private final AsyncContext asyncContext;
+        private final String clientId;
+        private final AtomicBoolean dispatched;
+
+        private DecisionTimeout(AsyncContext asyncContext, String clientId, AtomicBoolean dispatched) {
+            this.asyncContext = asyncContext;
+            this.clientId = clientId;
+            this.dispatched = dispatched;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (!dispatched.get()) {
+                dispatch(asyncContext, rateLimiterService.decisionTimedOut(clientId), dispatched);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
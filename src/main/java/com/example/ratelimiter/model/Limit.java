@@ -0,0 +1,43 @@
+package com.example.ratelimiter.model;
+
+/**
+ * An additional bucket definition a request can be checked against besides its client's own bucket, e.g.
+ * a tenant quota or a global limit on one route. Immutable; backends may cache derived data per instance.
+ */
+public final class Limit {
+
+    private final String name;
+    private final double capacity;
+    private final double refillRatePerSecond;
+    private final boolean slidingWindow;
+
+    public Limit(String name, double capacity, double refillRatePerSecond, boolean slidingWindow) {
+        this.name = name;
+        this.capacity = capacity;
+        this.refillRatePerSecond = refillRatePerSecond;
+        this.slidingWindow = slidingWindow;
+    }
+
+    /**
+     * @return identifier of the limit, part of its bucket keys
+     */
+    public String getName() {
+        return name;
+    }
+
+    public double getCapacity() {
+        return capacity;
+    }
+
+    public double getRefillRatePerSecond() {
+        return refillRatePerSecond;
+    }
+
+    /**
+     * @return true if the limit allows {@code capacity} requests per {@code capacity / refillRatePerSecond}
+     * seconds with a sliding-window counter instead of a token bucket
+     */
+    public boolean isSlidingWindow() {
+        return slidingWindow;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.ratelimiter.model;
+
+/**
+ * One bucket of a {@link Limit} that applies to a request: the limit plus the identity its bucket is kept
+ * for (a client id, a tenant, or a constant for limits shared by everyone).
+ */
+public final class LimitBucket {
+
+    private final Limit limit;
+    private final String scopeId;
+
+    public LimitBucket(Limit limit, String scopeId) {
+        this.limit = limit;
+        this.scopeId = scopeId;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+
+    public String getScopeId() {
+        return scopeId;
+    }
+}
@@ -2,29 +2,104 @@ package com.example.ratelimiter.model;
 
 /**
  * Result returned by the rate limiter for a single request.
+ * <p>
+ * Instances are immutable. Outcomes that carry no per-request data, and allowed/rejected outcomes with a
+ * small whole number of remaining tokens and timing that is only {@code 0} or {@link #UNKNOWN} (e.g. a
+ * bucket that never refills), are shared so the hot path does not allocate for them.
+ * <p>
+ * Results decided by a backend also carry timing: how long until {@code cost} tokens are available again
+ * ({@link #getRetryAfterMillis()}) and until the bucket is full ({@link #getResetMillis()}), both measured
+ * from the decision and after it was applied. {@link #UNKNOWN} means the backend could not tell, or that
+ * the bucket never gets there (no refill).
+ * <p>
+ * When a request was checked against several buckets, the numbers describe the most restrictive one and
+ * {@link #getLimit()} its capacity.
  */
 public class RateLimitResult {
 
+    /**
+     * Timing that is not known, or never reached.
+     */
+    public static final long UNKNOWN = -1L;
+
+    private static final int CACHED_TOKENS = 256;
+
+    private static final RateLimitResult REDIS_FAILURE =
+            new RateLimitResult(RateLimitDecision.REJECT_REDIS_FAILURE, 0.0, UNKNOWN, UNKNOWN, true);
+
+    private static final RateLimitResult DEGRADED_ALLOW =
+            new RateLimitResult(RateLimitDecision.ALLOW, Double.NaN, UNKNOWN, UNKNOWN, true);
+
+    /**
+     * Allowed, then rejected results; per decision four timing shapes (retry-after and reset each
+     * {@link #UNKNOWN} or {@code 0}) of {@link #CACHED_TOKENS} entries. Filled on first use: a racing
+     * duplicate is harmless, the instances being immutable.
+     */
+    private static final RateLimitResult[] CACHE = new RateLimitResult[2 * 4 * CACHED_TOKENS];
+
     private final RateLimitDecision decision;
     private final double remainingTokens;
+    private final long retryAfterMillis;
+    private final long resetMillis;
     private final boolean degraded;
+    private final double limit;
 
     public RateLimitResult(RateLimitDecision decision, double remainingTokens, boolean degraded) {
+        this(decision, remainingTokens, UNKNOWN, UNKNOWN, degraded);
+    }
+
+    public RateLimitResult(RateLimitDecision decision, double remainingTokens, long retryAfterMillis,
+                           long resetMillis, boolean degraded) {
+        this(decision, remainingTokens, retryAfterMillis, resetMillis, degraded, Double.NaN);
+    }
+
+    private RateLimitResult(RateLimitDecision decision, double remainingTokens, long retryAfterMillis,
+                            long resetMillis, boolean degraded, double limit) {
         this.decision = decision;
         this.remainingTokens = remainingTokens;
+        this.retryAfterMillis = retryAfterMillis;
+        this.resetMillis = resetMillis;
         this.degraded = degraded;
+        this.limit = limit;
     }
 
     public static RateLimitResult allow(double remainingTokens, boolean degraded) {
-        return new RateLimitResult(RateLimitDecision.ALLOW, remainingTokens, degraded);
+        if (degraded) {
+            return Double.isNaN(remainingTokens)
+                    ? DEGRADED_ALLOW
+                    : new RateLimitResult(RateLimitDecision.ALLOW, remainingTokens, UNKNOWN, UNKNOWN, true);
+        }
+        return allow(remainingTokens, UNKNOWN, UNKNOWN);
+    }
+
+    public static RateLimitResult allow(double remainingTokens, long retryAfterMillis, long resetMillis) {
+        return of(RateLimitDecision.ALLOW, remainingTokens, retryAfterMillis, resetMillis);
     }
 
     public static RateLimitResult rejectRateLimited(double remainingTokens) {
-        return new RateLimitResult(RateLimitDecision.REJECT_RATE_LIMITED, remainingTokens, false);
+        return rejectRateLimited(remainingTokens, UNKNOWN, UNKNOWN);
+    }
+
+    public static RateLimitResult rejectRateLimited(double remainingTokens, long retryAfterMillis, long resetMillis) {
+        return of(RateLimitDecision.REJECT_RATE_LIMITED, remainingTokens, retryAfterMillis, resetMillis);
     }
 
     public static RateLimitResult rejectRedisFailure() {
-        return new RateLimitResult(RateLimitDecision.REJECT_REDIS_FAILURE, 0.0, true);
+        return REDIS_FAILURE;
+    }
+
+    /**
+     * @return this outcome flagged as degraded, e.g. when it was decided by a local fallback limiter.
+     */
+    public RateLimitResult asDegraded() {
+        return degraded ? this : new RateLimitResult(decision, remainingTokens, retryAfterMillis, resetMillis, true, limit);
+    }
+
+    /**
+     * @return this outcome as decided by a bucket of {@code capacity} other than the client's own.
+     */
+    public RateLimitResult withLimit(double capacity) {
+        return new RateLimitResult(decision, remainingTokens, retryAfterMillis, resetMillis, degraded, capacity);
     }
 
     public RateLimitDecision getDecision() {
@@ -35,6 +110,21 @@ public class RateLimitResult {
         return remainingTokens;
     }
 
+    /**
+     * @return milliseconds until {@code cost} tokens are available, {@code 0} if they already are, or
+     * {@link #UNKNOWN}.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return milliseconds until the bucket is full again, or {@link #UNKNOWN}.
+     */
+    public long getResetMillis() {
+        return resetMillis;
+    }
+
     /**
      * @return true if the result was produced while the system was in a degraded mode
      * (for example, Redis was unavailable and we had to fall back to a fail-open policy).
@@ -42,6 +132,39 @@ public class RateLimitResult {
     public boolean isDegraded() {
         return degraded;
     }
-}
 
+    /**
+     * @return capacity of the bucket this result describes, or {@code NaN} for the client's own bucket
+     * (the configured capacity).
+     */
+    public double getLimit() {
+        return limit;
+    }
+
+    private static RateLimitResult of(RateLimitDecision decision, double remainingTokens, long retryAfterMillis,
+                                      long resetMillis) {
+        int index = cacheIndex(decision, remainingTokens, retryAfterMillis, resetMillis);
+        if (index < 0) {
+            return new RateLimitResult(decision, remainingTokens, retryAfterMillis, resetMillis, false);
+        }
+        RateLimitResult cached = CACHE[index];
+        if (cached == null) {
+            cached = new RateLimitResult(decision, remainingTokens, retryAfterMillis, resetMillis, false);
+            CACHE[index] = cached;
+        }
+        return cached;
+    }
 
+    private static int cacheIndex(RateLimitDecision decision, double remainingTokens, long retryAfterMillis,
+                                  long resetMillis) {
+        int whole = (int) remainingTokens;
+        if (whole != remainingTokens || whole < 0 || whole >= CACHED_TOKENS
+                || (retryAfterMillis != 0 && retryAfterMillis != UNKNOWN)
+                || (resetMillis != 0 && resetMillis != UNKNOWN)) {
+            return -1;
+        }
+        int shape = (decision == RateLimitDecision.ALLOW ? 0 : 4) + (retryAfterMillis == 0 ? 2 : 0)
+                + (resetMillis == 0 ? 1 : 0);
+        return shape * CACHED_TOKENS + whole;
+    }
+}
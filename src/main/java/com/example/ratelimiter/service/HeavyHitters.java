@@ -0,0 +1,266 @@
+package com.example.ratelimiter.service;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streaming top-K of the clients sending the most requests, in constant memory.
+ *
+ * Each window keeps two count-min sketches ({@code depth} rows of {@code width} atomic counters), one for
+ * requests and one for rate-limit rejections, plus a table of the {@code top-k} clients with the highest
+ * request estimates seen so far. A request increments one counter per row and reads back the minimum as
+ * the client's estimate; only a client whose estimate beats the smallest one in the table (kept in a
+ * volatile field) scans the table, so the long tail costs {@code depth} atomic increments and nothing else.
+ * Estimates never undercount; they overcount by at most {@code e * requests / width} with probability
+ * {@code 1 - e^-depth}. Updates are lock-free: counters are atomic and table slots are swapped by CAS.
+ *
+ * Windows last {@code window}; the report describes the last complete one (or the current one until the
+ * first has completed), so rates are not skewed by a window that just started.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter.heavy-hitters", name = "enabled", havingValue = "true")
+public class HeavyHitters {
+
+    private final int topK;
+    private final int width;
+    private final int depth;
+    private final long windowNanos;
+    private final AtomicReference<Window> current;
+    private volatile Window previous;
+
+    public HeavyHitters(RateLimiterProperties properties) {
+        RateLimiterProperties.HeavyHitters config = properties.getHeavyHitters();
+        this.topK = Math.max(1, config.getTopK());
+        this.width = Integer.highestOneBit(Math.max(2, config.getSketchWidth() - 1)) << 1;
+        this.depth = Math.max(1, config.getSketchDepth());
+        this.windowNanos = Math.max(1L, config.getWindow().toNanos());
+        this.current = new AtomicReference<>(new Window(System.nanoTime()));
+    }
+
+    /**
+     * Count one request of {@code clientId}.
+     *
+     * @param rateLimited whether the request was rejected because the client is over its limit
+     */
+    public void record(String clientId, boolean rateLimited) {
+        Window window = currentWindow(System.nanoTime());
+        window.total.increment();
+        int h1 = clientId.hashCode();
+        int h2 = mix(h1);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = row * width + ((h1 + row * h2) & (width - 1));
+            estimate = Math.min(estimate, window.requests.incrementAndGet(index));
+            if (rateLimited) {
+                window.rejections.incrementAndGet(index);
+            }
+        }
+        if (estimate > window.admission) {
+            window.offer(clientId, h1, estimate);
+        }
+    }
+
+    /**
+     * @return the heaviest clients of the last complete window, heaviest first
+     */
+    public Report report() {
+        long now = System.nanoTime();
+        Window window = currentWindow(now);
+        Window reported = previous;
+        long windowEnd = window.startNanos;
+        if (reported == null) {
+            reported = window;
+            windowEnd = now;
+        }
+        double seconds = Math.max(1L, windowEnd - reported.startNanos) / 1e9;
+        List<Client> clients = new ArrayList<>(topK);
+        for (int i = 0; i < topK; i++) {
+            Candidate candidate = reported.candidates.get(i);
+            if (candidate == null || isListed(clients, candidate.clientId)) {
+                // Two racing inserts of the same client can leave it in two slots.
+                continue;
+            }
+            long requests = reported.estimate(reported.requests, candidate.hash);
+            long rejections = Math.min(requests, reported.estimate(reported.rejections, candidate.hash));
+            clients.add(new Client(candidate.clientId, requests, requests / seconds,
+                    requests > 0 ? (double) rejections / requests : 0.0));
+        }
+        clients.sort(Comparator.comparingLong(Client::getRequests).reversed());
+        return new Report(seconds, reported.total.sum(), clients);
+    }
+
+    private static boolean isListed(List<Client> clients, String clientId) {
+        for (Client client : clients) {
+            if (client.clientId.equals(clientId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Window currentWindow(long now) {
+        Window window = current.get();
+        if (now - window.startNanos < windowNanos) {
+            return window;
+        }
+        Window next = new Window(now);
+        if (current.compareAndSet(window, next)) {
+            previous = window;
+            return next;
+        }
+        return current.get();
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 15)) | 1;
+    }
+
+    private final class Window {
+        private final long startNanos;
+        private final AtomicLongArray requests = new AtomicLongArray(depth * width);
+        private final AtomicLongArray rejections = new AtomicLongArray(depth * width);
+        private final AtomicReferenceArray<Candidate> candidates = new AtomicReferenceArray<>(topK);
+        private final LongAdder total = new LongAdder();
+        // Smallest estimate in a full table; 0 while there are free slots.
+        private volatile long admission;
+
+        private Window(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        private long estimate(AtomicLongArray sketch, int h1) {
+            int h2 = mix(h1);
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                estimate = Math.min(estimate, sketch.get(row * width + ((h1 + row * h2) & (width - 1))));
+            }
+            return estimate;
+        }
+
+        private void offer(String clientId, int hash, long estimate) {
+            int victim = -1;
+            Candidate smallest = null;
+            for (int i = 0; i < topK; i++) {
+                Candidate candidate = candidates.get(i);
+                if (candidate == null) {
+                    if (victim < 0 || smallest != null) {
+                        victim = i;
+                        smallest = null;
+                    }
+                    continue;
+                }
+                if (candidate.hash == hash && candidate.clientId.equals(clientId)) {
+                    // Racy but monotonic enough: a lost update is overwritten by the client's next request.
+                    candidate.estimate = Math.max(candidate.estimate, estimate);
+                    return;
+                }
+                if (victim < 0 || (smallest != null && candidate.estimate < smallest.estimate)) {
+                    victim = i;
+                    smallest = candidate;
+                }
+            }
+            if (smallest != null && smallest.estimate >= estimate) {
+                // The table is full and the scan found its minimum; stop scanning for clients below it.
+                admission = smallest.estimate;
+                return;
+            }
+            if (candidates.compareAndSet(victim, smallest, new Candidate(clientId, hash, estimate))) {
+                updateAdmission();
+            }
+        }
+
+        private void updateAdmission() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < topK; i++) {
+                Candidate candidate = candidates.get(i);
+                if (candidate == null) {
+                    return;
+                }
+                min = Math.min(min, candidate.estimate);
+            }
+            admission = min;
+        }
+    }
+
+    private static final class Candidate {
+        private final String clientId;
+        private final int hash;
+        private volatile long estimate;
+
+        private Candidate(String clientId, int hash, long estimate) {
+            this.clientId = clientId;
+            this.hash = hash;
+            this.estimate = estimate;
+        }
+    }
+
+    /**
+     * Top-K of one window, as returned by the actuator endpoint.
+     */
+    public static final class Report {
+        private final double windowSeconds;
+        private final long totalRequests;
+        private final List<Client> clients;
+
+        Report(double windowSeconds, long totalRequests, List<Client> clients) {
+            this.windowSeconds = windowSeconds;
+            this.totalRequests = totalRequests;
+            this.clients = clients;
+        }
+
+        public double getWindowSeconds() {
+            return windowSeconds;
+        }
+
+        public long getTotalRequests() {
+            return totalRequests;
+        }
+
+        public List<Client> getClients() {
+            return clients;
+        }
+    }
+
+    /**
+     * Estimated traffic of one heavy client; counts may be slightly overestimated, never under.
+     */
+    public static final class Client {
+        private final String clientId;
+        private final long requests;
+        private final double requestsPerSecond;
+        private final double rejectionRatio;
+
+        Client(String clientId, long requests, double requestsPerSecond, double rejectionRatio) {
+            this.clientId = clientId;
+            this.requests = requests;
+            this.requestsPerSecond = requestsPerSecond;
+            this.rejectionRatio = rejectionRatio;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        public double getRejectionRatio() {
+            return rejectionRatio;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.ratelimiter.service;
+
+import com.example.ratelimiter.model.RateLimitDecision;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters of {@link RateLimiterService}.
+ *
+ * Every meter is registered up front, one per tag combination, and looked up by index afterwards: tags are
+ * closed sets (decision, degraded, outcome, error type), so cardinality is fixed and recording a request
+ * neither builds tags nor allocates.
+ *
+ * <ul>
+ *   <li>{@code ratelimiter.decisions}: counter per {@code decision} and {@code degraded}, including
+ *   rejections served by the negative cache.</li>
+ *   <li>{@code ratelimiter.backend.latency}: timer around each backend evaluation (the script round trip
+ *   for the Redis backend) per {@code outcome}, with a percentile histogram and client-side percentiles.</li>
+ *   <li>{@code ratelimiter.backend.errors}: counter per error {@code type}.</li>
+ *   <li>{@code ratelimiter.checks.in-flight}: gauge of backend evaluations currently pending.</li>
+ * </ul>
+ */
+class RateLimiterMetrics {
+
+    private static final RateLimitDecision[] DECISIONS = RateLimitDecision.values();
+
+    private final Counter[] decisions = new Counter[DECISIONS.length * 2];
+    private final Timer successLatency;
+    private final Timer errorLatency;
+    private final Counter connectionErrors;
+    private final Counter timeoutErrors;
+    private final Counter dataAccessErrors;
+    private final Counter otherErrors;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    RateLimiterMetrics(MeterRegistry registry) {
+        for (RateLimitDecision decision : DECISIONS) {
+            for (boolean degraded : new boolean[] {false, true}) {
+                decisions[index(decision, degraded)] = Counter.builder("ratelimiter.decisions")
+                        .description("Rate limit decisions")
+                        .tag("decision", decision.name().toLowerCase(Locale.ROOT))
+                        .tag("degraded", Boolean.toString(degraded))
+                        .register(registry);
+            }
+        }
+        this.successLatency = latencyTimer(registry, "success");
+        this.errorLatency = latencyTimer(registry, "error");
+        this.connectionErrors = errorCounter(registry, "connection");
+        this.timeoutErrors = errorCounter(registry, "timeout");
+        this.dataAccessErrors = errorCounter(registry, "data-access");
+        this.otherErrors = errorCounter(registry, "other");
+        Gauge.builder("ratelimiter.checks.in-flight", inFlight, AtomicInteger::get)
+                .description("Backend evaluations currently pending")
+                .register(registry);
+    }
+
+    /**
+     * @return the start timestamp to pass to {@link #backendSucceeded} or {@link #backendFailed}.
+     */
+    long backendStarted() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds.
+     */
+    long backendSucceeded(long startNanos) {
+        inFlight.decrementAndGet();
+        long elapsed = System.nanoTime() - startNanos;
+        successLatency.record(elapsed, TimeUnit.NANOSECONDS);
+        return elapsed;
+    }
+
+    void backendFailed(long startNanos, Throwable error) {
+        inFlight.decrementAndGet();
+        errorLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        errorCounter(error).increment();
+    }
+
+    RateLimitResult recordDecision(RateLimitResult result) {
+        decisions[index(result.getDecision(), result.isDegraded())].increment();
+        return result;
+    }
+
+    private Counter errorCounter(Throwable error) {
+        if (error instanceof RedisConnectionFailureException) {
+            return connectionErrors;
+        }
+        if (error instanceof QueryTimeoutException || error instanceof TimeoutException) {
+            return timeoutErrors;
+        }
+        if (error instanceof DataAccessException) {
+            return dataAccessErrors;
+        }
+        return otherErrors;
+    }
+
+    private static int index(RateLimitDecision decision, boolean degraded) {
+        return decision.ordinal() * 2 + (degraded ? 1 : 0);
+    }
+
+    private static Timer latencyTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("ratelimiter.backend.latency")
+                .description("Time spent evaluating a rate limit in the backend")
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(5))
+                .register(registry);
+    }
+
+    private static Counter errorCounter(MeterRegistry registry, String type) {
+        return Counter.builder("ratelimiter.backend.errors")
+                .description("Backend errors while evaluating a rate limit")
+                .tag("type", type)
+                .register(registry);
+    }
+}
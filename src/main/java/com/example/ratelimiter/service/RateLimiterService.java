@@ -1,52 +1,62 @@
 package com.example.ratelimiter.service;
 
+import com.example.ratelimiter.backend.RateLimiterBackend;
 import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.LimitBucket;
+import com.example.ratelimiter.model.RateLimitDecision;
 import com.example.ratelimiter.model.RateLimitResult;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import java.time.Clock;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Stateless service that evaluates rate limits for a given client identifier by
- * delegating to a Lua script running inside Redis.
+ * delegating to a {@link RateLimiterBackend} (by default, a Lua script running inside Redis).
  *
- * All concurrency control lives inside the Lua script. This service is mostly responsible for:
- *  - building the correct Redis key
- *  - passing parameters
- *  - translating the script result into a domain-level decision
- *  - defining the behavior when Redis is unavailable (fail-open vs fail-closed)
+ * All concurrency control lives inside the backend. This service is mostly responsible for:
+ *  - short-circuiting clients known to be out of tokens ({@link RejectionCache}, when enabled)
+ *  - defining the behavior when the backend is unavailable (fail-open vs fail-closed, or a local
+ *    fallback limiter behind {@link RedisCircuitBreaker}, when enabled)
+ *  - recording decisions, backend latency and errors ({@link RateLimiterMetrics})
  */
 @Service
 public class RateLimiterService {
 
     private static final Logger log = LoggerFactory.getLogger(RateLimiterService.class);
 
-    private final StringRedisTemplate redisTemplate;
-    private final DefaultRedisScript<List> rateLimiterScript;
+    private final RateLimiterBackend backend;
     private final RateLimiterProperties properties;
     private final Clock clock;
-
+    private final RejectionCache rejectionCache;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final RateLimiterMetrics metrics;
 
     @Autowired
     public RateLimiterService(
-            StringRedisTemplate redisTemplate,
-            DefaultRedisScript<List> rateLimiterScript,
+            RateLimiterBackend backend,
             RateLimiterProperties properties,
-            Clock clock
+            Clock clock,
+            ObjectProvider<RejectionCache> rejectionCache,
+            ObjectProvider<RedisCircuitBreaker> circuitBreaker,
+            MeterRegistry meterRegistry
     ) {
-        this.redisTemplate = redisTemplate;
-        this.rateLimiterScript = rateLimiterScript;
+        this.backend = backend;
         this.properties = properties;
         this.clock = clock;
+        this.rejectionCache = rejectionCache.getIfAvailable();
+        this.circuitBreaker = circuitBreaker.getIfAvailable();
+        this.metrics = new RateLimiterMetrics(meterRegistry);
     }
 
 
@@ -56,56 +66,148 @@ public class RateLimiterService {
      * @param clientId unique identifier for the client (e.g. API key, userId, IP).
      */
     public RateLimitResult check(String clientId) {
-        String key = "rate_limiter:" + clientId;
+        return check(clientId, List.of());
+    }
 
-        List<String> keys = Collections.singletonList(key);
-        String capacity = Double.toString(properties.getCapacity());
-        String refillRate = Double.toString(properties.getRefillRatePerSecond());
-        String cost = Double.toString(properties.getCostPerRequest());
-        String now = Long.toString(clock.millis());
+    /**
+     * Evaluate one request against the client's bucket and the buckets of {@code limits}, all of which must
+     * allow it. The local fallback behind {@link RedisCircuitBreaker} only enforces the client's bucket.
+     */
+    public RateLimitResult check(String clientId, List<LimitBucket> limits) {
+        long nowMillis = clock.millis();
 
-        try {
-            Object result = redisTemplate.execute(
-                    rateLimiterScript,
-                    keys,
-                    capacity,
-                    refillRate,
-                    cost,
-                    now
-            );
-
-            if (!(result instanceof List<?> listResult) || listResult.size() < 2) {
-                // Defensive: unexpected script return type; treat as infrastructure failure.
-                log.error("Unexpected Lua script result for client {}: {}", clientId, result);
-                return handleRedisFailure();
+        if (rejectionCache != null) {
+            RateLimitResult cached = rejectionCache.get(clientId, nowMillis);
+            if (cached != null) {
+                return metrics.recordDecision(cached);
             }
+        }
 
-            Object allowedRaw = listResult.get(0);
-            Object tokensRaw = listResult.get(1);
+        int domain = circuitBreaker != null ? backend.failureDomain(clientId) : 0;
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission(domain)) {
+            return metrics.recordDecision(circuitBreaker.fallback(clientId, nowMillis));
+        }
 
-            long allowedFlag = toLong(allowedRaw);
-            double remainingTokens = toDouble(tokensRaw);
+        long start = metrics.backendStarted();
+        RateLimitResult result;
+        try {
+            result = backend.tryAcquire(clientId, limits, nowMillis);
+        } catch (RuntimeException ex) {
+            metrics.backendFailed(start, ex);
+            return metrics.recordDecision(handleBackendFailure(clientId, domain, ex, nowMillis));
+        }
+        backendSucceeded(start, domain);
+        return metrics.recordDecision(rememberRejection(clientId, result, nowMillis));
+    }
 
-            if (allowedFlag == 1L) {
-                return RateLimitResult.allow(remainingTokens, false);
-            } else {
-                return RateLimitResult.rejectRateLimited(remainingTokens);
+    /**
+     * The client's bucket as the next request would find it, without taking tokens. For inspection: no
+     * caches, no fallback, backend failures are thrown.
+     */
+    public RateLimitResult peek(String clientId) {
+        return backend.peek(clientId, clock.millis());
+    }
+
+    /**
+     * Non-blocking variant of {@link #check(String)} for callers that must not hold a thread while the
+     * backend is queried. The returned future always completes normally: backend errors and timeouts are
+     * translated by the same fail-open / fail-closed policy as the blocking path.
+     */
+    public CompletableFuture<RateLimitResult> checkAsync(String clientId) {
+        return checkAsync(clientId, List.of());
+    }
+
+    /**
+     * Non-blocking variant of {@link #check(String, List)}.
+     */
+    public CompletableFuture<RateLimitResult> checkAsync(String clientId, List<LimitBucket> limits) {
+        long nowMillis = clock.millis();
+
+        if (rejectionCache != null) {
+            RateLimitResult cached = rejectionCache.get(clientId, nowMillis);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(metrics.recordDecision(cached));
             }
-        } catch (RedisConnectionFailureException ex) {
+        }
+
+        int domain = circuitBreaker != null ? backend.failureDomain(clientId) : 0;
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission(domain)) {
+            return CompletableFuture.completedFuture(metrics.recordDecision(circuitBreaker.fallback(clientId, nowMillis)));
+        }
+
+        long start = metrics.backendStarted();
+        CompletableFuture<RateLimitResult> pending;
+        try {
+            pending = backend.tryAcquireAsync(clientId, limits, nowMillis);
+        } catch (RuntimeException ex) {
+            pending = CompletableFuture.failedFuture(ex);
+        }
+        return pending
+                .orTimeout(properties.getAsync().getTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .handle((result, error) -> {
+                    if (error == null) {
+                        backendSucceeded(start, domain);
+                        return metrics.recordDecision(rememberRejection(clientId, result, nowMillis));
+                    }
+                    Throwable cause = unwrap(error);
+                    metrics.backendFailed(start, cause);
+                    return metrics.recordDecision(handleBackendFailure(clientId, domain, cause, nowMillis));
+                });
+    }
+
+    /**
+     * The decision for a request whose {@link #checkAsync} result did not arrive in time, e.g. because the
+     * servlet container timed the request out first: the fail-open / fail-closed policy of a backend error.
+     */
+    public RateLimitResult decisionTimedOut(String clientId) {
+        log.warn("No rate limit decision for client {} before the request timed out. failOpenOnRedisError={}",
+                clientId, properties.isFailOpenOnRedisError());
+        return metrics.recordDecision(handleRedisFailure());
+    }
+
+    private RateLimitResult rememberRejection(String clientId, RateLimitResult result, long nowMillis) {
+        // Only the client's own bucket says anything about the client's next requests; a tenant or
+        // global limit may be released by someone else's traffic pattern.
+        if (rejectionCache != null && result.getDecision() == RateLimitDecision.REJECT_RATE_LIMITED
+                && Double.isNaN(result.getLimit())) {
+            rejectionCache.recordRejection(clientId, result, nowMillis);
+        }
+        return result;
+    }
+
+    private void backendSucceeded(long start, int domain) {
+        long elapsed = metrics.backendSucceeded(start);
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(domain, elapsed);
+        }
+    }
+
+    private RateLimitResult handleBackendFailure(String clientId, int domain, Throwable ex, long nowMillis) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure(domain);
+            // The breaker opens after enough failures; until then log without the stack trace to keep an
+            // incident from flooding the logs before it trips.
+            log.warn("Backend error while evaluating rate limit for client {}, using local fallback: {}",
+                    clientId, ex.toString());
+            return circuitBreaker.fallback(clientId, nowMillis);
+        }
+        if (ex instanceof RedisConnectionFailureException) {
             log.warn("Redis connection failure while evaluating rate limit for client {}. failOpenOnRedisError={}",
                     clientId, properties.isFailOpenOnRedisError(), ex);
-            return handleRedisFailure();
-        } catch (DataAccessException ex) {
+        } else if (ex instanceof DataAccessException) {
             // Catches script execution and other Redis-related errors.
             log.error("Redis data access error while evaluating rate limit for client {}. failOpenOnRedisError={}",
                     clientId, properties.isFailOpenOnRedisError(), ex);
-            return handleRedisFailure();
-        } catch (RuntimeException ex) {
+        } else {
             // Last resort; do not let rate limiting crash the request thread.
             log.error("Unexpected error while evaluating rate limit for client {}. failOpenOnRedisError={}",
                     clientId, properties.isFailOpenOnRedisError(), ex);
-            return handleRedisFailure();
         }
+        return handleRedisFailure();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
     private RateLimitResult handleRedisFailure() {
@@ -118,20 +220,4 @@ public class RateLimiterService {
             return RateLimitResult.rejectRedisFailure();
         }
     }
-
-    private long toLong(Object value) {
-        if (value instanceof Number number) {
-            return number.longValue();
-        }
-        return Long.parseLong(String.valueOf(value));
-    }
-
-    private double toDouble(Object value) {
-        if (value instanceof Number number) {
-            return number.doubleValue();
-        }
-        return Double.parseDouble(String.valueOf(value));
-    }
 }
-
-
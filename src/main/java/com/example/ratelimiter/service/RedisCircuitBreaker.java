@@ -0,0 +1,207 @@
+package com.example.ratelimiter.service;
+
+import com.example.ratelimiter.backend.InMemoryRateLimiterBackend;
+import com.example.ratelimiter.backend.RateLimiterBackend;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker around the backend call, with a per-node token bucket used while the backend is bypassed.
+ *
+ * CLOSED: calls go to the backend and outcomes are counted in fixed windows. A window with at least
+ * {@code minimumCalls} calls and a share of failures (errors or calls slower than {@code slowCallThreshold})
+ * at or above {@code failureRateThreshold} opens the breaker.
+ *
+ * OPEN: no backend calls for {@code openDuration}; requests are decided by the fallback limiter, so they
+ * neither wait for connection timeouts nor log one stack trace each.
+ *
+ * HALF_OPEN: up to {@code halfOpenProbes} calls probe the backend while the rest keep using the fallback.
+ * That many successes close the breaker; a single failure opens it again.
+ *
+ * The fallback enforces {@code capacity / expectedNodeCount} and {@code refillRate / expectedNodeCount} per
+ * node, which approximates the shared limit when traffic is spread evenly. Its decisions are flagged as
+ * degraded. State lives in one immutable snapshot swapped by CAS plus atomic counters inside it; no locks.
+ *
+ * A backend made of independently failing parts ({@link RateLimiterBackend#failureDomains()}, e.g. the
+ * instances of the sharded backend) gets one circuit per part, so one instance going down only moves its own
+ * clients to the fallback. Callers pass the part of the client, {@link RateLimiterBackend#failureDomain}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter.circuit-breaker", name = "enabled", havingValue = "true")
+public class RedisCircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    enum Mode {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long windowNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final InMemoryRateLimiterBackend fallback;
+    private final Circuit[] circuits;
+
+    public RedisCircuitBreaker(RateLimiterProperties properties, RateLimiterBackend backend,
+                               MeterRegistry meterRegistry) {
+        RateLimiterProperties.CircuitBreaker config = properties.getCircuitBreaker();
+        this.failureRateThreshold = config.getFailureRateThreshold();
+        this.slowCallNanos = config.getSlowCallThreshold().toNanos();
+        this.minimumCalls = Math.max(1, config.getMinimumCalls());
+        this.windowNanos = Math.max(1L, config.getWindow().toNanos());
+        this.openNanos = config.getOpenDuration().toNanos();
+        this.halfOpenProbes = Math.max(1, config.getHalfOpenProbes());
+        int nodes = Math.max(1, config.getExpectedNodeCount());
+        this.fallback = new InMemoryRateLimiterBackend(
+                properties.getCapacity() / nodes,
+                properties.getRefillRatePerSecond() / nodes,
+                properties.getCostPerRequest()
+        );
+        this.circuits = new Circuit[Math.max(1, backend.failureDomains())];
+        for (int i = 0; i < circuits.length; i++) {
+            circuits[i] = new Circuit(circuits.length == 1 ? "" : " for shard " + i);
+            Gauge.builder("ratelimiter.circuit.state", circuits[i].state, s -> s.get().mode.ordinal())
+                    .description("Backend circuit breaker state: 0 closed, 1 open, 2 half-open")
+                    .tags(circuits.length == 1 ? Tags.empty() : Tags.of("shard", Integer.toString(i)))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * @param domain the client's part of the backend, see {@link RateLimiterBackend#failureDomain}
+     * @return true if the caller may call the backend and must report the outcome with {@link #onSuccess}
+     * or {@link #onFailure}; false if it must use {@link #fallback} instead.
+     */
+    public boolean tryAcquirePermission(int domain) {
+        return circuits[domain].tryAcquirePermission();
+    }
+
+    /**
+     * Report a completed backend call; slow calls count as failures.
+     */
+    public void onSuccess(int domain, long durationNanos) {
+        circuits[domain].record(durationNanos >= slowCallNanos);
+    }
+
+    public void onFailure(int domain) {
+        circuits[domain].record(true);
+    }
+
+    /**
+     * Decide locally with this node's share of the limit.
+     */
+    public RateLimitResult fallback(String clientId, long nowMillis) {
+        return fallback.tryAcquire(clientId, nowMillis).asDegraded();
+    }
+
+    Mode mode(int domain) {
+        return circuits[domain].state.get().mode;
+    }
+
+    /**
+     * The state machine of one part of the backend.
+     */
+    private final class Circuit {
+
+        private final String name;
+        private final AtomicReference<State> state =
+                new AtomicReference<>(new State(Mode.CLOSED, System.nanoTime()));
+
+        /**
+         * @param name appended to "circuit" in log messages
+         */
+        private Circuit(String name) {
+            this.name = name;
+        }
+
+        private boolean tryAcquirePermission() {
+            long now = System.nanoTime();
+            State current = state.get();
+            switch (current.mode) {
+                case CLOSED -> {
+                    if (now - current.sinceNanos >= windowNanos) {
+                        // Start a fresh window; losing the race means another caller already did.
+                        state.compareAndSet(current, new State(Mode.CLOSED, now));
+                    }
+                    return true;
+                }
+                case OPEN -> {
+                    if (now - current.sinceNanos < openNanos) {
+                        return false;
+                    }
+                    State probing = new State(Mode.HALF_OPEN, now);
+                    if (state.compareAndSet(current, probing)) {
+                        log.info("Rate limiter backend circuit{} half-open, probing with up to {} call(s)", name,
+                                halfOpenProbes);
+                    }
+                    return tryAcquirePermission();
+                }
+                default -> {
+                    if (current.calls.incrementAndGet() <= halfOpenProbes) {
+                        return true;
+                    }
+                    current.calls.decrementAndGet();
+                    return false;
+                }
+            }
+        }
+
+        private void record(boolean failed) {
+            State current = state.get();
+            switch (current.mode) {
+                case CLOSED -> {
+                    int calls = current.calls.incrementAndGet();
+                    int failures = failed ? current.failures.incrementAndGet() : current.failures.get();
+                    if (failed && calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+                        open(current, "failure rate " + failures + "/" + calls);
+                    }
+                }
+                case HALF_OPEN -> {
+                    if (failed) {
+                        open(current, "failed probe");
+                    } else if (current.successes.incrementAndGet() >= halfOpenProbes
+                            && state.compareAndSet(current, new State(Mode.CLOSED, System.nanoTime()))) {
+                        log.info("Rate limiter backend circuit{} closed", name);
+                    }
+                }
+                default -> {
+                    // Outcome of a call admitted before the breaker opened.
+                }
+            }
+        }
+
+        private void open(State from, String reason) {
+            if (state.compareAndSet(from, new State(Mode.OPEN, System.nanoTime()))) {
+                log.warn("Rate limiter backend circuit{} opened ({}); using the local fallback limiter for {} ms",
+                        name, reason, openNanos / 1_000_000L);
+            }
+        }
+    }
+
+    private static final class State {
+        private final Mode mode;
+        private final long sinceNanos;
+        // CLOSED: calls and failures in the window. HALF_OPEN: probes admitted and probes succeeded.
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger successes = new AtomicInteger();
+
+        private State(Mode mode, long sinceNanos) {
+            this.mode = mode;
+            this.sinceNanos = sinceNanos;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.ratelimiter.service;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.RateLimitResult;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free "rejected until" cache for clients whose bucket is known to be empty.
+ *
+ * When the script rejects a request it also reports how long until {@code cost} tokens are available
+ * again. Until then, further requests from that client are rejected in-process without a Redis call, with
+ * the same Retry-After and reset timing the script would have reported.
+ *
+ * The cache is a fixed array of slots organized as two-way sets. An insert replaces the entry for the
+ * same client, an expired entry, or otherwise the entry that expires first, so memory stays capped no matter
+ * how many clients are rejected. Entries are immutable and slots are swapped atomically; no locks are taken.
+ */
+@Component
+@ConditionalOnProperty(prefix = "rate-limiter.negative-cache", name = "enabled", havingValue = "true")
+public class RejectionCache {
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final double cost;
+    private final double refillRatePerSecond;
+    private final long maxTtlMillis;
+
+    public RejectionCache(RateLimiterProperties properties) {
+        RateLimiterProperties.NegativeCache config = properties.getNegativeCache();
+        int size = Integer.highestOneBit(Math.max(2, config.getMaxEntries() - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.cost = properties.getCostPerRequest();
+        this.refillRatePerSecond = properties.getRefillRatePerSecond();
+        this.maxTtlMillis = Math.max(1L, config.getMaxTtl().toMillis());
+    }
+
+    /**
+     * @return a rejection if the client is known to be out of tokens at {@code nowMillis}, otherwise {@code null}.
+     */
+    public RateLimitResult get(String clientId, long nowMillis) {
+        int first = indexFor(clientId);
+        Entry entry = match(first, clientId, nowMillis);
+        if (entry == null) {
+            entry = match(first ^ 1, clientId, nowMillis);
+        }
+        if (entry == null) {
+            return null;
+        }
+        return RateLimitResult.rejectRateLimited(entry.remainingTokens,
+                remaining(entry.retryAtMillis, nowMillis), remaining(entry.resetAtMillis, nowMillis));
+    }
+
+    /**
+     * Remember that the client was rejected at {@code nowMillis}.
+     */
+    public void recordRejection(String clientId, RateLimitResult rejection, long nowMillis) {
+        double remainingTokens = rejection.getRemainingTokens();
+        double missing = cost - remainingTokens;
+        if (!(missing > 0)) {
+            return;
+        }
+        long waitMillis = rejection.getRetryAfterMillis();
+        if (waitMillis == RateLimitResult.UNKNOWN) {
+            waitMillis = refillRatePerSecond > 0
+                    ? (long) Math.ceil(missing * 1000.0 / refillRatePerSecond)
+                    : maxTtlMillis;
+        }
+        // Other nodes may return leased tokens or configuration may change; never trust the estimate for too long.
+        long until = nowMillis + Math.min(waitMillis, maxTtlMillis);
+
+        int first = indexFor(clientId);
+        int second = first ^ 1;
+        Entry a = slots.get(first);
+        Entry b = slots.get(second);
+        int target;
+        if (a == null || a.clientId.equals(clientId) || a.untilMillis <= nowMillis) {
+            target = first;
+        } else if (b == null || b.clientId.equals(clientId) || b.untilMillis <= nowMillis) {
+            target = second;
+        } else {
+            target = a.untilMillis <= b.untilMillis ? first : second;
+        }
+        slots.set(target, new Entry(clientId, until, remainingTokens,
+                at(rejection.getRetryAfterMillis(), nowMillis), at(rejection.getResetMillis(), nowMillis)));
+    }
+
+    private static long at(long delayMillis, long nowMillis) {
+        return delayMillis == RateLimitResult.UNKNOWN ? RateLimitResult.UNKNOWN : nowMillis + delayMillis;
+    }
+
+    private static long remaining(long atMillis, long nowMillis) {
+        return atMillis == RateLimitResult.UNKNOWN ? RateLimitResult.UNKNOWN : Math.max(0L, atMillis - nowMillis);
+    }
+
+    private Entry match(int index, String clientId, long nowMillis) {
+        Entry entry = slots.get(index);
+        if (entry == null || !entry.clientId.equals(clientId)) {
+            return null;
+        }
+        if (entry.untilMillis <= nowMillis) {
+            // Self-expire: clear the slot unless it was already replaced.
+            slots.compareAndSet(index, entry, null);
+            return null;
+        }
+        return entry;
+    }
+
+    private int indexFor(String clientId) {
+        int h = clientId.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    private static final class Entry {
+        private final String clientId;
+        private final long untilMillis;
+        private final double remainingTokens;
+        private final long retryAtMillis;
+        private final long resetAtMillis;
+
+        private Entry(String clientId, long untilMillis, double remainingTokens, long retryAtMillis,
+                      long resetAtMillis) {
+            this.clientId = clientId;
+            this.untilMillis = untilMillis;
+            this.remainingTokens = remainingTokens;
+            this.retryAtMillis = retryAtMillis;
+            this.resetAtMillis = resetAtMillis;
+        }
+    }
+}
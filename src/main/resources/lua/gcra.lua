@@ -0,0 +1,96 @@
+-- GCRA (generic cell rate algorithm) rate limiter script
+-- Same KEYS, ARGV and reply ({ allowed, remainingTokens, retryAfterMillis, resetMillis }) as
+-- rate_limiter.lua.
+-- KEYS[1] - rate limiter key (per client)
+-- ARGV[1] - capacity (max tokens)
+-- ARGV[2] - refill_rate (tokens per second)
+-- ARGV[3] - cost (tokens per request)
+-- ARGV[4] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+--
+-- State is a single integer string: the theoretical arrival time (TAT) in microseconds, i.e. the
+-- instant at which the bucket is full again. With interval = time to refill one token,
+--   tokens(now) = capacity - max(0, TAT - now) / interval
+-- which is the continuously refilled token bucket of rate_limiter.lua. A missing key is a full bucket,
+-- so the key only lives until the bucket would be full (SET PX) and rejections write nothing.
+
+local MAX_IDLE_MILLIS = 86400000
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local refill_rate = tonumber(ARGV[2])
+local cost = tonumber(ARGV[3])
+local now = tonumber(ARGV[4])
+if now < 0 then
+  -- Server time, see rate_limiter.lua; kept at microsecond resolution.
+  if redis.replicate_commands then
+    redis.replicate_commands()
+  end
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+else
+  now = now * 1000
+end
+
+local interval = 1000000.0
+if refill_rate > 0 then
+  interval = 1000000.0 / refill_rate
+else
+  -- No refill: freeze the clock so elapsed time never adds tokens. The key expires MAX_IDLE_MILLIS after
+  -- the last allowed request, the bound rate_limiter.lua uses for the same case.
+  now = 0
+end
+
+local tat = now
+local stored = redis.call('GET', key)
+if stored then
+  tat = math.max(tonumber(stored), now)
+end
+
+local backlog = tat - now
+local tokens = capacity - backlog / interval
+
+-- Compared in time rather than tokens, with 1us of slack for the TAT being stored rounded to whole
+-- microseconds; otherwise a request landing exactly on a refill boundary could be rejected.
+local allowed = 0
+if backlog <= (capacity - cost) * interval + 1 then
+  allowed = 1
+  tokens = tokens - cost
+  tat = tat + cost * interval
+
+  local value = string.format('%.0f', tat)
+  if refill_rate > 0 then
+    local ttl = math.max(1, math.ceil((tat - now) / 1000))
+    redis.call('SET', key, value, 'PX', ttl)
+  else
+    redis.call('SET', key, value, 'PX', MAX_IDLE_MILLIS)
+  end
+end
+
+-- Negative within the slack above, or after the capacity was lowered below the stored backlog.
+if tokens < 0 then
+  tokens = 0
+end
+
+-- Milliseconds until the next request of this cost fits and until the bucket is full, straight from
+-- the TAT; -1 when that never happens because the bucket does not refill.
+local retry_after = 0
+local reset = 0
+backlog = tat - now
+if refill_rate > 0 then
+  if cost > capacity then
+    retry_after = -1
+  else
+    retry_after = math.ceil(math.max(0, backlog - (capacity - cost) * interval - 1) / 1000)
+  end
+  reset = math.ceil(backlog / 1000)
+else
+  if tokens < cost then
+    retry_after = -1
+  end
+  if backlog > 0 then
+    reset = -1
+  end
+end
+
+-- Return tokens as a string: a Lua number would be truncated to an integer reply.
+return { allowed, tostring(tokens), retry_after, reset }
@@ -0,0 +1,133 @@
+-- Token lease acquisition script
+-- Withdraws a chunk of whole permits from the client's bucket in one atomic step so the
+-- calling node can serve that many requests locally. Refill rules match rate_limiter.lua, or
+-- rate_limiter_fixed.lua with a scale of 1000000.
+--
+-- KEYS[1] - rate limiter key (per client)
+-- ARGV[1] - capacity (max tokens)
+-- ARGV[2] - refill_rate (tokens per second)
+-- ARGV[3] - cost (tokens per permit)
+-- ARGV[4] - max_permits (upper bound of permits to withdraw)
+-- ARGV[5] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+-- ARGV[6] - units per token of ARGV[1..3] and the reply: 1 (float 'tokens', the default), or 1000000
+--           (integer 'micro_tokens', the layout of rate_limiter_fixed.lua)
+--
+-- Returns { permits, remainingTokens, retryAfterMillis, resetMillis } as in rate_limiter.lua
+-- Expiry is refreshed only when it would fall short of resetMillis, as in rate_limiter.lua.
+-- A hash in the other layout is read and rewritten in this one, as the bucket scripts do. The fixed layout
+-- carries the fraction of a micro-token not yet credited in 'refill_remainder', see rate_limiter_fixed.lua.
+
+local MAX_IDLE_MILLIS = 86400000
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local refill_rate = tonumber(ARGV[2])
+local cost = tonumber(ARGV[3])
+local max_permits = tonumber(ARGV[4])
+local now = tonumber(ARGV[5])
+local fixed = (tonumber(ARGV[6]) or 1) ~= 1
+-- Replicate effects, see rate_limiter.lua.
+if redis.replicate_commands then
+  redis.replicate_commands()
+end
+if now < 0 then
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+
+local field = 'tokens'
+local other = 'micro_tokens'
+if fixed then
+  field, other = other, field
+end
+local data = redis.call('HMGET', key, field, 'last_refill', other, 'refill_remainder')
+local tokens = tonumber(data[1])
+local last_refill = tonumber(data[2])
+local remainder = tonumber(data[4]) or 0
+local migrated = false
+if tokens == nil and data[3] then
+  if fixed then
+    tokens = math.floor(tonumber(data[3]) * 1000000)
+  else
+    tokens = tonumber(data[3]) / 1000000
+  end
+  migrated = true
+end
+
+if tokens == nil or last_refill == nil then
+  tokens = capacity
+else
+  local elapsed = now - last_refill
+  if elapsed < 0 then
+    elapsed = 0
+  end
+
+  if not fixed then
+    tokens = tokens + (elapsed * refill_rate) / 1000.0
+  elseif refill_rate > 0 and tokens < capacity then
+    -- Whole micro-tokens, see rate_limiter_fixed.lua.
+    local seconds = math.floor(elapsed / 1000)
+    if seconds >= math.ceil((capacity - tokens) / refill_rate) then
+      tokens = capacity
+    else
+      local partial = (elapsed % 1000) * refill_rate + remainder
+      tokens = tokens + seconds * refill_rate + math.floor(partial / 1000)
+      remainder = partial % 1000
+    end
+  end
+  tokens = math.min(capacity, tokens)
+end
+last_refill = now
+if tokens >= capacity then
+  remainder = 0
+end
+
+local permits = max_permits
+if cost > 0 then
+  permits = math.min(max_permits, math.floor(tokens / cost))
+end
+if permits < 0 then
+  permits = 0
+end
+
+tokens = tokens - permits * cost
+
+if fixed then
+  redis.call('HMSET', key, field, tokens, 'last_refill', last_refill, 'refill_remainder', remainder)
+else
+  redis.call('HMSET', key, field, tokens, 'last_refill', last_refill)
+end
+if migrated then
+  redis.call('HDEL', key, other)
+end
+
+-- Milliseconds until cost tokens are available (0 if they are) and until the bucket is full;
+-- -1 when that never happens because the bucket does not refill.
+local retry_after = 0
+if tokens < cost then
+  retry_after = -1
+  if refill_rate > 0 and cost <= capacity then
+    retry_after = math.ceil((cost - tokens) * 1000 / refill_rate)
+  end
+end
+local reset = 0
+if tokens < capacity then
+  reset = -1
+  if refill_rate > 0 then
+    reset = math.ceil((capacity - tokens) * 1000 / refill_rate)
+  end
+end
+
+local pttl = redis.call('PTTL', key)
+if refill_rate > 0 then
+  if pttl < reset then
+    redis.call('PEXPIRE', key, reset + math.ceil(capacity * 1000 / refill_rate))
+  end
+elseif pttl < 0 then
+  redis.call('PEXPIRE', key, MAX_IDLE_MILLIS)
+end
+
+if fixed then
+  return { permits, tokens, retry_after, reset }
+end
+return { permits, tostring(tokens), retry_after, reset }
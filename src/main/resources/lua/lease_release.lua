@@ -0,0 +1,88 @@
+-- Token lease release script
+-- Returns unused leased tokens to the client's bucket, capped at capacity. Refill rules match
+-- lease_acquire.lua.
+-- If the bucket has already expired there is nothing to return to: a missing bucket
+-- starts full on its next use.
+--
+-- KEYS[1] - rate limiter key (per client)
+-- ARGV[1] - capacity (max tokens)
+-- ARGV[2] - refill_rate (tokens per second)
+-- ARGV[3] - returned (tokens given back)
+-- ARGV[4] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+-- ARGV[5] - units per token of ARGV[1..3]: 1 (float 'tokens', the default), or 1000000 (integer
+--           'micro_tokens', the layout of rate_limiter_fixed.lua)
+--
+-- Returns 1 if tokens were returned, 0 otherwise
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local refill_rate = tonumber(ARGV[2])
+local returned = tonumber(ARGV[3])
+local now = tonumber(ARGV[4])
+local fixed = (tonumber(ARGV[5]) or 1) ~= 1
+if now < 0 then
+  -- Server time: one clock for every app node. Scripts calling TIME must replicate their effects,
+  -- which is the only mode since Redis 7; older servers need to be told.
+  if redis.replicate_commands then
+    redis.replicate_commands()
+  end
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+
+local field = 'tokens'
+local other = 'micro_tokens'
+if fixed then
+  field, other = other, field
+end
+local data = redis.call('HMGET', key, field, 'last_refill', other, 'refill_remainder')
+local tokens = tonumber(data[1])
+local last_refill = tonumber(data[2])
+local remainder = tonumber(data[4]) or 0
+local migrated = false
+if tokens == nil and data[3] then
+  if fixed then
+    tokens = math.floor(tonumber(data[3]) * 1000000)
+  else
+    tokens = tonumber(data[3]) / 1000000
+  end
+  migrated = true
+end
+
+if tokens == nil or last_refill == nil then
+  return 0
+end
+
+local elapsed = now - last_refill
+if elapsed < 0 then
+  elapsed = 0
+end
+
+if not fixed then
+  tokens = tokens + (elapsed * refill_rate) / 1000.0
+elseif refill_rate > 0 and tokens < capacity then
+  local seconds = math.floor(elapsed / 1000)
+  if seconds >= math.ceil((capacity - tokens) / refill_rate) then
+    tokens = capacity
+  else
+    local partial = (elapsed % 1000) * refill_rate + remainder
+    tokens = tokens + seconds * refill_rate + math.floor(partial / 1000)
+    remainder = partial % 1000
+  end
+end
+tokens = math.min(capacity, tokens + returned)
+if tokens >= capacity then
+  remainder = 0
+end
+
+-- Only the token count changes; the existing TTL still reflects the last real request.
+if fixed then
+  redis.call('HMSET', key, field, tokens, 'last_refill', now, 'refill_remainder', remainder)
+else
+  redis.call('HMSET', key, field, tokens, 'last_refill', now)
+end
+if migrated then
+  redis.call('HDEL', key, other)
+end
+
+return 1
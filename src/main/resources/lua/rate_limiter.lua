@@ -3,26 +3,49 @@
 -- ARGV[1] - capacity (max tokens)
 -- ARGV[2] - refill_rate (tokens per second)
 -- ARGV[3] - cost (tokens per request)
--- ARGV[4] - now (current time in milliseconds)
+-- ARGV[4] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+--
+-- Returns { allowed, remainingTokens, retryAfterMillis, resetMillis }
 --
 -- Hash structure:
 --  tokens (float)
 --  last_refill (millis)
+--
+-- Expiry: once the bucket would be full again the key is equivalent to a missing one, so it only has to
+-- outlive resetMillis. Refreshing it on every call would add a PEXPIRE to every write replicated and
+-- appended to the AOF; instead PTTL (a read, never propagated) is checked and the expiry is only pushed
+-- out when it would fall short, then with one full refill period of headroom, so a busy key is touched
+-- about once per refill period. A bucket that never refills expires 24h after its first use.
+--
+-- A hash written by rate_limiter_fixed.lua (integer 'micro_tokens') is read and rewritten in this layout.
+
+local MAX_IDLE_MILLIS = 86400000
 
 local key = KEYS[1]
 local capacity = tonumber(ARGV[1])
 local refill_rate = tonumber(ARGV[2])
 local cost = tonumber(ARGV[3])
 local now = tonumber(ARGV[4])
-
-local ttl = 0
-if refill_rate > 0 then
-  ttl = math.floor(capacity / refill_rate)
+-- Replicate effects, not the script: TIME and PTTL may differ on a replica. This is the only mode since
+-- Redis 7; older servers need to be told.
+if redis.replicate_commands then
+  redis.replicate_commands()
+end
+if now < 0 then
+  -- Server time: one clock for every app node.
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
 end
 
-local data = redis.call('HMGET', key, 'tokens', 'last_refill')
+local data = redis.call('HMGET', key, 'tokens', 'last_refill', 'micro_tokens')
 local tokens = data[1]
 local last_refill = data[2]
+local migrated = false
+if (tokens == false or tokens == nil) and data[3] then
+  -- Written by rate_limiter_fixed.lua.
+  tokens = tonumber(data[3]) / 1000000
+  migrated = true
+end
 
 if tokens == false or tokens == nil or last_refill == false or last_refill == nil then
   -- Initialize new bucket as full to allow bursts immediately
@@ -49,11 +72,37 @@ if tokens >= cost then
 end
 
 redis.call('HMSET', key, 'tokens', tokens, 'last_refill', last_refill)
+if migrated then
+  redis.call('HDEL', key, 'micro_tokens')
+end
+
+-- Milliseconds until cost tokens are available (0 if they are) and until the bucket is full;
+-- -1 when that never happens because the bucket does not refill.
+local retry_after = 0
+if tokens < cost then
+  retry_after = -1
+  if refill_rate > 0 and cost <= capacity then
+    retry_after = math.ceil((cost - tokens) * 1000 / refill_rate)
+  end
+end
+local reset = 0
+if tokens < capacity then
+  reset = -1
+  if refill_rate > 0 then
+    reset = math.ceil((capacity - tokens) * 1000 / refill_rate)
+  end
+end
 
-if ttl > 0 then
-  redis.call('EXPIRE', key, ttl)
+local pttl = redis.call('PTTL', key)
+if refill_rate > 0 then
+  if pttl < reset then
+    redis.call('PEXPIRE', key, reset + math.ceil(capacity * 1000 / refill_rate))
+  end
+elseif pttl < 0 then
+  redis.call('PEXPIRE', key, MAX_IDLE_MILLIS)
 end
 
-return { allowed, tokens }
+-- Return tokens as a string: a Lua number would be truncated to an integer reply.
+return { allowed, tostring(tokens), retry_after, reset }
 
 
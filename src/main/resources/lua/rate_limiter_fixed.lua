@@ -0,0 +1,118 @@
+-- Token Bucket rate limiter script, fixed-point variant of rate_limiter.lua
+-- KEYS[1] - rate limiter key (per client), the same key as rate_limiter.lua
+-- ARGV[1] - capacity (micro-tokens, integer)
+-- ARGV[2] - refill_rate (micro-tokens per second, integer)
+-- ARGV[3] - cost (micro-tokens per request, integer)
+-- ARGV[4] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+--
+-- Returns { allowed, remainingMicroTokens, retryAfterMillis, resetMillis }
+--
+-- Hash structure:
+--  micro_tokens (integer)
+--  last_refill (millis)
+--  refill_remainder (thousandths of a micro-token refilled but not yet credited)
+--
+-- Every value is an integer well below 2^53, so Lua's doubles hold them exactly and Redis stores them as
+-- integers in the hash's listpack. Refill is credited in whole micro-tokens; the fraction left over is
+-- kept in refill_remainder and credited by a later call, so no refill is lost however often the bucket
+-- is hit (a bucket refilling 1157 micro-tokens per second still refills at that rate when called every
+-- millisecond). A remainder left behind by rate_limiter.lua, which does not use it, is below one
+-- micro-token.
+--
+-- Expiry is refreshed only when it would fall short of resetMillis, see rate_limiter.lua.
+--
+-- Migration: a hash written by rate_limiter.lua (float 'tokens') is read and rewritten in this layout, and
+-- rate_limiter.lua does the reverse, so nodes can switch scripts without resetting buckets.
+
+local MAX_IDLE_MILLIS = 86400000
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local refill_rate = tonumber(ARGV[2])
+local cost = tonumber(ARGV[3])
+local now = tonumber(ARGV[4])
+-- Replicate effects, see rate_limiter.lua.
+if redis.replicate_commands then
+  redis.replicate_commands()
+end
+if now < 0 then
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+
+local data = redis.call('HMGET', key, 'micro_tokens', 'last_refill', 'tokens', 'refill_remainder')
+local tokens = tonumber(data[1])
+local last_refill = tonumber(data[2])
+local remainder = tonumber(data[4]) or 0
+local migrated = false
+if tokens == nil and data[3] then
+  -- Written by rate_limiter.lua.
+  tokens = math.floor(tonumber(data[3]) * 1000000)
+  migrated = true
+end
+
+if tokens == nil or last_refill == nil then
+  -- Initialize new bucket as full to allow bursts immediately
+  tokens = capacity
+else
+  local elapsed = now - last_refill
+  if elapsed < 0 then
+    elapsed = 0
+  end
+  if refill_rate > 0 and tokens < capacity then
+    -- Whole seconds and the millisecond remainder separately, so no product exceeds capacity * 1000.
+    local seconds = math.floor(elapsed / 1000)
+    if seconds >= math.ceil((capacity - tokens) / refill_rate) then
+      tokens = capacity
+    else
+      local partial = (elapsed % 1000) * refill_rate + remainder
+      tokens = tokens + seconds * refill_rate + math.floor(partial / 1000)
+      remainder = partial % 1000
+    end
+  end
+  tokens = math.min(capacity, tokens)
+end
+if tokens >= capacity then
+  -- Refill stops at capacity; so does the fraction.
+  remainder = 0
+end
+
+local allowed = 0
+if tokens >= cost then
+  allowed = 1
+  tokens = tokens - cost
+end
+
+redis.call('HMSET', key, 'micro_tokens', tokens, 'last_refill', now, 'refill_remainder', remainder)
+if migrated then
+  redis.call('HDEL', key, 'tokens')
+end
+
+-- Milliseconds until cost micro-tokens are available (0 if they are) and until the bucket is full;
+-- -1 when that never happens because the bucket does not refill.
+local retry_after = 0
+if tokens < cost then
+  retry_after = -1
+  if refill_rate > 0 and cost <= capacity then
+    retry_after = math.ceil((cost - tokens) * 1000 / refill_rate)
+  end
+end
+local reset = 0
+if tokens < capacity then
+  reset = -1
+  if refill_rate > 0 then
+    reset = math.ceil((capacity - tokens) * 1000 / refill_rate)
+  end
+end
+
+local pttl = redis.call('PTTL', key)
+if refill_rate > 0 then
+  if pttl < reset then
+    redis.call('PEXPIRE', key, reset + math.ceil(capacity * 1000 / refill_rate))
+  end
+elseif pttl < 0 then
+  redis.call('PEXPIRE', key, MAX_IDLE_MILLIS)
+end
+
+-- An integer reply: no string conversion on either side.
+return { allowed, tokens, retry_after, reset }
@@ -0,0 +1,185 @@
+-- Rate limiter over several buckets at once (client, tenant, route, global ...)
+-- KEYS[1..n] - bucket keys, in evaluation order (KEYS[1] is the client's own bucket)
+-- ARGV[1]    - now (current time in milliseconds), or -1 to use the Redis server's TIME
+-- ARGV[4i-2], ARGV[4i-1], ARGV[4i], ARGV[4i+1] - capacity, refill_rate, cost and algorithm of KEYS[i];
+--              algorithm 0 is the token bucket, 1 the sliding-window counter
+--
+-- Returns { allowed, remainingTokens, retryAfterMillis, resetMillis, bucket } for the most restrictive
+-- bucket (0-based index into KEYS): when rejected, the rejecting bucket that frees up last; when allowed,
+-- the bucket with the fewest requests left.
+--
+-- Every bucket is evaluated exactly like rate_limiter.lua or sliding_window.lua and keeps the same keys, so
+-- a bucket can be used by both scripts. Tokens are deducted (counters increased) only if every bucket
+-- allows. Expiries are refreshed only when they would fall short of a bucket's reset time, see
+-- rate_limiter.lua.
+
+local MAX_IDLE_MILLIS = 86400000
+
+local n = #KEYS
+local now = tonumber(ARGV[1])
+-- Replicate effects, see rate_limiter.lua.
+if redis.replicate_commands then
+  redis.replicate_commands()
+end
+if now < 0 then
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+
+-- Token bucket: tokens after refill. Sliding window, see sliding_window.lua: both counters, with
+-- capacity and cost rounded to whole requests.
+local buckets = {}
+local allowed = 1
+
+for i = 1, n do
+  local b = {
+    capacity = tonumber(ARGV[4 * i - 2]),
+    refill_rate = tonumber(ARGV[4 * i - 1]),
+    cost = tonumber(ARGV[4 * i]),
+    window = ARGV[4 * i + 1] == '1'
+  }
+  buckets[i] = b
+
+  if b.window then
+    b.capacity = math.floor(b.capacity)
+    b.cost = math.ceil(b.cost)
+    b.window_ms = MAX_IDLE_MILLIS
+    if b.refill_rate > 0 then
+      b.window_ms = math.max(1, math.min(MAX_IDLE_MILLIS, math.floor(b.capacity * 1000 / b.refill_rate)))
+    end
+    local window = math.floor(now / b.window_ms)
+    b.elapsed = now - window * b.window_ms
+    b.current_key = KEYS[i] .. ':' .. window
+    local counts = redis.call('MGET', KEYS[i] .. ':' .. (window - 1), b.current_key)
+    b.previous = tonumber(counts[1]) or 0
+    b.current = tonumber(counts[2]) or 0
+    b.overlap = b.previous * (b.window_ms - b.elapsed)
+    b.rejects = b.overlap + (b.current + b.cost) * b.window_ms > b.capacity * b.window_ms
+  else
+    local data = redis.call('HMGET', KEYS[i], 'tokens', 'last_refill')
+    local current = tonumber(data[1])
+    local last_refill = tonumber(data[2])
+    if current == nil or last_refill == nil then
+      current = b.capacity
+    else
+      local elapsed = now - last_refill
+      if elapsed < 0 then
+        elapsed = 0
+      end
+      current = math.min(b.capacity, current + (elapsed * b.refill_rate) / 1000.0)
+    end
+    b.tokens = current
+    b.rejects = current < b.cost
+  end
+  if b.rejects then
+    allowed = 0
+  end
+end
+
+-- First millisecond of a window at which weight * (window_ms - t) <= room * window_ms.
+local function drained(b, weight, room)
+  if weight * b.window_ms <= room * b.window_ms then
+    return 0
+  end
+  return b.window_ms - math.floor(room * b.window_ms / weight)
+end
+
+-- Remaining requests (tokens), retry-after and reset of a bucket after the decision, the same values
+-- rate_limiter.lua and sliding_window.lua return.
+local function window_state(b)
+  local limit = b.capacity * b.window_ms
+  local remaining = math.max(0, math.floor((limit - b.overlap - b.current * b.window_ms) / b.window_ms))
+  local retry_after = 0
+  if b.overlap + (b.current + b.cost) * b.window_ms > limit then
+    if b.cost > b.capacity then
+      retry_after = -1
+    elseif b.current + b.cost <= b.capacity then
+      retry_after = drained(b, b.previous, b.capacity - b.current - b.cost) - b.elapsed
+    else
+      retry_after = b.window_ms - b.elapsed + drained(b, b.current, b.capacity - b.cost)
+    end
+  end
+  local reset = 0
+  if b.current > 0 then
+    reset = 2 * b.window_ms - b.elapsed
+  elseif b.previous > 0 then
+    reset = b.window_ms - b.elapsed
+  end
+  return remaining, retry_after, reset
+end
+
+local function bucket_state(b)
+  local retry_after = 0
+  if b.tokens < b.cost then
+    retry_after = -1
+    if b.refill_rate > 0 and b.cost <= b.capacity then
+      retry_after = math.ceil((b.cost - b.tokens) * 1000 / b.refill_rate)
+    end
+  end
+  local reset = 0
+  if b.tokens < b.capacity then
+    reset = -1
+    if b.refill_rate > 0 then
+      reset = math.ceil((b.capacity - b.tokens) * 1000 / b.refill_rate)
+    end
+  end
+  return b.tokens, retry_after, reset
+end
+
+-- Charge every bucket or none, then pick the bucket to report.
+local limiting = 1
+local limiting_wait = -2
+local limiting_left = nil
+for i = 1, n do
+  local b = buckets[i]
+  if b.window then
+    if allowed == 1 then
+      b.current = redis.call('INCRBY', b.current_key, b.cost)
+      if b.current == b.cost then
+        redis.call('PEXPIRE', b.current_key, 2 * b.window_ms - b.elapsed)
+      end
+    end
+    b.remaining, b.retry_after, b.reset = window_state(b)
+  else
+    if allowed == 1 then
+      b.tokens = b.tokens - b.cost
+    end
+    redis.call('HMSET', KEYS[i], 'tokens', b.tokens, 'last_refill', now)
+    local pttl = redis.call('PTTL', KEYS[i])
+    if b.refill_rate > 0 then
+      local full_in = 0
+      if b.tokens < b.capacity then
+        full_in = math.ceil((b.capacity - b.tokens) * 1000 / b.refill_rate)
+      end
+      if pttl < full_in then
+        redis.call('PEXPIRE', KEYS[i], full_in + math.ceil(b.capacity * 1000 / b.refill_rate))
+      end
+    elseif pttl < 0 then
+      redis.call('PEXPIRE', KEYS[i], MAX_IDLE_MILLIS)
+    end
+    b.remaining, b.retry_after, b.reset = bucket_state(b)
+  end
+
+  if allowed == 0 then
+    if b.rejects then
+      -- Never (-1) ranks above any wait.
+      local wait = b.retry_after
+      if limiting_wait ~= -1 and (wait == -1 or wait > limiting_wait) then
+        limiting = i
+        limiting_wait = wait
+      end
+    end
+  else
+    local left = b.remaining
+    if b.cost > 0 then
+      left = left / b.cost
+    end
+    if limiting_left == nil or left < limiting_left then
+      limiting = i
+      limiting_left = left
+    end
+  end
+end
+
+local b = buckets[limiting]
+return { allowed, tostring(b.remaining), b.retry_after, b.reset, limiting - 1 }
@@ -0,0 +1,180 @@
+-- Read-only view of a client's bucket: what rate_limiter.lua, rate_limiter_fixed.lua, gcra.lua or
+-- sliding_window.lua would see now, without taking tokens or writing anything, so it may run on a replica
+-- (FCALL_RO).
+-- KEYS[1] - rate limiter key (per client; the GCRA key in GCRA mode)
+-- ARGV[1] - capacity
+-- ARGV[2] - refill_rate (per second)
+-- ARGV[3] - cost (per request)
+-- ARGV[4] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+-- ARGV[5] - units per token of ARGV[1..3] and the reply: 1, or 1000000 for rate_limiter_fixed.lua
+-- ARGV[6] - algorithm: 0 token bucket (either script), 1 sliding-window counter, 2 GCRA
+--
+-- Returns { wouldAllow, remaining, retryAfterMillis, resetMillis }, remaining counting the cost of the
+-- request that would be allowed, like the replies of the bucket scripts.
+--
+-- Token bucket: either hash layout is read ('tokens' as float tokens, 'micro_tokens' as integer
+-- micro-tokens). GCRA: the stored TAT. Sliding window: the counters of the current and previous window.
+-- Each is evaluated exactly like its script; see there for the details.
+
+local MAX_IDLE_MILLIS = 86400000
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local refill_rate = tonumber(ARGV[2])
+local cost = tonumber(ARGV[3])
+local now = tonumber(ARGV[4])
+local scale = tonumber(ARGV[5])
+local algorithm = ARGV[6]
+-- In microseconds, for GCRA.
+local now_us = now * 1000
+if now < 0 then
+  local time = redis.call('TIME')
+  now_us = tonumber(time[1]) * 1000000 + tonumber(time[2])
+  now = math.floor(now_us / 1000)
+end
+
+local function token_bucket()
+  local data = redis.call('HMGET', key, 'tokens', 'last_refill', 'micro_tokens')
+  local tokens = nil
+  if data[1] then
+    tokens = tonumber(data[1]) * scale
+  elseif data[3] then
+    tokens = tonumber(data[3]) * scale / 1000000
+  end
+  local last_refill = tonumber(data[2])
+
+  if tokens == nil or last_refill == nil then
+    -- Missing bucket: full
+    tokens = capacity
+  else
+    local elapsed = now - last_refill
+    if elapsed < 0 then
+      elapsed = 0
+    end
+    tokens = math.min(capacity, tokens + (elapsed * refill_rate) / 1000.0)
+  end
+
+  local allowed = 0
+  if tokens >= cost then
+    allowed = 1
+    tokens = tokens - cost
+  end
+
+  local retry_after = 0
+  if tokens < cost then
+    retry_after = -1
+    if refill_rate > 0 and cost <= capacity then
+      retry_after = math.ceil((cost - tokens) * 1000 / refill_rate)
+    end
+  end
+  local reset = 0
+  if tokens < capacity then
+    reset = -1
+    if refill_rate > 0 then
+      reset = math.ceil((capacity - tokens) * 1000 / refill_rate)
+    end
+  end
+  return { allowed, tostring(tokens), retry_after, reset }
+end
+
+local function gcra()
+  local interval = 1000000.0
+  if refill_rate > 0 then
+    interval = 1000000.0 / refill_rate
+  else
+    now_us = 0
+  end
+  local tat = now_us
+  local stored = redis.call('GET', key)
+  if stored then
+    tat = math.max(tonumber(stored), now_us)
+  end
+
+  local backlog = tat - now_us
+  local tokens = capacity - backlog / interval
+  local allowed = 0
+  if backlog <= (capacity - cost) * interval + 1 then
+    allowed = 1
+    tokens = tokens - cost
+    tat = tat + cost * interval
+  end
+  if tokens < 0 then
+    tokens = 0
+  end
+
+  local retry_after = 0
+  local reset = 0
+  backlog = tat - now_us
+  if refill_rate > 0 then
+    if cost > capacity then
+      retry_after = -1
+    else
+      retry_after = math.ceil(math.max(0, backlog - (capacity - cost) * interval - 1) / 1000)
+    end
+    reset = math.ceil(backlog / 1000)
+  else
+    if tokens < cost then
+      retry_after = -1
+    end
+    if backlog > 0 then
+      reset = -1
+    end
+  end
+  return { allowed, tostring(tokens), retry_after, reset }
+end
+
+local function sliding_window()
+  capacity = math.floor(capacity)
+  cost = math.ceil(cost)
+  local window_ms = MAX_IDLE_MILLIS
+  if refill_rate > 0 then
+    window_ms = math.max(1, math.min(MAX_IDLE_MILLIS, math.floor(capacity * 1000 / refill_rate)))
+  end
+  local window = math.floor(now / window_ms)
+  local elapsed = now - window * window_ms
+  local counts = redis.call('MGET', key .. ':' .. (window - 1), key .. ':' .. window)
+  local previous = tonumber(counts[1]) or 0
+  local current = tonumber(counts[2]) or 0
+
+  local limit = capacity * window_ms
+  local overlap = previous * (window_ms - elapsed)
+  local allowed = 0
+  if overlap + (current + cost) * window_ms <= limit then
+    allowed = 1
+    current = current + cost
+  end
+
+  local remaining = math.max(0, math.floor((limit - overlap - current * window_ms) / window_ms))
+
+  local function drained(weight, room)
+    if weight * window_ms <= room * window_ms then
+      return 0
+    end
+    return window_ms - math.floor(room * window_ms / weight)
+  end
+
+  local retry_after = 0
+  if overlap + (current + cost) * window_ms > limit then
+    if cost > capacity then
+      retry_after = -1
+    elseif current + cost <= capacity then
+      retry_after = drained(previous, capacity - current - cost) - elapsed
+    else
+      retry_after = window_ms - elapsed + drained(current, capacity - cost)
+    end
+  end
+  local reset = 0
+  if current > 0 then
+    reset = 2 * window_ms - elapsed
+  elseif previous > 0 then
+    reset = window_ms - elapsed
+  end
+  return { allowed, remaining, retry_after, reset }
+end
+
+if algorithm == '2' then
+  return gcra()
+elseif algorithm == '1' then
+  return sliding_window()
+end
+return token_bucket()
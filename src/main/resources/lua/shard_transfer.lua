@@ -0,0 +1,189 @@
+-- Moves tokens between a hot client's bucket and its shards (hot-key sharding)
+-- KEYS[1] - bucket key: the client's bucket or one of its shards
+-- ARGV[1] - capacity (max tokens of this bucket)
+-- ARGV[2] - refill_rate (tokens per second of this bucket)
+-- ARGV[3] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+-- ARGV[4] - units per token of ARGV[1..2], of token amounts and of the reply: 1 (float 'tokens'), or
+--           1000000 (integer 'micro_tokens', the layout of rate_limiter_fixed.lua)
+-- ARGV[5] - algorithm: 0 token bucket (either layout), 2 GCRA
+-- ARGV[6] - operation, with its amount in ARGV[7]:
+--             take <millis> - withdraw every available token and keep the bucket empty for <millis>
+--             set <tokens>  - overwrite the bucket with <tokens>
+--             give <tokens> - add <tokens>, capped at capacity; nothing while the bucket is held empty
+--
+-- Returns { heldMillis, tokens }: how long the bucket was held empty before this call (0 if it was not),
+-- and the tokens withdrawn, written or added.
+--
+-- A bucket is held empty by putting it into debt: tokens below zero (a TAT beyond now + capacity for GCRA)
+-- that refill reaches zero exactly when the hold ends. The bucket scripts need no change for it: they
+-- reject while the bucket is in debt and report a reset later than a full refill, which is how app nodes
+-- tell a held bucket from an empty one. Refill rules and expiry match the bucket scripts.
+
+local MAX_IDLE_MILLIS = 86400000
+
+local key = KEYS[1]
+local capacity = tonumber(ARGV[1])
+local refill_rate = tonumber(ARGV[2])
+local now = tonumber(ARGV[3])
+local fixed = (tonumber(ARGV[4]) or 1) ~= 1
+local algorithm = ARGV[5]
+local operation = ARGV[6]
+local amount = tonumber(ARGV[7])
+-- Replicate effects, see rate_limiter.lua.
+if redis.replicate_commands then
+  redis.replicate_commands()
+end
+if now < 0 then
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+
+-- Milliseconds until refill brings tokens back to zero.
+local function held_millis(tokens)
+  if tokens >= 0 or refill_rate <= 0 then
+    return 0
+  end
+  return math.ceil(-tokens * 1000 / refill_rate)
+end
+
+-- Tokens after the operation, and the tokens it moved.
+local function apply(tokens, held)
+  if operation == 'take' then
+    local withdrawn = 0
+    if held == 0 and tokens > 0 then
+      withdrawn = tokens
+    end
+    local debt = amount * refill_rate / 1000
+    if fixed then
+      debt = math.floor(debt)
+    end
+    tokens = tokens - withdrawn
+    if debt > 0 then
+      tokens = math.min(tokens, -debt)
+    end
+    return tokens, withdrawn
+  elseif operation == 'set' then
+    local written = math.min(capacity, amount)
+    return written, written
+  end
+  if held > 0 then
+    return tokens, 0
+  end
+  local added = math.max(0, math.min(capacity, tokens + amount) - tokens)
+  return tokens + added, added
+end
+
+local function token_bucket()
+  local field = 'tokens'
+  local other = 'micro_tokens'
+  if fixed then
+    field, other = other, field
+  end
+  local data = redis.call('HMGET', key, field, 'last_refill', other, 'refill_remainder')
+  local tokens = tonumber(data[1])
+  local last_refill = tonumber(data[2])
+  local remainder = tonumber(data[4]) or 0
+  local migrated = false
+  if tokens == nil and data[3] then
+    if fixed then
+      tokens = math.floor(tonumber(data[3]) * 1000000)
+    else
+      tokens = tonumber(data[3]) / 1000000
+    end
+    migrated = true
+  end
+
+  if tokens == nil or last_refill == nil then
+    tokens = capacity
+  else
+    local elapsed = now - last_refill
+    if elapsed < 0 then
+      elapsed = 0
+    end
+    if not fixed then
+      tokens = tokens + (elapsed * refill_rate) / 1000.0
+    elseif refill_rate > 0 and tokens < capacity then
+      -- Whole micro-tokens, see rate_limiter_fixed.lua.
+      local seconds = math.floor(elapsed / 1000)
+      if seconds >= math.ceil((capacity - tokens) / refill_rate) then
+        tokens = capacity
+      else
+        local partial = (elapsed % 1000) * refill_rate + remainder
+        tokens = tokens + seconds * refill_rate + math.floor(partial / 1000)
+        remainder = partial % 1000
+      end
+    end
+    tokens = math.min(capacity, tokens)
+  end
+
+  if tokens >= capacity then
+    remainder = 0
+  end
+
+  local held = held_millis(tokens)
+  local moved
+  tokens, moved = apply(tokens, held)
+
+  if fixed then
+    redis.call('HMSET', key, field, tokens, 'last_refill', now, 'refill_remainder', remainder)
+  else
+    redis.call('HMSET', key, field, tokens, 'last_refill', now)
+  end
+  if migrated then
+    redis.call('HDEL', key, other)
+  end
+  local pttl = redis.call('PTTL', key)
+  if refill_rate > 0 then
+    local reset = 0
+    if tokens < capacity then
+      reset = math.ceil((capacity - tokens) * 1000 / refill_rate)
+    end
+    if pttl < reset then
+      redis.call('PEXPIRE', key, reset + math.ceil(capacity * 1000 / refill_rate))
+    end
+  elseif pttl < 0 then
+    redis.call('PEXPIRE', key, MAX_IDLE_MILLIS)
+  end
+
+  if fixed then
+    return { held, moved }
+  end
+  return { held, tostring(moved) }
+end
+
+-- tokens(now) = capacity - (TAT - now) / interval, see gcra.lua; in microseconds.
+local function gcra()
+  local now_us = now * 1000
+  local interval = 1000000.0
+  if refill_rate > 0 then
+    interval = 1000000.0 / refill_rate
+  else
+    now_us = 0
+  end
+  local tat = now_us
+  local stored = redis.call('GET', key)
+  if stored then
+    tat = math.max(tonumber(stored), now_us)
+  end
+
+  local tokens = capacity - (tat - now_us) / interval
+  local held = held_millis(tokens)
+  local moved
+  tokens, moved = apply(tokens, held)
+
+  tat = now_us + (capacity - tokens) * interval
+  if tat <= now_us then
+    -- Full: the same as a missing key.
+    redis.call('DEL', key)
+  elseif refill_rate > 0 then
+    redis.call('SET', key, string.format('%.0f', tat), 'PX', math.max(1, math.ceil((tat - now_us) / 1000)))
+  else
+    redis.call('SET', key, string.format('%.0f', tat), 'PX', MAX_IDLE_MILLIS)
+  end
+  return { held, tostring(moved) }
+end
+
+if algorithm == '2' then
+  return gcra()
+end
+return token_bucket()
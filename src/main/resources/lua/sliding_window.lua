@@ -0,0 +1,96 @@
+-- Sliding-window counter rate limiter script
+-- Same KEYS, ARGV and reply ({ allowed, remainingTokens, retryAfterMillis, resetMillis }) as
+-- rate_limiter.lua.
+-- KEYS[1] - rate limiter key (per client); the counters live under KEYS[1] .. ':' .. <window number>
+-- ARGV[1] - capacity (requests per window, rounded down)
+-- ARGV[2] - refill_rate (requests per second): the window is capacity / refill_rate seconds
+-- ARGV[3] - cost (per request, rounded up)
+-- ARGV[4] - now (current time in milliseconds), or -1 to use the Redis server's TIME
+--
+-- Time is cut into fixed windows of window_ms, numbered now / window_ms. Each window has one counter,
+-- increased with INCRBY by every allowed request. The count over the last window_ms is estimated from the
+-- current window and the previous one, weighted by how much of it still overlaps:
+--   estimate = previous * (window_ms - elapsed) / window_ms + current
+-- All of it is compared multiplied by window_ms, so every value is an integer (below 2^53 for capacities
+-- up to about 100 million requests per day) and rounding never decides a request.
+--
+-- A counter is only read while it is the current or the previous window, so it gets one PEXPIRE when it is
+-- created, up to the end of the next window. Rejections write nothing. With a refill rate of 0 the window
+-- is 24h.
+--
+-- The counters are derived from KEYS[1] and share its hash tag, so they always hash to its slot.
+
+local MAX_WINDOW_MILLIS = 86400000
+
+local key = KEYS[1]
+local capacity = math.floor(tonumber(ARGV[1]))
+local refill_rate = tonumber(ARGV[2])
+local cost = math.ceil(tonumber(ARGV[3]))
+local now = tonumber(ARGV[4])
+-- Replicate effects, see rate_limiter.lua.
+if redis.replicate_commands then
+  redis.replicate_commands()
+end
+if now < 0 then
+  local time = redis.call('TIME')
+  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+end
+
+local window_ms = MAX_WINDOW_MILLIS
+if refill_rate > 0 then
+  window_ms = math.max(1, math.min(MAX_WINDOW_MILLIS, math.floor(capacity * 1000 / refill_rate)))
+end
+local window = math.floor(now / window_ms)
+local elapsed = now - window * window_ms
+local current_key = key .. ':' .. window
+local counts = redis.call('MGET', key .. ':' .. (window - 1), current_key)
+local previous = tonumber(counts[1]) or 0
+local current = tonumber(counts[2]) or 0
+
+-- Estimate times window_ms, i.e. requests weighted by the milliseconds they still count.
+local limit = capacity * window_ms
+local overlap = previous * (window_ms - elapsed)
+
+local allowed = 0
+if overlap + (current + cost) * window_ms <= limit then
+  allowed = 1
+  current = redis.call('INCRBY', current_key, cost)
+  if current == cost then
+    redis.call('PEXPIRE', current_key, 2 * window_ms - elapsed)
+  end
+end
+
+local remaining = math.floor((limit - overlap - current * window_ms) / window_ms)
+if remaining < 0 then
+  remaining = 0
+end
+
+-- First millisecond of the window, from its start, at which weight * (window_ms - t) <= room * window_ms.
+local function drained(weight, room)
+  if weight * window_ms <= room * window_ms then
+    return 0
+  end
+  return window_ms - math.floor(room * window_ms / weight)
+end
+
+-- Milliseconds until cost more fits: later in this window while the previous one fades out, otherwise in
+-- the next one, where this window is the previous; -1 if it never fits.
+local retry_after = 0
+if overlap + (current + cost) * window_ms > limit then
+  if cost > capacity then
+    retry_after = -1
+  elseif current + cost <= capacity then
+    retry_after = drained(previous, capacity - current - cost) - elapsed
+  else
+    retry_after = window_ms - elapsed + drained(current, capacity - cost)
+  end
+end
+-- Milliseconds until both counters have faded out.
+local reset = 0
+if current > 0 then
+  reset = 2 * window_ms - elapsed
+elseif previous > 0 then
+  reset = window_ms - elapsed
+end
+
+return { allowed, remaining, retry_after, reset }
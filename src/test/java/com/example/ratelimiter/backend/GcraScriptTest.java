@@ -0,0 +1,89 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code gcra.lua} against a real Redis, see {@link ScriptTestRedis}.
+ */
+class GcraScriptTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    private ScriptTestRedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = ScriptTestRedis.connect();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void newBucketAllowsItsCapacityAtOnce() {
+        List<String> key = List.of(redis.key("burst"));
+
+        for (int left = 2; left >= 0; left--) {
+            List<Object> reply = redis.run("gcra", key, 3, 1, 1, NOW);
+            assertThat(reply.get(0)).isEqualTo(1L);
+            assertThat(ScriptTestRedis.number(reply, 1)).isEqualTo(left);
+        }
+        List<Object> rejected = redis.run("gcra", key, 3, 1, 1, NOW);
+
+        assertThat(rejected.get(0)).isEqualTo(0L);
+        assertThat(ScriptTestRedis.number(rejected, 1)).isZero();
+        assertThat(rejected.get(2)).isEqualTo(1_000L);
+        assertThat(rejected.get(3)).isEqualTo(3_000L);
+    }
+
+    @Test
+    void storesOneTimestampThatRejectionsLeaveAlone() {
+        String key = redis.key("tat");
+        for (int i = 0; i < 3; i++) {
+            redis.run("gcra", List.of(key), 3, 1, 1, NOW);
+        }
+        String tat = redis.template().opsForValue().get(key);
+
+        redis.run("gcra", List.of(key), 3, 1, 1, NOW);
+
+        // Microseconds at which the bucket is full again.
+        assertThat(tat).isEqualTo(Long.toString((NOW + 3_000L) * 1_000L));
+        assertThat(redis.template().opsForValue().get(key)).isEqualTo(tat);
+        assertThat(redis.template().getExpire(key, TimeUnit.MILLISECONDS)).isBetween(1L, 3_000L);
+    }
+
+    @Test
+    void oneTokenRefillsPerInterval() {
+        List<String> key = List.of(redis.key("refill"));
+        for (int i = 0; i < 3; i++) {
+            redis.run("gcra", key, 3, 2, 1, NOW);
+        }
+
+        assertThat(redis.run("gcra", key, 3, 2, 1, NOW + 499).get(0)).isEqualTo(0L);
+        assertThat(redis.run("gcra", key, 3, 2, 1, NOW + 500).get(0)).isEqualTo(1L);
+        assertThat(redis.run("gcra", key, 3, 2, 1, NOW + 500).get(0)).isEqualTo(0L);
+    }
+
+    @Test
+    void bucketWithoutRefillNeverRefillsAndExpiresAfterADay() {
+        String key = redis.key("frozen");
+        redis.run("gcra", List.of(key), 1, 0, 1, NOW);
+
+        List<Object> rejected = redis.run("gcra", List.of(key), 1, 0, 1, NOW + 3_600_000L);
+
+        assertThat(rejected.get(0)).isEqualTo(0L);
+        assertThat(rejected.get(2)).isEqualTo(-1L);
+        assertThat(rejected.get(3)).isEqualTo(-1L);
+        assertThat(redis.template().getExpire(key, TimeUnit.MILLISECONDS))
+                .isBetween(86_000_000L, 86_400_000L);
+    }
+}
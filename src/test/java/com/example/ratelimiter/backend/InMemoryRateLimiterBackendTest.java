@@ -0,0 +1,138 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.model.Limit;
+import com.example.ratelimiter.model.LimitBucket;
+import com.example.ratelimiter.model.RateLimitDecision;
+import com.example.ratelimiter.model.RateLimitResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class InMemoryRateLimiterBackendTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void newBucketIsFullAndRejectsOnceEmpty() {
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(3, 1, 1);
+
+        for (int i = 2; i >= 0; i--) {
+            RateLimitResult result = backend.tryAcquire("client", NOW);
+            assertThat(result.getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+            assertThat(result.getRemainingTokens()).isCloseTo(i, within(1e-9));
+        }
+        RateLimitResult rejected = backend.tryAcquire("client", NOW);
+
+        assertThat(rejected.getDecision()).isEqualTo(RateLimitDecision.REJECT_RATE_LIMITED);
+        assertThat(rejected.getRetryAfterMillis()).isEqualTo(1_000L);
+        assertThat(rejected.getResetMillis()).isEqualTo(3_000L);
+    }
+
+    @Test
+    void bucketRefillsContinuouslyUpToCapacity() {
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(2, 4, 1);
+        backend.tryAcquire("client", NOW);
+        backend.tryAcquire("client", NOW);
+
+        assertThat(backend.tryAcquire("client", NOW + 100).getDecision())
+                .isEqualTo(RateLimitDecision.REJECT_RATE_LIMITED);
+        assertThat(backend.tryAcquire("client", NOW + 250).getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+        assertThat(backend.peek("client", NOW + 60_000).getRemainingTokens()).isCloseTo(1, within(1e-9));
+    }
+
+    @Test
+    void bucketWithoutRefillNeverRefills() {
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(1, 0, 1);
+        backend.tryAcquire("client", NOW);
+
+        RateLimitResult rejected = backend.tryAcquire("client", NOW + 3_600_000);
+
+        assertThat(rejected.getDecision()).isEqualTo(RateLimitDecision.REJECT_RATE_LIMITED);
+        assertThat(rejected.getRetryAfterMillis()).isEqualTo(RateLimitResult.UNKNOWN);
+    }
+
+    @Test
+    void concurrentRequestsNeverOverspend() throws Exception {
+        int capacity = 1_000;
+        int threads = 8;
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(capacity, 0, 1);
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < capacity; i++) {
+                        if (backend.tryAcquire("client", NOW).getDecision() == RateLimitDecision.ALLOW) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(allowed.get()).isEqualTo(capacity);
+    }
+
+    @Test
+    void rejectingLimitRefundsTheClientAndEarlierLimits() {
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(10, 0, 1);
+        Limit tenant = new Limit("tenant", 10, 0, false);
+        Limit route = new Limit("route", 1, 0, false);
+        List<LimitBucket> limits = List.of(new LimitBucket(tenant, "tenant-1"), new LimitBucket(route, "global"));
+
+        RateLimitResult first = backend.tryAcquire("client", limits, NOW);
+        RateLimitResult second = backend.tryAcquire("client", limits, NOW);
+
+        assertThat(first.getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+        assertThat(first.getLimit()).isEqualTo(1.0);
+        assertThat(second.getDecision()).isEqualTo(RateLimitDecision.REJECT_RATE_LIMITED);
+        assertThat(second.getLimit()).isEqualTo(1.0);
+        // Only the allowed request was charged.
+        assertThat(backend.peek("client", NOW).getRemainingTokens()).isCloseTo(8, within(1e-9));
+        RateLimitResult tenantLeft = backend.tryAcquire("other", List.of(new LimitBucket(tenant, "tenant-1")), NOW);
+        assertThat(tenantLeft.getRemainingTokens()).isCloseTo(8, within(1e-9));
+    }
+
+    @Test
+    void rejectedClientChargesNoLimit() {
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(1, 0, 1);
+        Limit tenant = new Limit("tenant", 1, 0, false);
+        List<LimitBucket> limits = List.of(new LimitBucket(tenant, "tenant-1"));
+        backend.tryAcquire("client", NOW);
+
+        assertThat(backend.tryAcquire("client", limits, NOW).getDecision())
+                .isEqualTo(RateLimitDecision.REJECT_RATE_LIMITED);
+        assertThat(backend.tryAcquire("other", limits, NOW).getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+    }
+
+    @Test
+    void peekDoesNotCreateOrChargeBuckets() {
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(2, 1, 1);
+
+        RateLimitResult peeked = backend.peek("client", NOW);
+
+        assertThat(peeked.getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+        assertThat(peeked.getRemainingTokens()).isCloseTo(1, within(1e-9));
+        assertThat(backend.tryAcquire("client", NOW).getRemainingTokens()).isCloseTo(1, within(1e-9));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code lease_acquire.lua} and {@code lease_release.lua} against a real Redis, see {@link ScriptTestRedis}.
+ */
+class LeaseScriptTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long MICRO = 1_000_000L;
+
+    private ScriptTestRedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = ScriptTestRedis.connect();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void acquireWithdrawsUpToMaxPermitsOfWholeCost() {
+        List<String> key = List.of(redis.key("client"));
+
+        List<Object> first = acquire(key, 4);
+        List<Object> second = acquire(key, 4);
+        List<Object> third = acquire(key, 4);
+        List<Object> empty = acquire(key, 4);
+
+        assertThat(first.get(0)).isEqualTo(4L);
+        assertThat(ScriptTestRedis.number(first, 1)).isEqualTo(6.0);
+        assertThat(first.get(3)).isEqualTo(4_000L);
+        assertThat(second.get(0)).isEqualTo(4L);
+        assertThat(third.get(0)).isEqualTo(2L);
+        assertThat(third.get(2)).isEqualTo(1_000L);
+        assertThat(empty.get(0)).isEqualTo(0L);
+        assertThat(ScriptTestRedis.number(empty, 1)).isZero();
+    }
+
+    @Test
+    void releaseReturnsTokensUpToCapacity() {
+        String key = redis.key("client");
+        redis.run("lease_acquire", List.of(key), 10, 1, 1, 10, NOW, 1);
+
+        assertThat(redis.run("lease_release", List.of(key), 10, 1, 3, NOW, 1).get(0)).isEqualTo(1L);
+        assertThat(redis.template().opsForHash().get(key, "tokens")).isEqualTo("3");
+        redis.run("lease_release", List.of(key), 10, 1, 100, NOW, 1);
+        assertThat(redis.template().opsForHash().get(key, "tokens")).isEqualTo("10");
+    }
+
+    @Test
+    void releaseToAnExpiredBucketIsDropped() {
+        String key = redis.key("expired");
+
+        assertThat(redis.run("lease_release", List.of(key), 10, 1, 3, NOW, 1).get(0)).isEqualTo(0L);
+        assertThat(redis.template().hasKey(key)).isFalse();
+    }
+
+    @Test
+    void fixedPointLeasesKeepTheMicroTokenLayout() {
+        String key = redis.key("fixed");
+
+        List<Object> reply = redis.run("lease_acquire", List.of(key), 10 * MICRO, MICRO, MICRO, 3, NOW, MICRO);
+        redis.run("lease_release", List.of(key), 10 * MICRO, MICRO, MICRO, NOW, MICRO);
+
+        assertThat(reply.get(0)).isEqualTo(3L);
+        assertThat(reply.get(1)).isEqualTo(7_000_000L);
+        assertThat(redis.template().opsForHash().get(key, "micro_tokens")).isEqualTo("8000000");
+        assertThat(redis.template().opsForHash().hasKey(key, "tokens")).isFalse();
+    }
+
+    private List<Object> acquire(List<String> key, int maxPermits) {
+        return redis.run("lease_acquire", key, 10, 1, 1, maxPermits, NOW, 1);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code rate_limiter_multi.lua} against a real Redis, see {@link ScriptTestRedis}.
+ */
+class MultiLimitScriptTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    private ScriptTestRedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = ScriptTestRedis.connect();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void everyBucketIsChargedOrNone() {
+        String client = redis.key("client");
+        String global = redis.key("global");
+        List<String> keys = List.of(client, global);
+
+        List<Object> allowed = redis.run("rate_limiter_multi", keys, NOW, 10, 1, 1, 0, 1, 1, 1, 0);
+        List<Object> rejected = redis.run("rate_limiter_multi", keys, NOW, 10, 1, 1, 0, 1, 1, 1, 0);
+
+        // Allowed: the bucket with the fewest requests left.
+        assertThat(allowed.get(0)).isEqualTo(1L);
+        assertThat(ScriptTestRedis.number(allowed, 1)).isZero();
+        assertThat(allowed.get(4)).isEqualTo(1L);
+        assertThat(rejected.get(0)).isEqualTo(0L);
+        assertThat(rejected.get(2)).isEqualTo(1_000L);
+        assertThat(rejected.get(4)).isEqualTo(1L);
+        assertThat(redis.template().opsForHash().get(client, "tokens")).isEqualTo("9");
+    }
+
+    @Test
+    void rejectionReportsTheBucketThatFreesUpLast() {
+        List<String> keys = List.of(redis.key("client"), redis.key("tenant"));
+        redis.run("rate_limiter_multi", keys, NOW, 1, 1, 1, 0, 1, 0.5, 1, 0);
+
+        List<Object> rejected = redis.run("rate_limiter_multi", keys, NOW, 1, 1, 1, 0, 1, 0.5, 1, 0);
+
+        assertThat(rejected.get(0)).isEqualTo(0L);
+        assertThat(rejected.get(2)).isEqualTo(2_000L);
+        assertThat(rejected.get(4)).isEqualTo(1L);
+    }
+
+    @Test
+    void slidingWindowBucketsCountRequests() {
+        String route = redis.key("route");
+        List<String> keys = List.of(redis.key("client"), route);
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(redis.run("rate_limiter_multi", keys, NOW, 10, 1, 1, 0, 2, 2, 1, 1).get(0)).isEqualTo(1L);
+        }
+        List<Object> rejected = redis.run("rate_limiter_multi", keys, NOW, 10, 1, 1, 0, 2, 2, 1, 1);
+
+        assertThat(rejected.get(0)).isEqualTo(0L);
+        assertThat(rejected.get(4)).isEqualTo(1L);
+        // One-second windows; NOW starts one.
+        assertThat(redis.template().opsForValue().get(route + ":" + NOW / 1_000L)).isEqualTo("2");
+    }
+}
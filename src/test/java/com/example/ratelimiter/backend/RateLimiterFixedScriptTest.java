@@ -0,0 +1,82 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code rate_limiter_fixed.lua} against a real Redis, see {@link ScriptTestRedis}.
+ */
+class RateLimiterFixedScriptTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long MICRO = 1_000_000L;
+
+    private ScriptTestRedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = ScriptTestRedis.connect();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void slowBucketRefillsAtItsRateUnderAHighRequestRate() {
+        // 100 requests per day: 1157 micro-tokens per second, about 1.16 per millisecond.
+        long capacity = 100 * MICRO;
+        long refillRate = 1157L;
+        List<String> key = List.of(redis.key("daily"));
+        for (int i = 0; i < 100; i++) {
+            assertThat(call(key, capacity, refillRate, NOW).get(0)).isEqualTo(1L);
+        }
+
+        List<Object> reply = null;
+        for (int millis = 1; millis <= 10_000; millis++) {
+            reply = call(key, capacity, refillRate, NOW + millis);
+        }
+
+        // Ten seconds of refill; truncating every call to whole micro-tokens would credit only 10000.
+        assertThat(reply.get(0)).isEqualTo(0L);
+        assertThat(reply.get(1)).isEqualTo(11_570L);
+    }
+
+    @Test
+    void bucketRefilledToExactlyTheCostAllows() {
+        List<String> key = List.of(redis.key("exact"));
+        call(key, MICRO, 2 * MICRO, NOW);
+
+        assertThat(call(key, MICRO, 2 * MICRO, NOW + 499).get(0)).isEqualTo(0L);
+        List<Object> reply = call(key, MICRO, 2 * MICRO, NOW + 500);
+
+        assertThat(reply.get(0)).isEqualTo(1L);
+        assertThat(reply.get(1)).isEqualTo(0L);
+        assertThat(reply.get(2)).isEqualTo(500L);
+        assertThat(reply.get(3)).isEqualTo(500L);
+    }
+
+    @Test
+    void floatLayoutIsMigrated() {
+        String key = redis.key("migrated");
+        redis.template().opsForHash().put(key, "tokens", "2.5");
+        redis.template().opsForHash().put(key, "last_refill", Long.toString(NOW));
+
+        List<Object> reply = call(List.of(key), 10 * MICRO, MICRO, NOW);
+
+        assertThat(reply.get(0)).isEqualTo(1L);
+        assertThat(reply.get(1)).isEqualTo(1_500_000L);
+        assertThat(redis.template().opsForHash().hasKey(key, "tokens")).isFalse();
+        assertThat(redis.template().opsForHash().get(key, "micro_tokens")).isEqualTo("1500000");
+    }
+
+    private List<Object> call(List<String> key, long capacity, long refillRate, long now) {
+        return redis.run("rate_limiter_fixed", key, capacity, refillRate, MICRO, now);
+    }
+}
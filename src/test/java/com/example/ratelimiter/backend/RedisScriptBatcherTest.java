@@ -0,0 +1,118 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The pipelined batches of {@link RedisScriptBatcher}; all but the first test run against a real Redis, see
+ * {@link ScriptTestRedis}.
+ */
+class RedisScriptBatcherTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void submitIsRefusedUntilStarted() {
+        LettuceConnectionFactory connectionFactory =
+                new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 6379));
+        RedisScriptBatcher batcher = new RedisScriptBatcher(connectionFactory, properties(), meterRegistry);
+
+        assertThat(batcher.submit(rateLimiterScript(), 1, keysAndArgs("client"))).isNull();
+    }
+
+    @Test
+    void concurrentInvocationsShareAPipelineAndEachGetsItsOwnReply() throws Exception {
+        try (ScriptTestRedis redis = ScriptTestRedis.connect()) {
+            RedisScriptBatcher batcher = start(redis);
+            try {
+                ScriptHandle script = rateLimiterScript();
+                List<CompletableFuture<Object>> replies = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    replies.add(batcher.submit(script, 1, keysAndArgs(redis.key("client"))));
+                }
+
+                // Every script still ran atomically on its own: each took one token of ten.
+                List<Double> tokens = new ArrayList<>();
+                for (CompletableFuture<Object> reply : replies) {
+                    ScriptReply decoded = (ScriptReply) reply.get(5, TimeUnit.SECONDS);
+                    assertThat(decoded.flag()).isEqualTo(1L);
+                    tokens.add(decoded.tokens());
+                }
+                assertThat(tokens).containsExactlyInAnyOrder(9.0, 8.0, 7.0, 6.0, 5.0, 4.0, 3.0, 2.0, 1.0, 0.0);
+                assertThat(meterRegistry.get("ratelimiter.batch.size").summary().count()).isLessThan(10L);
+            } finally {
+                batcher.stop();
+            }
+        }
+    }
+
+    @Test
+    void flushedScriptCacheIsRecoveredWithEval() throws Exception {
+        try (ScriptTestRedis redis = ScriptTestRedis.connect()) {
+            RedisScriptBatcher batcher = start(redis);
+            try {
+                redis.template().execute((RedisCallback<Object>) connection -> {
+                    connection.scriptingCommands().scriptFlush();
+                    return null;
+                });
+
+                Object reply = batcher.submit(rateLimiterScript(), 1, keysAndArgs(redis.key("client")))
+                        .get(5, TimeUnit.SECONDS);
+
+                assertThat(((ScriptReply) reply).flag()).isEqualTo(1L);
+                assertThat(redis.template().opsForHash().get(redis.key("client"), "tokens")).isEqualTo("9");
+            } finally {
+                batcher.stop();
+            }
+        }
+    }
+
+    private RedisScriptBatcher start(ScriptTestRedis redis) {
+        RedisScriptBatcher batcher = new RedisScriptBatcher(redis.connectionFactory(), properties(), meterRegistry);
+        batcher.start();
+        return batcher;
+    }
+
+    private static RateLimiterProperties properties() {
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.getBatching().setEnabled(true);
+        // Long enough for all invocations of a test to join the first batch.
+        properties.getBatching().setMaxWait(Duration.ofMillis(50));
+        return properties;
+    }
+
+    private static ScriptHandle rateLimiterScript() {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/rate_limiter.lua"));
+        script.setResultType(List.class);
+        return ScriptHandle.eval(script);
+    }
+
+    /**
+     * {@code rate_limiter.lua} for a bucket of ten tokens refilling one per second, one token per call.
+     */
+    private static byte[][] keysAndArgs(String key) {
+        return new byte[][]{bytes(key), bytes("10"), bytes("1"), bytes("1"), bytes(Long.toString(NOW))};
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
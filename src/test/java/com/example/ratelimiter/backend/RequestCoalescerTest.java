@@ -0,0 +1,169 @@
+package com.example.ratelimiter.backend;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.RateLimitDecision;
+import com.example.ratelimiter.model.RateLimitResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RequestCoalescerTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final List<Call> calls = new ArrayList<>();
+
+    @Test
+    void quietClientIsSentRightAway() {
+        RequestCoalescer coalescer = coalescer("token-bucket");
+
+        CompletableFuture<RateLimitResult> check = coalescer.acquire("client", NOW, this::record);
+
+        assertThat(calls).hasSize(1);
+        assertThat(calls.get(0).permits).isEqualTo(1);
+        calls.get(0).reply.complete(reply(1, 4.0, 0L, 6_000L));
+        assertThat(check.join().getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+        assertThat(check.join().getRemainingTokens()).isCloseTo(4.0, within(1e-9));
+    }
+
+    @Test
+    void checksArrivingDuringACallShareTheNextOne() {
+        RequestCoalescer coalescer = coalescer("token-bucket");
+        CompletableFuture<RateLimitResult> first = coalescer.acquire("client", NOW, this::record);
+        List<CompletableFuture<RateLimitResult>> waiting = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            waiting.add(coalescer.acquire("client", NOW + i, this::record));
+        }
+        assertThat(calls).hasSize(1);
+
+        calls.get(0).reply.complete(reply(1, 2.0, 0L, 8_000L));
+
+        assertThat(first.join().getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(1).permits).isEqualTo(3);
+        assertThat(calls.get(1).nowMillis).isEqualTo(NOW + 2);
+        calls.get(1).reply.complete(reply(2, 0.0, 500L, 10_000L));
+
+        // Granted in arrival order, each seeing the permits granted after it.
+        assertThat(waiting.get(0).join().getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+        assertThat(waiting.get(0).join().getRemainingTokens()).isCloseTo(1.0, within(1e-9));
+        assertThat(waiting.get(0).join().getRetryAfterMillis()).isZero();
+        assertThat(waiting.get(1).join().getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+        assertThat(waiting.get(1).join().getRemainingTokens()).isCloseTo(0.0, within(1e-9));
+        assertThat(waiting.get(1).join().getRetryAfterMillis()).isEqualTo(500L);
+        assertThat(waiting.get(2).join().getDecision()).isEqualTo(RateLimitDecision.REJECT_RATE_LIMITED);
+        assertThat(waiting.get(2).join().getRetryAfterMillis()).isEqualTo(500L);
+        assertThat(waiting.get(2).join().getResetMillis()).isEqualTo(10_000L);
+    }
+
+    @Test
+    void flightEndsWhenNoCheckIsWaiting() {
+        RequestCoalescer coalescer = coalescer("token-bucket");
+        coalescer.acquire("client", NOW, this::record);
+        calls.get(0).reply.complete(reply(1, 5.0, 0L, 5_000L));
+
+        coalescer.acquire("client", NOW, this::record);
+
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(1).permits).isEqualTo(1);
+    }
+
+    @Test
+    void clientsAreCoalescedSeparately() {
+        RequestCoalescer coalescer = coalescer("token-bucket");
+
+        coalescer.acquire("a", NOW, this::record);
+        coalescer.acquire("b", NOW, this::record);
+
+        assertThat(calls).extracting(call -> call.clientId).containsExactly("a", "b");
+    }
+
+    @Test
+    void failedCallFailsItsChecksAndTheNextCallStillRuns() {
+        RequestCoalescer coalescer = coalescer("token-bucket");
+        CompletableFuture<RateLimitResult> first = coalescer.acquire("client", NOW, this::record);
+        CompletableFuture<RateLimitResult> second = coalescer.acquire("client", NOW, this::record);
+        IllegalStateException failure = new IllegalStateException("connection lost");
+
+        calls.get(0).reply.completeExceptionally(failure);
+
+        assertThat(first).isCompletedExceptionally();
+        assertThat(first.handle((result, error) -> error).join()).isSameAs(failure);
+        assertThat(second).isNotDone();
+        assertThat(calls).hasSize(2);
+        calls.get(1).reply.complete(reply(1, 0.0, 1_000L, 10_000L));
+        assertThat(second.join().getDecision()).isEqualTo(RateLimitDecision.ALLOW);
+    }
+
+    @Test
+    void callThrowingFailsItsChecks() {
+        RequestCoalescer coalescer = coalescer("token-bucket");
+
+        CompletableFuture<RateLimitResult> check = coalescer.acquire("client", NOW, (clientId, permits, now) -> {
+            throw new IllegalStateException("not connected");
+        });
+
+        assertThat(check).isCompletedExceptionally();
+    }
+
+    @Test
+    void unexpectedReplyFailsItsChecks() {
+        RequestCoalescer coalescer = coalescer("token-bucket");
+        CompletableFuture<RateLimitResult> check = coalescer.acquire("client", NOW, this::record);
+
+        calls.get(0).reply.complete(List.of(1L));
+
+        assertThat(check).isCompletedExceptionally();
+    }
+
+    @Test
+    void onlyTokenBucketsAreSupported() {
+        assertThat(coalescer("token-bucket").isEffective()).isTrue();
+        assertThat(coalescer("token-bucket-fixed").isEffective()).isTrue();
+        assertThat(coalescer("sliding-window").isEffective()).isFalse();
+        assertThat(coalescer("gcra").isEffective()).isFalse();
+    }
+
+    private CompletableFuture<Object> record(String clientId, int permits, long nowMillis) {
+        Call call = new Call(clientId, permits, nowMillis);
+        calls.add(call);
+        return call.reply;
+    }
+
+    private static RequestCoalescer coalescer(String algorithm) {
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.setAlgorithm(algorithm);
+        properties.setCapacity(10);
+        properties.setRefillRatePerSecond(1);
+        properties.setCostPerRequest(1);
+        return new RequestCoalescer(properties, new SimpleMeterRegistry());
+    }
+
+    private static ScriptReply reply(long granted, double tokens, long retryAfterMillis, long resetMillis) {
+        ScriptReply reply = new ScriptReply();
+        reply.set(0, granted);
+        reply.set(1, tokens);
+        reply.set(2, retryAfterMillis);
+        reply.set(3, resetMillis);
+        return reply;
+    }
+
+    private static final class Call {
+        private final String clientId;
+        private final int permits;
+        private final long nowMillis;
+        private final CompletableFuture<Object> reply = new CompletableFuture<>();
+
+        private Call(String clientId, int permits, long nowMillis) {
+            this.clientId = clientId;
+            this.permits = permits;
+            this.nowMillis = nowMillis;
+        }
+    }
+}
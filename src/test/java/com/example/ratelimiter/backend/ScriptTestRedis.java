@@ -0,0 +1,83 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.Assumptions;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A real Redis for the tests of the Lua scripts, at {@code -Dredis.host} (and {@code -Dredis.port}) like
+ * the benchmarks. Without one the calling test is skipped: the scripts run nowhere else. Each instance
+ * names its keys under a hash tag of its own, so tests neither collide nor need a flush.
+ */
+final class ScriptTestRedis implements AutoCloseable {
+
+    private final LettuceConnectionFactory connectionFactory;
+    private final StringRedisTemplate template;
+    private final String tag = UUID.randomUUID().toString();
+
+    private ScriptTestRedis(String host, int port) {
+        this.connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        this.connectionFactory.afterPropertiesSet();
+        this.connectionFactory.start();
+        this.template = new StringRedisTemplate(connectionFactory);
+    }
+
+    /**
+     * Connects, or aborts (skips) the calling test if no Redis is configured.
+     */
+    static ScriptTestRedis connect() {
+        String host = System.getProperty("redis.host");
+        Assumptions.assumeTrue(host != null, "Set -Dredis.host to run the script tests against a real Redis");
+        return new ScriptTestRedis(host, Integer.getInteger("redis.port", 6379));
+    }
+
+    /**
+     * @return a key of this instance, e.g. {@code rate_limiter:{<tag>}:client}
+     */
+    String key(String name) {
+        return "rate_limiter:{" + tag + "}:" + name;
+    }
+
+    /**
+     * Runs {@code lua/<script>.lua} with the arguments as strings.
+     *
+     * @return the reply, integers as {@code Long} and bulk strings as {@code String}
+     */
+    List<Object> run(String script, List<String> keys, Object... args) {
+        DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+        redisScript.setLocation(new ClassPathResource("lua/" + script + ".lua"));
+        redisScript.setResultType(List.class);
+        Object[] values = Arrays.stream(args).map(String::valueOf).toArray();
+        @SuppressWarnings("unchecked")
+        List<Object> reply = template.execute(redisScript, keys, values);
+        return reply;
+    }
+
+    LettuceConnectionFactory connectionFactory() {
+        return connectionFactory;
+    }
+
+    StringRedisTemplate template() {
+        return template;
+    }
+
+    /**
+     * @return element {@code index} of a reply as a number, whether an integer or a string
+     */
+    static double number(List<Object> reply, int index) {
+        Object value = reply.get(index);
+        return value instanceof Number number ? number.doubleValue() : Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public void close() {
+        connectionFactory.destroy();
+    }
+}
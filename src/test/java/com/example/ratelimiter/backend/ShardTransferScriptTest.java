@@ -0,0 +1,88 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code shard_transfer.lua} against a real Redis, see {@link ScriptTestRedis}. Buckets hold ten tokens and
+ * refill one per second.
+ */
+class ShardTransferScriptTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long MICRO = 1_000_000L;
+
+    private ScriptTestRedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = ScriptTestRedis.connect();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void onlyTheFirstTakeWithdrawsAndLaterOnesFindTheHold() {
+        String key = redis.key("bucket");
+
+        List<Object> first = transfer(key, "0", NOW, "take", 5_000);
+        List<Object> second = transfer(key, "0", NOW, "take", 5_000);
+
+        assertThat(first).containsExactly(0L, "10");
+        // A concurrent promotion learns the bucket is held and must not seed the shards again.
+        assertThat(second).containsExactly(5_000L, "0");
+        assertThat(redis.template().opsForHash().get(key, "tokens")).isEqualTo("-5");
+    }
+
+    @Test
+    void giveIsDroppedWhileHeldAndCappedAfterwards() {
+        String key = redis.key("bucket");
+        transfer(key, "0", NOW, "take", 2_000);
+
+        assertThat(transfer(key, "0", NOW, "give", 3)).containsExactly(2_000L, "0");
+        assertThat(transfer(key, "0", NOW + 2_000, "give", 3)).containsExactly(0L, "3");
+        assertThat(transfer(key, "0", NOW + 2_000, "give", 100)).containsExactly(0L, "7");
+    }
+
+    @Test
+    void setOverwritesUpToCapacity() {
+        String key = redis.key("shard");
+        transfer(key, "0", NOW, "give", 0);
+
+        assertThat(transfer(key, "0", NOW, "set", 4)).containsExactly(0L, "4");
+        assertThat(redis.template().opsForHash().get(key, "tokens")).isEqualTo("4");
+        assertThat(transfer(key, "0", NOW, "set", 100)).containsExactly(0L, "10");
+    }
+
+    @Test
+    void gcraBucketIsHeldByItsTheoreticalArrivalTime() {
+        String key = redis.key("gcra");
+
+        assertThat(transfer(key, "2", NOW, "take", 3_000)).containsExactly(0L, "10");
+        assertThat(transfer(key, "2", NOW, "take", 0)).containsExactly(3_000L, "0");
+        // Full after the hold plus a full refill, in microseconds.
+        assertThat(redis.template().opsForValue().get(key)).isEqualTo(Long.toString((NOW + 13_000L) * 1_000L));
+    }
+
+    @Test
+    void fixedPointBucketsMoveMicroTokens() {
+        String key = redis.key("fixed");
+
+        List<Object> reply = redis.run("shard_transfer", List.of(key), 10 * MICRO, MICRO, NOW, MICRO, "0", "take", 0);
+
+        assertThat(reply).containsExactly(0L, 10_000_000L);
+        assertThat(redis.template().opsForHash().get(key, "micro_tokens")).isEqualTo("0");
+    }
+
+    private List<Object> transfer(String key, String algorithm, long now, String operation, long amount) {
+        return redis.run("shard_transfer", List.of(key), 10, 1, now, 1, algorithm, operation, amount);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardedRedisRateLimiterBackendTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    void hashIsSixtyFourBitFnv1a() {
+        assertThat(ShardedRedisRateLimiterBackend.hash("")).isEqualTo(0xcbf29ce484222325L);
+        assertThat(ShardedRedisRateLimiterBackend.hash("a")).isEqualTo(0xaf63dc4c8601ec8cL);
+        assertThat(ShardedRedisRateLimiterBackend.hash("api-key:1"))
+                .isEqualTo(ShardedRedisRateLimiterBackend.hash("api-key:1"))
+                .isNotEqualTo(ShardedRedisRateLimiterBackend.hash("api-key:2"));
+    }
+
+    @Test
+    void jumpHashStaysInRange() {
+        for (int buckets = 1; buckets <= 16; buckets++) {
+            for (long key = 0; key < 1_000; key++) {
+                assertThat(ShardedRedisRateLimiterBackend.jumpHash(key * 0x9e3779b97f4a7c15L, buckets))
+                        .isBetween(0, buckets - 1);
+            }
+        }
+    }
+
+    @Test
+    void jumpHashSpreadsKeysEvenly() {
+        int buckets = 8;
+        int[] counts = new int[buckets];
+        for (int i = 0; i < KEYS; i++) {
+            counts[ShardedRedisRateLimiterBackend.jumpHash(ShardedRedisRateLimiterBackend.hash("client-" + i),
+                    buckets)]++;
+        }
+        for (int count : counts) {
+            assertThat(count).isBetween(KEYS / buckets * 9 / 10, KEYS / buckets * 11 / 10);
+        }
+    }
+
+    @Test
+    void addingABucketOnlyMovesKeysToIt() {
+        for (int buckets = 1; buckets < 10; buckets++) {
+            int moved = 0;
+            for (int i = 0; i < KEYS; i++) {
+                long key = ShardedRedisRateLimiterBackend.hash("client-" + i);
+                int before = ShardedRedisRateLimiterBackend.jumpHash(key, buckets);
+                int after = ShardedRedisRateLimiterBackend.jumpHash(key, buckets + 1);
+                if (after != before) {
+                    assertThat(after).isEqualTo(buckets);
+                    moved++;
+                }
+            }
+            double expected = KEYS / (double) (buckets + 1);
+            assertThat((double) moved).isBetween(expected * 0.9, expected * 1.1);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.ratelimiter.backend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code sliding_window.lua} against a real Redis, see {@link ScriptTestRedis}. Capacity 10 and refill
+ * rate 10 per second make one-second windows; {@code NOW} starts one.
+ */
+class SlidingWindowScriptTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long WINDOW = NOW / 1_000L;
+
+    private ScriptTestRedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = ScriptTestRedis.connect();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void windowAllowsItsCapacity() {
+        String key = redis.key("window");
+
+        for (long left = 9; left >= 0; left--) {
+            List<Object> reply = call(key, 1, NOW);
+            assertThat(reply.get(0)).isEqualTo(1L);
+            assertThat(reply.get(1)).isEqualTo(left);
+        }
+        List<Object> rejected = call(key, 1, NOW);
+
+        assertThat(rejected.get(0)).isEqualTo(0L);
+        // Into the next window, until this one's ten requests weigh no more than nine.
+        assertThat(rejected.get(2)).isEqualTo(1_100L);
+        assertThat(rejected.get(3)).isEqualTo(2_000L);
+        assertThat(redis.template().opsForValue().get(key + ":" + WINDOW)).isEqualTo("10");
+        assertThat(redis.template().getExpire(key + ":" + WINDOW, TimeUnit.MILLISECONDS)).isBetween(1L, 2_000L);
+    }
+
+    @Test
+    void previousWindowCountsByItsOverlap() {
+        String key = redis.key("overlap");
+        for (int i = 0; i < 10; i++) {
+            call(key, 1, NOW);
+        }
+
+        // Half-way through the next window the previous one still weighs five requests.
+        for (int i = 0; i < 5; i++) {
+            assertThat(call(key, 1, NOW + 1_500).get(0)).isEqualTo(1L);
+        }
+        assertThat(call(key, 1, NOW + 1_500).get(0)).isEqualTo(0L);
+        assertThat(redis.template().opsForValue().get(key + ":" + (WINDOW + 1))).isEqualTo("5");
+    }
+
+    @Test
+    void costIsRoundedUpToWholeRequests() {
+        String key = redis.key("cost");
+
+        List<Object> reply = call(key, 1.5, NOW);
+
+        assertThat(reply.get(1)).isEqualTo(8L);
+        assertThat(redis.template().opsForValue().get(key + ":" + WINDOW)).isEqualTo("2");
+    }
+
+    private List<Object> call(String key, double cost, long now) {
+        return redis.run("sliding_window", List.of(key), 10, 10, cost, now);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.ratelimiter.filter;
+
+import com.example.ratelimiter.backend.InMemoryRateLimiterBackend;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.LimitBucket;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Requests are matched by the path the container mapped them by, not by their raw URI. The mock requests
+ * carry both, as the container would set them.
+ */
+class LimitResolverTest {
+
+    private final LimitResolver resolver = resolver();
+
+    @Test
+    void matchesBelowTheContextPath() {
+        assertThat(resolve("/app/api/orders", "/app", "/api/orders")).hasSize(1);
+    }
+
+    @Test
+    void percentEncodedPathIsMatchedDecoded() {
+        assertThat(resolve("/api/%6Frders", "", "/api/orders")).hasSize(1);
+    }
+
+    @Test
+    void pathParametersAreIgnored() {
+        assertThat(resolve("/api/orders;x=1", "", "/api/orders")).hasSize(1);
+        assertThat(resolve("/api;x=1/orders", "", "/api/orders")).hasSize(1);
+    }
+
+    @Test
+    void dotSegmentsAreResolved() {
+        assertThat(resolve("/api/./orders", "", "/api/orders")).hasSize(1);
+        assertThat(resolve("/api/public/../orders", "", "/api/orders")).hasSize(1);
+        assertThat(resolve("/api/orders/../public", "", "/api/public")).isEmpty();
+    }
+
+    @Test
+    void pathInfoFollowsTheServletPath() {
+        MockHttpServletRequest request = request("/api/orders", "", "/api");
+        request.setPathInfo("/orders");
+
+        assertThat(resolver.resolve(request, "client")).hasSize(1);
+    }
+
+    private List<LimitBucket> resolve(String requestUri, String contextPath, String servletPath) {
+        return resolver.resolve(request(requestUri, contextPath, servletPath), "client");
+    }
+
+    private static MockHttpServletRequest request(String requestUri, String contextPath, String servletPath) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", requestUri);
+        request.setContextPath(contextPath);
+        request.setServletPath(servletPath);
+        return request;
+    }
+
+    private static LimitResolver resolver() {
+        RateLimiterProperties.LimitRule orders = new RateLimiterProperties.LimitRule();
+        orders.setName("orders");
+        orders.setCapacity(10);
+        orders.setRefillRatePerSecond(1);
+        orders.setPaths(List.of("/api/orders"));
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.setLimits(List.of(orders));
+        return new LimitResolver(properties, new InMemoryRateLimiterBackend(properties), new DefaultResourceLoader());
+    }
+}
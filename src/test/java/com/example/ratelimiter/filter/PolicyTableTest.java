@@ -0,0 +1,170 @@
+package com.example.ratelimiter.filter;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.LimitBucket;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PolicyTableTest {
+
+    @Test
+    void singleStarMatchesExactlyOneSegment() {
+        PolicyTable table = compile(rule("items", "/api/items/*"));
+
+        assertThat(table.match("GET", null, "/api/items/42")).isEqualTo(1L);
+        assertThat(table.match("GET", null, "/api/items")).isZero();
+        assertThat(table.match("GET", null, "/api/items/42/reviews")).isZero();
+    }
+
+    @Test
+    void doubleStarMatchesThePathAndEverythingBelowIt() {
+        PolicyTable table = compile(rule("search", "/api/search/**"));
+
+        assertThat(table.match("GET", null, "/api/search")).isEqualTo(1L);
+        assertThat(table.match("GET", null, "/api/search/a")).isEqualTo(1L);
+        assertThat(table.match("GET", null, "/api/search/a/b/c")).isEqualTo(1L);
+        assertThat(table.match("GET", null, "/api/searches")).isZero();
+    }
+
+    @Test
+    void literalAndWildcardRulesMatchTogether() {
+        PolicyTable table = compile(rule("one", "/api/items/special"), rule("any", "/api/items/*"),
+                rule("all", "/api/**"));
+
+        assertThat(table.match("GET", null, "/api/items/special")).isEqualTo(0b111L);
+        assertThat(table.match("GET", null, "/api/items/other")).isEqualTo(0b110L);
+        assertThat(table.match("GET", null, "/api/other")).isEqualTo(0b100L);
+    }
+
+    @Test
+    void emptySegmentsAreIgnored() {
+        PolicyTable table = compile(rule("items", "/api/items/*"));
+
+        assertThat(table.match("GET", null, "//api///items/42/")).isEqualTo(1L);
+        assertThat(table.match("GET", null, "/api/items//")).isZero();
+    }
+
+    @Test
+    void rulesWithoutPathsMatchEveryPath() {
+        PolicyTable table = compile(rule("all"));
+
+        assertThat(table.match("GET", null, "/")).isEqualTo(1L);
+        assertThat(table.match("GET", null, "/anything/at/all")).isEqualTo(1L);
+    }
+
+    @Test
+    void methodsRestrictRules() {
+        RateLimiterProperties.LimitRule writes = rule("writes", "/api/**");
+        writes.setMethods(List.of("post", " PUT "));
+        PolicyTable table = compile(writes, rule("all", "/api/**"));
+
+        assertThat(table.match("POST", null, "/api/items")).isEqualTo(0b11L);
+        assertThat(table.match("PUT", null, "/api/items")).isEqualTo(0b11L);
+        assertThat(table.match("GET", null, "/api/items")).isEqualTo(0b10L);
+        // Non-standard methods only match rules without methods.
+        assertThat(table.match("PROPFIND", null, "/api/items")).isEqualTo(0b10L);
+    }
+
+    @Test
+    void unknownMethodIsRejected() {
+        RateLimiterProperties.LimitRule rule = rule("odd");
+        rule.setMethods(List.of("PROPFIND"));
+
+        assertThatThrownBy(() -> compile(rule)).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("PROPFIND");
+    }
+
+    @Test
+    void apiKeyGroupsRestrictRules() {
+        RateLimiterProperties.LimitRule partners = rule("partners");
+        partners.setApiKeyGroups(List.of("partner", "internal"));
+        PolicyTable table = PolicyTable.compile(List.of(partners, rule("all")),
+                Map.of("partner", List.of("key-a", "key-b"), "internal", List.of("key-c")));
+
+        assertThat(table.match("GET", "key-a", "/")).isEqualTo(0b11L);
+        assertThat(table.match("GET", "key-c", "/")).isEqualTo(0b11L);
+        assertThat(table.match("GET", "key-z", "/")).isEqualTo(0b10L);
+        assertThat(table.match("GET", null, "/")).isEqualTo(0b10L);
+    }
+
+    @Test
+    void unknownApiKeyGroupIsRejected() {
+        RateLimiterProperties.LimitRule rule = rule("partners");
+        rule.setApiKeyGroups(List.of("missing"));
+
+        assertThatThrownBy(() -> compile(rule)).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("missing");
+    }
+
+    @Test
+    void atMostSixtyFourRulesAreSupported() {
+        List<RateLimiterProperties.LimitRule> rules = new ArrayList<>();
+        for (int i = 0; i < Long.SIZE; i++) {
+            rules.add(rule("rule-" + i));
+        }
+        PolicyTable table = PolicyTable.compile(rules, Map.of());
+        assertThat(table.match("GET", null, "/")).isEqualTo(-1L);
+        assertThat(table.buckets(-1L, "client", null)).hasSize(Long.SIZE);
+
+        rules.add(rule("one-too-many"));
+        assertThatThrownBy(() -> PolicyTable.compile(rules, Map.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void invalidPatternsAreRejected() {
+        assertThatThrownBy(() -> compile(rule("inner", "/api/**/items")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> compile(rule("partial", "/api/item*")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> compile(rule("same"), rule("same")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void bucketsFollowTheRuleScope() {
+        RateLimiterProperties.LimitRule tenant = rule("tenant");
+        tenant.setScope("tenant");
+        RateLimiterProperties.LimitRule global = rule("global");
+        global.setScope("global");
+        PolicyTable table = compile(rule("client"), tenant, global);
+
+        List<LimitBucket> buckets = table.buckets(0b111L, "client-1", "tenant-1");
+
+        assertThat(buckets).extracting(bucket -> bucket.getLimit().getName())
+                .containsExactly("client", "tenant", "global");
+        assertThat(buckets).extracting(LimitBucket::getScopeId)
+                .containsExactly("client-1", "tenant-1", "global");
+    }
+
+    @Test
+    void tenantRulesAreSkippedWithoutATenant() {
+        RateLimiterProperties.LimitRule tenant = rule("tenant");
+        tenant.setScope("tenant");
+        PolicyTable table = compile(rule("client"), tenant);
+
+        assertThat(table.buckets(0b11L, "client-1", null)).extracting(LimitBucket::getScopeId)
+                .containsExactly("client-1");
+        assertThat(table.buckets(0b11L, "client-1", " ")).hasSize(1);
+        assertThat(table.buckets(0b10L, "client-1", null)).isEmpty();
+    }
+
+    private static PolicyTable compile(RateLimiterProperties.LimitRule... rules) {
+        return PolicyTable.compile(List.of(rules), Map.of());
+    }
+
+    private static RateLimiterProperties.LimitRule rule(String name, String... paths) {
+        RateLimiterProperties.LimitRule rule = new RateLimiterProperties.LimitRule();
+        rule.setName(name);
+        rule.setCapacity(10);
+        rule.setRefillRatePerSecond(1);
+        rule.setPaths(List.of(paths));
+        return rule;
+    }
+}
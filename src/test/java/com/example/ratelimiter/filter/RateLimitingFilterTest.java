@@ -0,0 +1,157 @@
+package com.example.ratelimiter.filter;
+
+import com.example.ratelimiter.backend.RateLimiterBackend;
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.RateLimitResult;
+import com.example.ratelimiter.service.HeavyHitters;
+import com.example.ratelimiter.service.RateLimiterService;
+import com.example.ratelimiter.service.RedisCircuitBreaker;
+import com.example.ratelimiter.service.RejectionCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The async path of {@link RateLimitingFilter}: suspend, dispatch once, apply the decision on the ASYNC
+ * dispatch. The backend's decision is completed by hand.
+ */
+class RateLimitingFilterTest {
+
+    private final CompletableFuture<RateLimitResult> decision = new CompletableFuture<>();
+    private final RateLimiterProperties properties = new RateLimiterProperties();
+    private final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/orders");
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private final AtomicInteger dispatches = new AtomicInteger();
+
+    RateLimitingFilterTest() {
+        properties.getAsync().setEnabled(true);
+        request.setAsyncSupported(true);
+    }
+
+    @Test
+    void decisionIsAppliedOnTheAsyncDispatch() throws Exception {
+        RateLimitingFilter filter = filter();
+        MockFilterChain chain = new MockFilterChain();
+
+        MockAsyncContext asyncContext = suspend(filter);
+        assertThat(chain.getRequest()).isNull();
+        decision.complete(RateLimitResult.rejectRateLimited(0, 2_000L, 10_000L));
+        filter.doFilter(asyncDispatch(), response, chain);
+
+        assertThat(dispatches).hasValue(1);
+        assertThat(asyncContext.getDispatchedPath()).isEqualTo("/api/orders");
+        assertThat(chain.getRequest()).isNull();
+        assertThat(response.getStatus()).isEqualTo(429);
+        assertThat(response.getHeader("Retry-After")).isEqualTo("2");
+    }
+
+    @Test
+    void timeoutFailsClosedAndTheLateDecisionIsDropped() throws Exception {
+        RateLimitingFilter filter = filter();
+        MockFilterChain chain = new MockFilterChain();
+
+        MockAsyncContext asyncContext = suspend(filter);
+        timeOut(asyncContext);
+        decision.complete(RateLimitResult.allow(9, RateLimitResult.UNKNOWN, RateLimitResult.UNKNOWN));
+        filter.doFilter(asyncDispatch(), response, chain);
+
+        assertThat(dispatches).hasValue(1);
+        assertThat(chain.getRequest()).isNull();
+        assertThat(response.getStatus()).isEqualTo(503);
+    }
+
+    @Test
+    void timeoutFailsOpenWhenConfigured() throws Exception {
+        properties.setFailOpenOnRedisError(true);
+        RateLimitingFilter filter = filter();
+        MockFilterChain chain = new MockFilterChain();
+
+        timeOut(suspend(filter));
+        filter.doFilter(asyncDispatch(), response, chain);
+
+        assertThat(dispatches).hasValue(1);
+        assertThat(chain.getRequest()).isNotNull();
+        assertThat(response.getHeader("X-RateLimit-Degraded")).isEqualTo("true");
+    }
+
+    @Test
+    void timeoutAfterTheDecisionDoesNotDispatchAgain() throws Exception {
+        RateLimitingFilter filter = filter();
+
+        MockAsyncContext asyncContext = suspend(filter);
+        decision.complete(RateLimitResult.allow(9, RateLimitResult.UNKNOWN, RateLimitResult.UNKNOWN));
+        timeOut(asyncContext);
+
+        assertThat(dispatches).hasValue(1);
+    }
+
+    @Test
+    void onlyRequestsMappedToTheActuatorSkipTheLimit() throws Exception {
+        RateLimitingFilter filter = filter();
+        MockHttpServletRequest health = new MockHttpServletRequest("GET", "/actuator/health");
+        health.setServletPath("/actuator/health");
+        request.setRequestURI("/actuator/..;/api/orders");
+        request.setServletPath("/api/orders");
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(health, response, chain);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(chain.getRequest()).isSameAs(health);
+        assertThat(request.isAsyncStarted()).isTrue();
+    }
+
+    private RateLimitingFilter filter() {
+        RateLimiterBackend backend = new RateLimiterBackend() {
+            @Override
+            public RateLimitResult tryAcquire(String clientId, long nowMillis) {
+                throw new UnsupportedOperationException("async only");
+            }
+
+            @Override
+            public CompletableFuture<RateLimitResult> tryAcquireAsync(String clientId, long nowMillis) {
+                return decision;
+            }
+        };
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        RateLimiterService service = new RateLimiterService(backend, properties, Clock.systemUTC(),
+                beans.getBeanProvider(RejectionCache.class), beans.getBeanProvider(RedisCircuitBreaker.class),
+                new SimpleMeterRegistry());
+        return new RateLimitingFilter(service, properties, beans.getBeanProvider(HeavyHitters.class),
+                new LimitResolver(properties, backend, new DefaultResourceLoader()));
+    }
+
+    private MockAsyncContext suspend(RateLimitingFilter filter) throws Exception {
+        filter.doFilter(request, response, new MockFilterChain());
+        assertThat(request.isAsyncStarted()).isTrue();
+        MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+        asyncContext.addDispatchHandler(dispatches::incrementAndGet);
+        return asyncContext;
+    }
+
+    private static void timeOut(MockAsyncContext asyncContext) throws Exception {
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+    }
+
+    private MockHttpServletRequest asyncDispatch() {
+        request.setAsyncStarted(false);
+        request.setDispatcherType(DispatcherType.ASYNC);
+        return request;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.ratelimiter.service;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HeavyHittersTest {
+
+    @Test
+    void emptyWindowReportsNoClients() {
+        HeavyHitters.Report report = heavyHitters(3, Duration.ofHours(1)).report();
+
+        assertThat(report.getTotalRequests()).isZero();
+        assertThat(report.getClients()).isEmpty();
+    }
+
+    @Test
+    void heaviestClientsAreReportedHeaviestFirstAboveTheLongTail() {
+        HeavyHitters heavyHitters = heavyHitters(3, Duration.ofHours(1));
+        for (int i = 0; i < 2_000; i++) {
+            heavyHitters.record("tail-" + i, false);
+            if (i < 1_000) {
+                heavyHitters.record("heavy-a", false);
+            }
+            if (i < 600) {
+                heavyHitters.record("heavy-b", false);
+            }
+            if (i < 300) {
+                heavyHitters.record("heavy-c", false);
+            }
+        }
+
+        HeavyHitters.Report report = heavyHitters.report();
+
+        assertThat(report.getTotalRequests()).isEqualTo(3_900L);
+        assertThat(report.getClients()).extracting(HeavyHitters.Client::getClientId)
+                .containsExactly("heavy-a", "heavy-b", "heavy-c");
+        // Count-min estimates never undercount.
+        assertThat(report.getClients()).extracting(HeavyHitters.Client::getRequests)
+                .satisfies(requests -> {
+                    assertThat(requests.get(0)).isBetween(1_000L, 1_050L);
+                    assertThat(requests.get(1)).isBetween(600L, 650L);
+                    assertThat(requests.get(2)).isBetween(300L, 350L);
+                });
+    }
+
+    @Test
+    void rejectionRatioCountsRateLimitedRequests() {
+        HeavyHitters heavyHitters = heavyHitters(2, Duration.ofHours(1));
+        for (int i = 0; i < 400; i++) {
+            heavyHitters.record("client", i % 4 == 0);
+        }
+
+        HeavyHitters.Client client = heavyHitters.report().getClients().get(0);
+
+        assertThat(client.getClientId()).isEqualTo("client");
+        assertThat(client.getRequests()).isEqualTo(400L);
+        assertThat(client.getRejectionRatio()).isCloseTo(0.25, within(1e-9));
+    }
+
+    @Test
+    void completedWindowIsReportedInsteadOfTheCurrentOne() throws InterruptedException {
+        HeavyHitters heavyHitters = heavyHitters(2, Duration.ofMillis(200));
+        for (int i = 0; i < 10; i++) {
+            heavyHitters.record("old", false);
+        }
+        Thread.sleep(250);
+        heavyHitters.record("new", false);
+
+        HeavyHitters.Report report = heavyHitters.report();
+
+        assertThat(report.getTotalRequests()).isEqualTo(10L);
+        assertThat(report.getClients()).extracting(HeavyHitters.Client::getClientId).containsExactly("old");
+    }
+
+    private static HeavyHitters heavyHitters(int topK, Duration window) {
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.getHeavyHitters().setEnabled(true);
+        properties.getHeavyHitters().setTopK(topK);
+        properties.getHeavyHitters().setWindow(window);
+        properties.getHeavyHitters().setSketchWidth(2048);
+        properties.getHeavyHitters().setSketchDepth(4);
+        return new HeavyHitters(properties);
+    }
+}
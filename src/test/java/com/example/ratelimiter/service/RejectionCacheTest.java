@@ -0,0 +1,119 @@
+package com.example.ratelimiter.service;
+
+import com.example.ratelimiter.config.RateLimiterProperties;
+import com.example.ratelimiter.model.RateLimitDecision;
+import com.example.ratelimiter.model.RateLimitResult;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RejectionCacheTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void unknownClientIsNotCached() {
+        assertThat(cache(1.0, 16).get("client", NOW)).isNull();
+    }
+
+    @Test
+    void rejectionIsReplayedUntilTheRetryAfterWithTheRemainingTiming() {
+        RejectionCache cache = cache(1.0, 16);
+        cache.recordRejection("client", RateLimitResult.rejectRateLimited(0.5, 500L, 9_500L), NOW);
+
+        RateLimitResult cached = cache.get("client", NOW + 200);
+
+        assertThat(cached.getDecision()).isEqualTo(RateLimitDecision.REJECT_RATE_LIMITED);
+        assertThat(cached.getRemainingTokens()).isEqualTo(0.5);
+        assertThat(cached.getRetryAfterMillis()).isEqualTo(300L);
+        assertThat(cached.getResetMillis()).isEqualTo(9_300L);
+        assertThat(cache.get("client", NOW + 500)).isNull();
+        assertThat(cache.get("other", NOW + 200)).isNull();
+    }
+
+    @Test
+    void rejectionWithEnoughTokensIsNotCached() {
+        RejectionCache cache = cache(1.0, 16);
+        cache.recordRejection("client", RateLimitResult.rejectRateLimited(1.0, 0L, 9_000L), NOW);
+
+        assertThat(cache.get("client", NOW)).isNull();
+    }
+
+    @Test
+    void unknownRetryAfterIsEstimatedFromTheRefillRate() {
+        RejectionCache cache = cache(2.0, 16);
+        cache.recordRejection("client", RateLimitResult.rejectRateLimited(0.0), NOW);
+
+        assertThat(cache.get("client", NOW + 499)).isNotNull();
+        assertThat(cache.get("client", NOW + 500)).isNull();
+    }
+
+    @Test
+    void bucketWithoutRefillIsCachedForTheMaxTtl() {
+        RejectionCache cache = cache(0.0, 16);
+        cache.recordRejection("client", RateLimitResult.rejectRateLimited(0.0, RateLimitResult.UNKNOWN,
+                RateLimitResult.UNKNOWN), NOW);
+
+        RateLimitResult cached = cache.get("client", NOW + 59_999);
+
+        assertThat(cached.getRetryAfterMillis()).isEqualTo(RateLimitResult.UNKNOWN);
+        assertThat(cached.getResetMillis()).isEqualTo(RateLimitResult.UNKNOWN);
+        assertThat(cache.get("client", NOW + 60_000)).isNull();
+    }
+
+    @Test
+    void longRetryAfterIsCappedAtTheMaxTtl() {
+        RejectionCache cache = cache(1.0, 16);
+        cache.recordRejection("client", RateLimitResult.rejectRateLimited(0.0, 3_600_000L, 3_600_000L), NOW);
+
+        assertThat(cache.get("client", NOW + 60_000)).isNull();
+    }
+
+    @Test
+    void fullSetEvictsTheEntryThatExpiresFirst() {
+        // Four slots, two two-way sets; "a", "d" and "e" all hash to the first set.
+        RejectionCache cache = cache(1.0, 4);
+        cache.recordRejection("a", RateLimitResult.rejectRateLimited(0.0, 1_000L, 1_000L), NOW);
+        cache.recordRejection("d", RateLimitResult.rejectRateLimited(0.0, 2_000L, 2_000L), NOW);
+        cache.recordRejection("e", RateLimitResult.rejectRateLimited(0.0, 3_000L, 3_000L), NOW);
+
+        assertThat(cache.get("a", NOW)).isNull();
+        assertThat(cache.get("d", NOW)).isNotNull();
+        assertThat(cache.get("e", NOW)).isNotNull();
+    }
+
+    @Test
+    void expiredEntryIsReplacedFirst() {
+        RejectionCache cache = cache(1.0, 4);
+        cache.recordRejection("a", RateLimitResult.rejectRateLimited(0.0, 5_000L, 5_000L), NOW);
+        cache.recordRejection("d", RateLimitResult.rejectRateLimited(0.0, 1_000L, 1_000L), NOW);
+        cache.recordRejection("e", RateLimitResult.rejectRateLimited(0.0, 3_000L, 3_000L), NOW + 1_000);
+
+        assertThat(cache.get("a", NOW + 1_000)).isNotNull();
+        assertThat(cache.get("e", NOW + 1_000)).isNotNull();
+    }
+
+    @Test
+    void repeatedRejectionReplacesTheClientsEntry() {
+        RejectionCache cache = cache(1.0, 4);
+        cache.recordRejection("a", RateLimitResult.rejectRateLimited(0.0, 1_000L, 1_000L), NOW);
+        cache.recordRejection("d", RateLimitResult.rejectRateLimited(0.0, 5_000L, 5_000L), NOW);
+        cache.recordRejection("d", RateLimitResult.rejectRateLimited(0.0, 2_000L, 2_000L), NOW);
+
+        assertThat(cache.get("a", NOW)).isNotNull();
+        assertThat(cache.get("d", NOW).getRetryAfterMillis()).isEqualTo(2_000L);
+    }
+
+    private static RejectionCache cache(double refillRatePerSecond, int maxEntries) {
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.setCapacity(10);
+        properties.setRefillRatePerSecond(refillRatePerSecond);
+        properties.setCostPerRequest(1);
+        properties.getNegativeCache().setEnabled(true);
+        properties.getNegativeCache().setMaxEntries(maxEntries);
+        properties.getNegativeCache().setMaxTtl(Duration.ofSeconds(60));
+        return new RejectionCache(properties);
+    }
+}